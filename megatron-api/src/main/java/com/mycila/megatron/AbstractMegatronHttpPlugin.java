@@ -15,11 +15,21 @@
  */
 package com.mycila.megatron;
 
+import com.mycila.megatron.http.AsyncHttpSender;
 import com.mycila.megatron.http.BlockingHttpClient;
+import com.mycila.megatron.http.Http;
 import com.mycila.megatron.http.NonBlockingHttpClient;
+import com.mycila.megatron.queue.DropPolicy;
+import com.mycila.megatron.queue.FlushPolicy;
+import com.mycila.megatron.queue.RingBuffer;
+import com.mycila.megatron.queue.WaitStrategy;
+import com.mycila.megatron.reactor.TransportReactor;
+import com.mycila.megatron.spool.DiskSpool;
 import com.tc.classloader.CommonComponent;
 
+import java.io.File;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Mathieu Carbou
@@ -31,20 +41,55 @@ public abstract class AbstractMegatronHttpPlugin extends AbstractMegatronPlugin
   @Config protected String prefix = "megatron";
   @Config protected int queueSize = Integer.MAX_VALUE;
   @Config protected boolean async = true;
+  @Config protected DropPolicy dropPolicy = DropPolicy.DROP_NEWEST;
+  @Config protected long blockTimeout = 1_000;
   @Config protected String[] tags = {};
+  @Config protected int connectTimeout = Http.DEFAULT_TIMEOUT;
+  @Config protected int readTimeout = Http.DEFAULT_TIMEOUT;
+  @Config protected int gzipThreshold = 0;
+  @Config protected int maxBodySize = NonBlockingHttpClient.DEFAULT_MAX_BODY_SIZE;
+  @Config protected int maxInFlight = 1;
+  @Config protected int maxRetries = 3;
+  @Config protected long retryBackoff = 1_000;
+  @Config protected long maxRetryBackoff = 30_000;
+  @Config protected File spoolDir;
+  @Config protected long spoolMaxSize = 256 * 1024 * 1024;
+  @Config protected long spoolRetention = 24 * 60 * 60 * 1000;
+  @Config protected int spoolReplayRate = 10;
+  @Config protected int batchBytes = 0;
+  @Config protected int batchLines = 0;
+  @Config protected long lingerMs = 0;
 
   protected Client client;
 
   @Override
   protected void enable(MegatronConfiguration configuration) {
-    client = async ?
-        new NonBlockingHttpClient(url, queueSize <= 0 ? Integer.MAX_VALUE : queueSize, getApi().getThreadFactory()) :
-        new BlockingHttpClient(url);
+    Http http = new Http(url, connectTimeout, readTimeout, gzipThreshold);
+    DiskSpool spool = async && spoolDir != null ? new DiskSpool(spoolDir, spoolMaxSize, spoolRetention, TimeUnit.MILLISECONDS) : null;
+    if (async) {
+      TransportReactor.Lane lane = getApi().getTransportReactor().nextLane();
+      AsyncHttpSender asyncSender = new AsyncHttpSender(http, getApi().getAsyncExecutor(), maxInFlight, maxRetries, retryBackoff, maxRetryBackoff, TimeUnit.MILLISECONDS);
+      client = new NonBlockingHttpClient(http, asyncSender, maxBodySize, spool, spoolReplayRate, newFlushPolicy(), newQueue(lane.getWaitStrategy()), lane);
+    } else {
+      client = new BlockingHttpClient(http);
+    }
+    getApi().getTransportStatistics().register(getNamespace(), client.getStatistics());
+  }
+
+  protected <E> RingBuffer<E> newQueue(WaitStrategy waitStrategy) {
+    return new RingBuffer<>(
+        queueSize <= 0 || queueSize == Integer.MAX_VALUE ? NonBlockingHttpClient.DEFAULT_QUEUE_SIZE : queueSize,
+        dropPolicy, blockTimeout, TimeUnit.MILLISECONDS, waitStrategy);
+  }
+
+  protected FlushPolicy newFlushPolicy() {
+    return new FlushPolicy(batchBytes, batchLines, lingerMs, TimeUnit.MILLISECONDS);
   }
 
   @Override
   public void close() {
     if (enable) {
+      getApi().getTransportStatistics().unregister(getNamespace());
       client.close();
       enable = false;
     }
@@ -15,16 +15,24 @@
  */
 package com.mycila.megatron;
 
+import com.mycila.megatron.format.ChangeDetector;
+import com.mycila.megatron.format.MetricFilter;
+import com.mycila.megatron.format.Rollup;
+import com.mycila.megatron.format.RollupAggregator;
+import com.mycila.megatron.format.StatisticsSnapshot;
 import com.tc.classloader.CommonComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.terracotta.management.model.notification.ContextualNotification;
 
 import java.io.File;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,6 +51,29 @@ public abstract class AbstractMegatronPlugin implements MegatronPlugin {
   protected final Map<Class<?>, Function<String, Object>> converters = new IdentityHashMap<>();
 
   @Config protected boolean enable = false;
+  @Config protected String[] include = {};
+  @Config protected String[] exclude = {};
+  @Config protected boolean delta = false;
+  @Config protected double deltaEpsilon = 0;
+  @Config protected int deltaHeartbeat = 10;
+  @Config protected String[] rollup = {};
+  @Config protected boolean rollupOnly = false;
+  @Config protected boolean quantiles = false;
+
+  /**
+   * Compiled from the {@code include} and {@code exclude} rules before the plugin is enabled
+   */
+  protected MetricFilter filter = MetricFilter.ACCEPT_ALL;
+
+  /**
+   * Suppresses the unchanged values when {@code delta} is true, and sends all the values of a context again every {@code deltaHeartbeat} collections of this context
+   */
+  protected ChangeDetector changes = ChangeDetector.DISABLED;
+
+  /**
+   * Rolls up the contexts across the batches with the {@code rollup} keys, or null if the contexts are not rolled up
+   */
+  protected RollupAggregator rollups;
 
   private final Map<String, Object> pluginConfig = new TreeMap<>();
 
@@ -67,6 +98,14 @@ public abstract class AbstractMegatronPlugin implements MegatronPlugin {
     });
   }
 
+  /**
+   * @return the namespace of this plugin (i.e. {@code megatron.statsd}), or its class name if it has none
+   */
+  protected final String getNamespace() {
+    Namespace namespace = getClass().getAnnotation(Namespace.class);
+    return namespace == null ? getClass().getSimpleName() : namespace.value();
+  }
+
   @Override
   public final void setApi(MegatronApi api) {
     this.api = api;
@@ -86,6 +125,16 @@ public abstract class AbstractMegatronPlugin implements MegatronPlugin {
 
         try {
           injectConfig(ns, configuration);
+          filter = MetricFilter.compile(include, exclude);
+          if (rollup.length > 0) {
+            rollups = new RollupAggregator(Rollup.of(rollup));
+          }
+          if (delta) {
+            changes = new ChangeDetector(deltaEpsilon, deltaHeartbeat);
+          }
+        } catch (IllegalArgumentException e) {
+          enable = false;
+          throw new ConfigurationException(e);
         } catch (ConfigurationException e) {
           enable = false;
           throw e;
@@ -126,6 +175,55 @@ public abstract class AbstractMegatronPlugin implements MegatronPlugin {
     }
   }
 
+  /**
+   * Must be called once per snapshot, since the rolled-up contexts are kept from one batch to the next.
+   *
+   * @return the entries of the snapshot to export: all of them, plus the rollups of the groups having completed a collection if {@code rollup} is set.
+   * If {@code rollupOnly} is true, the rolled-up contexts are only exported through their rollups.
+   * If {@code quantiles} is true, the p50, p99 and p100 (max) of the samples of each exported entry, rollups included, are exported too.
+   */
+  protected List<StatisticsSnapshot.Entry> selectEntries(StatisticsSnapshot snapshot) {
+    RollupAggregator rollups = this.rollups;
+    if (rollups == null && !quantiles) {
+      return snapshot.getEntries();
+    }
+    Rollup rollup = rollups == null ? null : rollups.getRollup();
+    List<StatisticsSnapshot.Entry> rolledUp = rollups == null ? Collections.emptyList() : rollups.update(snapshot);
+    List<StatisticsSnapshot.Entry> entries = new ArrayList<>((snapshot.size() + rolledUp.size()) * (quantiles ? 2 : 1));
+    for (StatisticsSnapshot.Entry entry : snapshot) {
+      if (rollup == null || !rollupOnly || !rollup.appliesTo(entry.getContext())) {
+        entries.add(entry);
+      }
+    }
+    entries.addAll(rolledUp);
+    if (quantiles) {
+      for (int i = 0, size = entries.size(); i < size; i++) {
+        StatisticsSnapshot.Entry sketched = entries.get(i).getQuantiles();
+        if (!sketched.getColumns().isEmpty()) {
+          entries.add(sketched);
+        }
+      }
+    }
+    return entries;
+  }
+
+  @Override
+  public void onNotifications(List<ContextualNotification> notifications) {
+    notifications.forEach(this::onNotification);
+  }
+
+  /**
+   * Evicts the state kept for the clients, entities, caches and servers which are gone.
+   * Plugins overriding {@link #onNotifications(List)} call it for each notification.
+   */
+  protected void onNotification(ContextualNotification notification) {
+    RollupAggregator rollups = this.rollups;
+    if (rollups != null) {
+      rollups.onNotification(notification);
+    }
+    changes.onNotification(notification);
+  }
+
   private void injectConfig(String ns, MegatronConfiguration configuration) throws ConfigurationException {
     Class<?> c = getClass();
     while (c != Object.class) {
@@ -147,10 +245,10 @@ public abstract class AbstractMegatronPlugin implements MegatronPlugin {
                 Class<?> arrayType = field.getType().getComponentType();
                 converted = Array.newInstance(arrayType, values.length);
                 for (int i = 0; i < values.length; i++) {
-                  Array.set(converted, i, converters.get(arrayType).apply(values[i]));
+                  Array.set(converted, i, convert(arrayType, values[i]));
                 }
               } else {
-                converted = converters.get(field.getType()).apply(value);
+                converted = convert(field.getType(), value);
               }
               try {
                 if (!field.isAccessible()) {
@@ -174,6 +272,22 @@ public abstract class AbstractMegatronPlugin implements MegatronPlugin {
     }
   }
 
+  private Object convert(Class<?> type, String value) {
+    Function<String, Object> converter = converters.get(type);
+    if (converter != null) {
+      return converter.apply(value);
+    }
+    if (type.isEnum()) {
+      for (Object constant : type.getEnumConstants()) {
+        if (((Enum<?>) constant).name().equalsIgnoreCase(value.trim())) {
+          return constant;
+        }
+      }
+      throw new ConfigurationException("Bad value '" + value + "' for plugin " + getClass().getSimpleName() + ": expected one of " + Arrays.toString(type.getEnumConstants()));
+    }
+    throw new ConfigurationException("Unsupported configuration type " + type.getName() + " for plugin " + getClass().getSimpleName());
+  }
+
   @Override
   public final boolean isEnable() {
     return enable;
@@ -15,10 +15,25 @@
  */
 package com.mycila.megatron;
 
-import com.mycila.megatron.udp.BlockingUdpClient;
+import com.mycila.megatron.queue.DropPolicy;
+import com.mycila.megatron.queue.FlushPolicy;
+import com.mycila.megatron.queue.RingBuffer;
+import com.mycila.megatron.queue.WaitStrategy;
+import com.mycila.megatron.reactor.TransportReactor;
+import com.mycila.megatron.tcp.NonBlockingTcpClient;
+import com.mycila.megatron.tcp.TcpClient;
+import com.mycila.megatron.udp.NioUdpClient;
 import com.mycila.megatron.udp.NonBlockingUdpClient;
+import com.mycila.megatron.unix.UnixSocketClient;
 import com.tc.classloader.CommonComponent;
 
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 /**
  * @author Mathieu Carbou
  */
@@ -30,25 +45,131 @@ public abstract class AbstractMegatronUdpPlugin extends AbstractMegatronPlugin {
   @Config protected String prefix = "megatron";
   @Config protected int queueSize = Integer.MAX_VALUE;
   @Config protected boolean async = true;
+  @Config protected DropPolicy dropPolicy = DropPolicy.DROP_NEWEST;
+  @Config protected long blockTimeout = 1_000;
   @Config protected String[] tags = {};
+  @Config protected int maxPacketSize = 0;
+  @Config protected Protocol protocol = Protocol.UDP;
+  @Config protected String[] servers = {};
+  @Config protected long dnsRefreshInterval = NioUdpClient.DEFAULT_DNS_REFRESH_INTERVAL;
+  @Config protected int batchBytes = 0;
+  @Config protected int batchLines = 0;
+  @Config protected long lingerMs = 0;
+  @Config protected long connectTimeout = TcpClient.DEFAULT_CONNECT_TIMEOUT;
+  @Config protected long writeTimeout = TcpClient.DEFAULT_WRITE_TIMEOUT;
+  @Config protected String socketPath;
 
   protected Client client;
 
   @Override
   protected void enable(MegatronConfiguration configuration) {
-    client = async ?
-        new NonBlockingUdpClient(server, port, queueSize <= 0 ? Integer.MAX_VALUE : queueSize, getApi().getThreadFactory()) :
-        new BlockingUdpClient(server, port);
+    List<String> endpoints = Stream.of(servers).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toList());
+    if (socketPath != null && !socketPath.isEmpty()) {
+      client = newUnixSocketClient();
+    } else if (endpoints.isEmpty()) {
+      client = newClient(server, port);
+    } else {
+      List<Client> clients = new ArrayList<>(endpoints.size());
+      List<String> names = new ArrayList<>(endpoints.size());
+      for (String endpoint : endpoints) {
+        InetSocketAddress address;
+        try {
+          address = parseEndpoint(endpoint, port);
+        } catch (IllegalArgumentException e) {
+          throw new ConfigurationException("Bad endpoint '" + endpoint + "' in servers for plugin " + getClass().getSimpleName() + ": " + e.getMessage(), e);
+        }
+        String host = address.getHostString();
+        clients.add(newClient(host, address.getPort()));
+        names.add((host.indexOf(':') == -1 ? host : "[" + host + "]") + ":" + address.getPort());
+      }
+      client = new ShardingClient(clients, names);
+    }
+    getApi().getTransportStatistics().register(getNamespace(), client.getStatistics());
+  }
+
+  private Client newUnixSocketClient() {
+    if (!UnixSocketClient.isSupported()) {
+      throw new ConfigurationException(UnixSocketClient.UNSUPPORTED + ": unable to use socketPath " + socketPath + " for plugin " + getClass().getSimpleName());
+    }
+    if (async) {
+      TransportReactor.Lane lane = getApi().getTransportReactor().nextLane();
+      return new NonBlockingClient(new UnixSocketClient(socketPath, maxPacketSize), newQueue(lane.getWaitStrategy()), newFlushPolicy(), lane);
+    }
+    return new UnixSocketClient(socketPath, maxPacketSize);
+  }
+
+  private Client newClient(String server, int port) {
+    TransportReactor reactor = getApi().getTransportReactor();
+    if (protocol == Protocol.TCP) {
+      TcpClient tcp = new TcpClient(server, port, TcpClient.DEFAULT_BUFFER_SIZE, connectTimeout, writeTimeout, TimeUnit.MILLISECONDS);
+      if (async) {
+        // not on a shared lane: resolving and writing can block
+        return new NonBlockingTcpClient(tcp, newQueue(WaitStrategy.Type.PARK.create()), newFlushPolicy(), getApi().getThreadFactory());
+      }
+      return tcp;
+    }
+    if (async) {
+      TransportReactor.Lane lane = reactor.nextLane();
+      return new NonBlockingUdpClient(server, port, maxPacketSize, dnsRefreshInterval, newFlushPolicy(), newQueue(lane.getWaitStrategy()), lane);
+    }
+    return new NioUdpClient(reactor.openDatagramChannel(server, port), server, port, maxPacketSize, dnsRefreshInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Parses an endpoint of the {@code servers} list: {@code host}, {@code host:port}, or an IPv6 address alone ({@code ::1})
+   * or in brackets when followed by a port ({@code [::1]:8125})
+   *
+   * @return an unresolved address
+   * @throws IllegalArgumentException if the endpoint is malformed (including a {@link NumberFormatException} for a bad port)
+   */
+  static InetSocketAddress parseEndpoint(String endpoint, int defaultPort) {
+    String host = endpoint;
+    String port = null;
+    if (endpoint.startsWith("[")) {
+      int end = endpoint.indexOf(']');
+      if (end == -1) {
+        throw new IllegalArgumentException("missing ']'");
+      }
+      host = endpoint.substring(1, end);
+      if (end + 1 < endpoint.length()) {
+        if (endpoint.charAt(end + 1) != ':') {
+          throw new IllegalArgumentException("expected ':' after ']'");
+        }
+        port = endpoint.substring(end + 2);
+      }
+    } else {
+      int sep = endpoint.indexOf(':');
+      // more than one ':' is an IPv6 address without port
+      if (sep != -1 && sep == endpoint.lastIndexOf(':')) {
+        host = endpoint.substring(0, sep);
+        port = endpoint.substring(sep + 1);
+      }
+    }
+    if (host.isEmpty()) {
+      throw new IllegalArgumentException("missing host");
+    }
+    return InetSocketAddress.createUnresolved(host, port == null ? defaultPort : Integer.parseInt(port));
   }
 
   @Override
   public void close() {
     if (enable) {
+      getApi().getTransportStatistics().unregister(getNamespace());
       client.close();
       enable = false;
     }
   }
 
+  protected <E> RingBuffer<E> newQueue(WaitStrategy waitStrategy) {
+    return new RingBuffer<>(
+        queueSize <= 0 || queueSize == Integer.MAX_VALUE ? NonBlockingUdpClient.DEFAULT_QUEUE_SIZE : queueSize,
+        dropPolicy, blockTimeout, TimeUnit.MILLISECONDS, waitStrategy);
+  }
+
+  protected FlushPolicy newFlushPolicy() {
+    return new FlushPolicy(batchBytes, batchLines, lingerMs, TimeUnit.MILLISECONDS);
+  }
+
   public String getServer() {
     return server;
   }
@@ -69,7 +190,47 @@ public abstract class AbstractMegatronUdpPlugin extends AbstractMegatronPlugin {
     return async;
   }
 
+  public DropPolicy getDropPolicy() {
+    return dropPolicy;
+  }
+
+  public long getBlockTimeout() {
+    return blockTimeout;
+  }
+
   public String[] getTags() {
     return tags;
   }
+
+  public int getMaxPacketSize() {
+    return maxPacketSize;
+  }
+
+  public Protocol getProtocol() {
+    return protocol;
+  }
+
+  public String[] getServers() {
+    return servers;
+  }
+
+  public long getDnsRefreshInterval() {
+    return dnsRefreshInterval;
+  }
+
+  public String getSocketPath() {
+    return socketPath;
+  }
+
+  public int getBatchBytes() {
+    return batchBytes;
+  }
+
+  public int getBatchLines() {
+    return batchLines;
+  }
+
+  public long getLingerMs() {
+    return lingerMs;
+  }
 }
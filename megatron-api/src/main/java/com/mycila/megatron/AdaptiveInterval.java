@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import com.tc.classloader.CommonComponent;
+
+/**
+ * Lengthens the statistic collection interval when the pipeline does not keep up, and shortens it back when it drains.
+ * <p>
+ * The pressure is the fill ratio of the fullest queue of the pipeline (dispatch lanes, transport queues).
+ * When it reaches the high-water mark, the configured interval is multiplied by a factor which doubles, up to a maximum.
+ * When it falls to the low-water mark, the factor is halved, down to 1 (the configured interval, which is the floor).
+ * In between, the interval does not change.
+ * <p>
+ * The pressure is evaluated at most once per current interval of the slowest collector, so that the pipeline has the time to react to a change.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class AdaptiveInterval {
+
+  /**
+   * Never changes the configured interval
+   */
+  public static final AdaptiveInterval DISABLED = new AdaptiveInterval(1, 0, 1);
+
+  private final double highWaterMark;
+  private final double lowWaterMark;
+  private final int maxFactor;
+
+  private int factor = 1;
+  private long nextUpdate = Long.MIN_VALUE;
+
+  public AdaptiveInterval(double highWaterMark, double lowWaterMark, int maxFactor) {
+    if (!(lowWaterMark >= 0 && lowWaterMark < highWaterMark && highWaterMark <= 1)) {
+      throw new IllegalArgumentException("Bad water marks: low=" + lowWaterMark + ", high=" + highWaterMark);
+    }
+    if (maxFactor < 1) {
+      throw new IllegalArgumentException("Bad maximum factor: " + maxFactor);
+    }
+    this.highWaterMark = highWaterMark;
+    this.lowWaterMark = lowWaterMark;
+    this.maxFactor = maxFactor;
+  }
+
+  /**
+   * Creates an adaptive interval from the {@code megatron.collector.adaptive} (default: false),
+   * {@code megatron.collector.highWaterMark} (default: 0.75), {@code megatron.collector.lowWaterMark} (default: 0.25)
+   * and {@code megatron.collector.maxFactor} (default: 8) properties
+   */
+  public static AdaptiveInterval create(MegatronConfiguration configuration) {
+    if (!Boolean.parseBoolean(configuration.getProperty("megatron.collector.adaptive", "false"))) {
+      return DISABLED;
+    }
+    return new AdaptiveInterval(
+        Double.parseDouble(configuration.getProperty("megatron.collector.highWaterMark", "0.75")),
+        Double.parseDouble(configuration.getProperty("megatron.collector.lowWaterMark", "0.25")),
+        Integer.parseInt(configuration.getProperty("megatron.collector.maxFactor", "8")));
+  }
+
+  /**
+   * @return false if the interval never changes
+   */
+  public boolean isEnabled() {
+    return maxFactor > 1;
+  }
+
+  /**
+   * @return the factor applied to the configured intervals, between 1 and the maximum factor
+   */
+  public synchronized int getFactor() {
+    return factor;
+  }
+
+  /**
+   * @return the configured interval multiplied by the current factor
+   */
+  public long apply(long interval) {
+    int factor = getFactor();
+    return interval <= 0 || interval > Long.MAX_VALUE / factor ? interval : interval * factor;
+  }
+
+  /**
+   * @param pressure the fill ratio of the fullest queue, between 0 and 1
+   * @param interval the longest configured interval of the collectors, in milliseconds
+   * @param now      the current time, in milliseconds
+   * @return true if the factor changed, in which case the collectors must be restarted with the new intervals
+   */
+  public synchronized boolean update(double pressure, long interval, long now) {
+    if (!isEnabled() || now < nextUpdate) {
+      return false;
+    }
+    int previous = factor;
+    if (pressure >= highWaterMark) {
+      factor = Math.min(maxFactor, factor * 2);
+    } else if (pressure <= lowWaterMark) {
+      factor = Math.max(1, factor / 2);
+    }
+    nextUpdate = now + apply(interval);
+    return factor != previous;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "AdaptiveInterval{factor=" + factor + ", maxFactor=" + maxFactor + ", lowWaterMark=" + lowWaterMark + ", highWaterMark=" + highWaterMark + '}';
+  }
+
+}
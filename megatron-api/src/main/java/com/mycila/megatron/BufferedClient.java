@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import com.mycila.megatron.io.EncodedLines;
+import com.mycila.megatron.sink.EncodingSink;
+import com.mycila.megatron.sink.MetricEncoder;
+import com.mycila.megatron.sink.MetricSink;
+import com.tc.classloader.CommonComponent;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A {@link Client} consuming metric lines one by one.
+ * <p>
+ * Lines are written into a buffer owned by the client and are only guaranteed to be sent after {@link #flush()}.
+ * The {@link CharSequence} passed to {@link #write(CharSequence)} is consumed before the method returns,
+ * so callers can reuse the same {@link StringBuilder} for all their lines.
+ * <p>
+ * Lines already encoded by a {@link MetricEncoder} are written with {@link #write(ByteBuffer)}.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public interface BufferedClient extends Client {
+
+  void write(CharSequence line);
+
+  /**
+   * Writes the UTF-8 encoded, newline-terminated lines remaining in the buffer, which is consumed.
+   * The buffer can be reused by the caller once the method returns.
+   */
+  default void write(ByteBuffer lines) {
+    EncodedLines.decode(lines, this::write);
+  }
+
+  void flush();
+
+  /**
+   * @return false if the client cannot send anything for now, for example while it is reconnecting.
+   * In this case, lines should be kept in the queue.
+   */
+  default boolean isReady() {
+    return true;
+  }
+
+  @Override
+  default MetricSink openSink(MetricEncoder encoder) {
+    return new EncodingSink(encoder, chunk -> {
+      synchronized (this) {
+        write(chunk);
+      }
+    }, () -> {
+      synchronized (this) {
+        flush();
+      }
+    });
+  }
+
+  @Override
+  default void send(List<String> messages) {
+    for (int i = 0, size = messages.size(); i < size; i++) {
+      write(messages.get(i));
+    }
+    flush();
+  }
+
+  @Override
+  default void send(Stream<String> messages) {
+    messages.forEach(this::write);
+    flush();
+  }
+
+}
@@ -15,9 +15,15 @@
  */
 package com.mycila.megatron;
 
+import com.mycila.megatron.io.EncodedLines;
+import com.mycila.megatron.sink.EncodingSink;
+import com.mycila.megatron.sink.MetricEncoder;
+import com.mycila.megatron.sink.MetricSink;
+import com.mycila.megatron.stats.TransportStatistics;
 import com.tc.classloader.CommonComponent;
 
 import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -40,4 +46,27 @@ public interface Client extends Closeable {
 
   void send(Stream<String> messages);
 
+  /**
+   * Opens a sink encoding metric points for this client.
+   * <p>
+   * This default implementation is a compatibility adapter for clients only accepting strings:
+   * the encoded lines are decoded and sent when the sink is closed.
+   * Clients owning a byte buffer override it to receive the encoded lines directly.
+   */
+  default MetricSink openSink(MetricEncoder encoder) {
+    List<String> lines = new ArrayList<>();
+    return new EncodingSink(encoder, chunk -> EncodedLines.decode(chunk, lines::add), () -> {
+      if (!lines.isEmpty()) {
+        send(lines);
+      }
+    });
+  }
+
+  /**
+   * @return the transport statistics of this client, or null if it does not collect any
+   */
+  default TransportStatistics getStatistics() {
+    return null;
+  }
+
 }
@@ -29,6 +29,10 @@ public class ConfigurationException extends MegatronException {
     super(message);
   }
 
+  public ConfigurationException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
   public ConfigurationException(Throwable cause) {
     super(cause);
   }
@@ -16,13 +16,18 @@
 package com.mycila.megatron;
 
 import com.tc.classloader.CommonComponent;
+import org.terracotta.management.model.context.Context;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -33,12 +38,30 @@ public class DefaultMegatronConfiguration implements MegatronConfiguration {
 
   private long statisticCollectorInterval = 10_000L;
   private final Properties properties = new Properties();
+  private final List<IntervalPolicy> intervalPolicies = new CopyOnWriteArrayList<>();
 
   @Override
   public long getStatisticCollectorInterval() {
     return statisticCollectorInterval;
   }
 
+  /**
+   * @return the interval of the first matching policy, or the default statistic collector interval
+   */
+  @Override
+  public long getStatisticCollectorInterval(Context context, Collection<String> capabilities) {
+    for (IntervalPolicy policy : intervalPolicies) {
+      if (policy.matches(context, capabilities)) {
+        return policy.getInterval();
+      }
+    }
+    return statisticCollectorInterval;
+  }
+
+  public List<IntervalPolicy> getIntervalPolicies() {
+    return intervalPolicies;
+  }
+
   @Override
   public String getProperty(String key, String def) {
     String val = System.getenv(key.toUpperCase().replace('.', '_'));
@@ -80,6 +103,14 @@ public class DefaultMegatronConfiguration implements MegatronConfiguration {
     return this;
   }
 
+  /**
+   * Adds a policy, checked after the ones already added
+   */
+  public DefaultMegatronConfiguration addIntervalPolicy(IntervalPolicy policy) {
+    intervalPolicies.add(policy);
+    return this;
+  }
+
   public DefaultMegatronConfiguration setProperty(String name, String val) {
     properties.setProperty(name, val);
     return this;
@@ -91,9 +122,16 @@ public class DefaultMegatronConfiguration implements MegatronConfiguration {
     return this;
   }
 
+  /**
+   * Takes the interval and the interval policies of the given configuration, and adds its properties
+   */
   public DefaultMegatronConfiguration merge(DefaultMegatronConfiguration configuration) {
     this.statisticCollectorInterval = configuration.statisticCollectorInterval;
     this.properties.putAll(configuration.properties);
+    // the merged policies are added first, so that they apply while the previous ones are removed
+    List<IntervalPolicy> policies = new ArrayList<>(configuration.intervalPolicies);
+    this.intervalPolicies.addAll(0, policies);
+    this.intervalPolicies.subList(policies.size(), this.intervalPolicies.size()).clear();
     return this;
   }
 
@@ -101,6 +139,7 @@ public class DefaultMegatronConfiguration implements MegatronConfiguration {
   public String toString() {
     final StringBuilder sb = new StringBuilder("DefaultMegatronConfiguration{");
     sb.append("statisticCollectorInterval=").append(statisticCollectorInterval);
+    sb.append(", intervalPolicies=").append(intervalPolicies);
     sb.append(", properties=").append(properties);
     sb.append('}');
     return sb.toString();
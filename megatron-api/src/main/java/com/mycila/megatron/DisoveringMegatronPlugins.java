@@ -15,22 +15,55 @@
  */
 package com.mycila.megatron;
 
+import com.mycila.megatron.format.DefaultFormatter;
+import com.mycila.megatron.format.StatisticsSnapshot;
+import com.mycila.megatron.stats.TransportStatistics;
 import com.tc.classloader.CommonComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.management.model.cluster.Server;
+import org.terracotta.management.model.cluster.ServerEntity;
+import org.terracotta.management.model.context.Context;
 import org.terracotta.management.model.notification.ContextualNotification;
 import org.terracotta.management.model.stats.ContextualStatistics;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
+ * Discovers the plugins and sends them the events.
+ * <p>
+ * Unless {@code megatron.dispatch.async} is false, each enabled plugin receives its events from its own {@link DispatchLane},
+ * so that publishing an event is cheap and a slow plugin does not delay the other ones.
+ * <p>
+ * Events are published from several threads: the statistics and notifications of the stripe, and the transport statistics
+ * published at each statistic collection interval from a {@link MegatronApi#schedule scheduled} task.
+ * Whatever the calling thread, a plugin receives its events one at a time: from its lane, or when dispatching synchronously,
+ * under a lock shared by all the callers.
+ *
  * @author Mathieu Carbou
  */
 @CommonComponent
 public class DisoveringMegatronPlugins implements MegatronPlugin {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(DisoveringMegatronPlugins.class);
+
   private final Collection<MegatronPlugin> plugins = new CopyOnWriteArrayList<>();
+  private final Map<MegatronPlugin, DispatchLane> lanes = new ConcurrentHashMap<>();
+
+  // serializes the synchronous deliveries
+  private final Object dispatchLock = new Object();
+
+  private volatile MegatronApi api;
+  private volatile ScheduledFuture<?> transportStatisticsPublisher;
+  private volatile boolean closed;
 
   public DisoveringMegatronPlugins() {
     this(Thread.currentThread().getContextClassLoader());
@@ -45,6 +78,10 @@ public class DisoveringMegatronPlugins implements MegatronPlugin {
   }
 
   public boolean remove(MegatronPlugin plugin) {
+    DispatchLane lane = lanes.remove(plugin);
+    if (lane != null) {
+      lane.close();
+    }
     return plugins.remove(plugin);
   }
 
@@ -52,35 +89,69 @@ public class DisoveringMegatronPlugins implements MegatronPlugin {
     return plugins;
   }
 
+  /**
+   * @return the lanes of the enabled plugins receiving their events asynchronously
+   */
+  public Collection<DispatchLane> getLanes() {
+    return lanes.values();
+  }
+
   @Override
   public void setApi(MegatronApi api) {
+    this.api = api;
     plugins.forEach(p -> p.setApi(api));
   }
 
   @Override
   public void onNotifications(List<ContextualNotification> notifications) {
-    plugins.stream()
-        .filter(MegatronPlugin::isEnable)
-        .forEach(plugin -> plugin.onNotifications(notifications));
+    dispatch(listener -> listener.onNotifications(notifications));
   }
 
   @Override
   public void onStatistics(List<ContextualStatistics> contextualStatistics) {
-    plugins.stream()
-        .filter(MegatronPlugin::isEnable)
-        .forEach(plugin -> plugin.onStatistics(contextualStatistics));
+    onStatistics(StatisticsSnapshot.of(contextualStatistics));
+  }
+
+  @Override
+  public void onStatistics(StatisticsSnapshot snapshot) {
+    dispatch(listener -> listener.onStatistics(snapshot));
+  }
+
+  /**
+   * @return the fill ratio of the fullest dispatch lane or transport queue
+   */
+  @Override
+  public double getBackpressure() {
+    double pressure = 0;
+    for (DispatchLane lane : lanes.values()) {
+      pressure = Math.max(pressure, (double) lane.getQueueDepth() / lane.getQueueCapacity());
+    }
+    MegatronApi api = this.api;
+    if (api != null) {
+      for (TransportStatistics statistics : api.getTransportStatistics().getAll().values()) {
+        pressure = Math.max(pressure, statistics.getQueueFill());
+      }
+    }
+    return pressure;
   }
 
   @Override
   public void init(MegatronConfiguration configuration) throws ConfigurationException {
     ConfigurationException configurationException = new ConfigurationException("Megatron configuration failed for some plugins, they will be disabled. See stacktrace for more information.");
+    boolean async = api != null && Boolean.parseBoolean(configuration.getProperty("megatron.dispatch.async", "true"));
     for (MegatronPlugin plugin : plugins) {
       try {
         plugin.init(configuration);
+        if (async && plugin.isEnable() && !lanes.containsKey(plugin)) {
+          lanes.put(plugin, DispatchLane.create(plugin, configuration, api.getThreadFactory()));
+        }
       } catch (RuntimeException e) {
         configurationException.addSuppressed(e);
       }
     }
+    if (api != null && configuration.getStatisticCollectorInterval() > 0) {
+      publishTransportStatistics(configuration.getStatisticCollectorInterval());
+    }
     if (configurationException.getSuppressed().length > 0) {
       throw configurationException;
     }
@@ -98,13 +169,65 @@ public class DisoveringMegatronPlugins implements MegatronPlugin {
 
   @Override
   public void close() {
+    closed = true;
+    ScheduledFuture<?> publisher = transportStatisticsPublisher;
+    if (publisher != null) {
+      publisher.cancel(false);
+    }
+    // pending events are delivered before the plugins are closed
+    lanes.values().forEach(DispatchLane::close);
+    lanes.clear();
     plugins.forEach(MegatronPlugin::close);
   }
 
+  private void dispatch(Consumer<MegatronEventListener> event) {
+    for (MegatronPlugin plugin : plugins) {
+      if (plugin.isEnable()) {
+        DispatchLane lane = lanes.get(plugin);
+        if (lane != null) {
+          event.accept(lane);
+        } else {
+          synchronized (dispatchLock) {
+            event.accept(plugin);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends the transport statistics of the plugins to the plugins, as Megatron platform statistics, at each statistic collection interval.
+   * <p>
+   * Each run schedules the next one and cancels itself, so that only one publication is pending
+   * whether {@link MegatronApi#schedule} runs the task once or repeatedly.
+   */
+  private synchronized void publishTransportStatistics(long interval) {
+    if (closed) {
+      return;
+    }
+    ScheduledFuture<?> previous = transportStatisticsPublisher;
+    if (previous != null) {
+      previous.cancel(false);
+    }
+    transportStatisticsPublisher = api.schedule(() -> {
+      try {
+        Context context = Context.create(Server.KEY, api.getNodeName()).with(ServerEntity.TYPE_KEY, DefaultFormatter.MEGATRON_ENTITY);
+        List<ContextualStatistics> statistics = api.getTransportStatistics().collect(context);
+        if (!statistics.isEmpty()) {
+          onStatistics(statistics);
+        }
+      } catch (RuntimeException e) {
+        LOGGER.warn("Unable to publish transport statistics: {}", e.getMessage(), e);
+      }
+      publishTransportStatistics(interval);
+    }, interval, TimeUnit.MILLISECONDS);
+  }
+
   @Override
   public String toString() {
     final StringBuilder sb = new StringBuilder("DisoveringMegatronPlugins{");
     sb.append("plugins=").append(plugins);
+    sb.append(", lanes=").append(lanes.values());
     sb.append('}');
     return sb.toString();
   }
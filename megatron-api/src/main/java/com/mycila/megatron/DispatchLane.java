@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import com.mycila.megatron.format.StatisticsSnapshot;
+import com.mycila.megatron.queue.DropPolicy;
+import com.mycila.megatron.queue.RingBuffer;
+import com.mycila.megatron.queue.WaitStrategy;
+import com.tc.classloader.CommonComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.management.model.notification.ContextualNotification;
+import org.terracotta.management.model.stats.ContextualStatistics;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Delivers the events of a plugin from its own thread, so that a slow plugin does not delay the other ones nor the caller.
+ * <p>
+ * Publishing statistics only offers them to a bounded {@link RingBuffer}: when the plugin does not keep up,
+ * the {@link DropPolicy} of the buffer decides which statistics are lost. Drops are logged at most once a minute.
+ * <p>
+ * Notifications are never dropped: they are rare, and a missed notification (i.e. a destroyed entity) is never sent again.
+ * They are queued apart, without bound, and delivered before the pending statistics.
+ * Statistics, and notifications, are delivered in the order they were published.
+ * <p>
+ * When closed, the pending events are delivered before the thread stops.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class DispatchLane implements MegatronEventListener, Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DispatchLane.class);
+  private static final long CLOSE_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+  private static final long DROP_LOG_INTERVAL_SECONDS = 60;
+
+  public static final int DEFAULT_QUEUE_SIZE = 16;
+
+  private final MegatronPlugin plugin;
+  private final RingBuffer<Consumer<MegatronPlugin>> queue;
+  private final Queue<Consumer<MegatronPlugin>> notifications = new ConcurrentLinkedQueue<>();
+  private final AtomicLong nextDropLog = new AtomicLong(System.nanoTime());
+  private final Consumer<Consumer<MegatronPlugin>> dispatcher;
+  private final BooleanSupplier hasWork;
+  private final Thread thread;
+
+  private volatile boolean stopped;
+
+  public DispatchLane(MegatronPlugin plugin, RingBuffer<Consumer<MegatronPlugin>> queue, ThreadFactory threadFactory) {
+    this.plugin = plugin;
+    this.queue = queue;
+    this.dispatcher = event -> {
+      try {
+        event.accept(plugin);
+      } catch (RuntimeException e) {
+        LOGGER.error("Error in plugin {}: {}", plugin.getClass().getSimpleName(), e.getMessage(), e);
+      }
+    };
+    this.hasWork = () -> stopped || !notifications.isEmpty() || !queue.isEmpty();
+    this.thread = threadFactory.newThread(this::loop);
+    this.thread.start();
+  }
+
+  /**
+   * Creates a lane for a plugin from the {@code megatron.dispatch.queueSize} (default: {@value #DEFAULT_QUEUE_SIZE}),
+   * {@code megatron.dispatch.dropPolicy} (default: {@code DROP_OLDEST}), {@code megatron.dispatch.blockTimeout} (default: 1000ms)
+   * and {@code megatron.dispatch.waitStrategy} (default: {@code PARK}) properties.
+   * Each of them can be overridden for a plugin with a {@link Namespace} (i.e. {@code megatron.statsd.dispatch.queueSize}).
+   */
+  public static DispatchLane create(MegatronPlugin plugin, MegatronConfiguration configuration, ThreadFactory threadFactory) {
+    Namespace namespace = plugin.getClass().getAnnotation(Namespace.class);
+    String ns = namespace == null ? null : namespace.value() + ".dispatch.";
+    int queueSize = Integer.parseInt(getProperty(configuration, ns, "queueSize", String.valueOf(DEFAULT_QUEUE_SIZE)));
+    DropPolicy dropPolicy = DropPolicy.valueOf(getProperty(configuration, ns, "dropPolicy", DropPolicy.DROP_OLDEST.name()).trim().toUpperCase());
+    long blockTimeout = Long.parseLong(getProperty(configuration, ns, "blockTimeout", "1000"));
+    WaitStrategy.Type waitStrategy = WaitStrategy.Type.valueOf(getProperty(configuration, ns, "waitStrategy", WaitStrategy.Type.PARK.name()).trim().toUpperCase());
+    return new DispatchLane(plugin, new RingBuffer<>(queueSize, dropPolicy, blockTimeout, TimeUnit.MILLISECONDS, waitStrategy.create()), threadFactory);
+  }
+
+  public MegatronPlugin getPlugin() {
+    return plugin;
+  }
+
+  @Override
+  public void onNotifications(List<ContextualNotification> notifications) {
+    if (!stopped) {
+      this.notifications.offer(plugin -> plugin.onNotifications(notifications));
+      queue.getWaitStrategy().signal();
+    }
+  }
+
+  @Override
+  public void onStatistics(List<ContextualStatistics> contextualStatistics) {
+    publish(plugin -> plugin.onStatistics(contextualStatistics));
+  }
+
+  @Override
+  public void onStatistics(StatisticsSnapshot snapshot) {
+    publish(plugin -> plugin.onStatistics(snapshot));
+  }
+
+  /**
+   * @return the number of batches of statistics waiting to be delivered
+   */
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * @return the number of batches of notifications waiting to be delivered
+   */
+  public int getPendingNotifications() {
+    return notifications.size();
+  }
+
+  public int getQueueCapacity() {
+    return queue.capacity();
+  }
+
+  /**
+   * @return the number of batches of statistics dropped because the plugin did not keep up
+   */
+  public long getDropCount() {
+    return queue.getDropCount();
+  }
+
+  /**
+   * Delivers the pending events and stops the thread of this lane. The plugin is not closed.
+   */
+  @Override
+  public void close() {
+    if (!stopped) {
+      stopped = true;
+      queue.getWaitStrategy().signal();
+      try {
+        thread.join(CLOSE_TIMEOUT);
+        if (thread.isAlive()) {
+          LOGGER.warn("Plugin {} did not process its {} pending events within {}ms", plugin.getClass().getSimpleName(), notifications.size() + queue.size(), CLOSE_TIMEOUT);
+          thread.interrupt();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "DispatchLane{plugin=" + plugin.getClass().getSimpleName() + ", queueDepth=" + getQueueDepth() + ", pendingNotifications=" + getPendingNotifications() + ", dropCount=" + getDropCount() + '}';
+  }
+
+  private void publish(Consumer<MegatronPlugin> event) {
+    if (stopped) {
+      return;
+    }
+    long drops = queue.getDropCount();
+    queue.offer(event);
+    if (queue.getDropCount() != drops) {
+      long now = System.nanoTime();
+      long next = nextDropLog.get();
+      if (now - next >= 0 && nextDropLog.compareAndSet(next, now + TimeUnit.SECONDS.toNanos(DROP_LOG_INTERVAL_SECONDS))) {
+        LOGGER.warn("Plugin {} does not keep up: {} batches of statistics dropped so far (queue size: {})",
+            plugin.getClass().getSimpleName(), queue.getDropCount(), queue.capacity());
+      }
+    }
+  }
+
+  private void loop() {
+    while (!stopped && !Thread.currentThread().isInterrupted()) {
+      try {
+        queue.getWaitStrategy().await(hasWork, 1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        break;
+      }
+      drain();
+    }
+    drain();
+  }
+
+  private void drain() {
+    Consumer<MegatronPlugin> event;
+    do {
+      // notifications published meanwhile go before the next statistics
+      while ((event = notifications.poll()) != null) {
+        dispatcher.accept(event);
+      }
+      event = queue.poll();
+      if (event != null) {
+        dispatcher.accept(event);
+      }
+    } while (event != null);
+  }
+
+  private static String getProperty(MegatronConfiguration configuration, String ns, String name, String def) {
+    String value = ns == null ? null : configuration.getProperty(ns + name);
+    return value != null ? value : configuration.getProperty("megatron.dispatch." + name, def);
+  }
+
+}
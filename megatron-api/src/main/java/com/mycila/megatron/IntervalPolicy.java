@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import com.tc.classloader.CommonComponent;
+import org.terracotta.management.model.cluster.Client;
+import org.terracotta.management.model.cluster.ClientIdentifier;
+import org.terracotta.management.model.cluster.ServerEntity;
+import org.terracotta.management.model.context.Context;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistic collection interval of the management registries matching some criteria.
+ * <p>
+ * A registry matches when all the criteria which are set match:
+ * <ul>
+ * <li>{@code clientName}: the name of the client (i.e. {@code Ehcache:app}) starts with this prefix. Server entities never match.</li>
+ * <li>{@code entityType}: the type of the server entity. Clients never match.
+ * On Terracotta servers, only the statistics of the Megatron entity are collected, so it is the only type which can match.</li>
+ * <li>{@code capability}: the registry exposes a capability with this name (i.e. {@code OffHeapResourceStatistics})</li>
+ * </ul>
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class IntervalPolicy {
+
+  private final String clientName;
+  private final String entityType;
+  private final String capability;
+  private final long interval;
+
+  /**
+   * @param clientName prefix of the client name, or null to match any registry
+   * @param entityType type of server entity, or null to match any registry
+   * @param capability name of a capability of the registry, or null to match any registry
+   */
+  public IntervalPolicy(String clientName, String entityType, String capability, long interval, TimeUnit unit) {
+    if (interval <= 0) {
+      throw new IllegalArgumentException("Bad interval: " + interval);
+    }
+    this.clientName = clientName;
+    this.entityType = entityType;
+    this.capability = capability;
+    this.interval = unit.toMillis(interval);
+  }
+
+  /**
+   * @param context      the context of a management registry
+   * @param capabilities the names of the capabilities of this registry
+   */
+  public boolean matches(Context context, Collection<String> capabilities) {
+    if (clientName != null) {
+      String clientId = context.get(Client.KEY);
+      if (clientId == null || !ClientIdentifier.valueOf(clientId).getName().startsWith(clientName)) {
+        return false;
+      }
+    }
+    if (entityType != null && !entityType.equals(context.get(ServerEntity.TYPE_KEY))) {
+      return false;
+    }
+    return capability == null || capabilities.contains(capability);
+  }
+
+  /**
+   * @return the collection interval in milliseconds
+   */
+  public long getInterval() {
+    return interval;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("IntervalPolicy{");
+    if (clientName != null) {
+      sb.append("clientName=").append(clientName).append(", ");
+    }
+    if (entityType != null) {
+      sb.append("entityType=").append(entityType).append(", ");
+    }
+    if (capability != null) {
+      sb.append("capability=").append(capability).append(", ");
+    }
+    return sb.append("interval=").append(interval).append('}').toString();
+  }
+
+}
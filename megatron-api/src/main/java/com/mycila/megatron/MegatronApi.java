@@ -15,6 +15,8 @@
  */
 package com.mycila.megatron;
 
+import com.mycila.megatron.reactor.TransportReactor;
+import com.mycila.megatron.stats.TransportStatisticsRegistry;
 import com.tc.classloader.CommonComponent;
 import org.terracotta.management.model.cluster.Cluster;
 
@@ -33,6 +35,18 @@ public interface MegatronApi {
 
   Executor getAsyncExecutor();
 
+  /**
+   * @return the reactor shared by all the plugins to send their metrics
+   */
+  TransportReactor getTransportReactor();
+
+  /**
+   * @return the transport statistics of the clients of all the plugins
+   */
+  default TransportStatisticsRegistry getTransportStatistics() {
+    return getTransportReactor().getStatistics();
+  }
+
   ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit);
 
   Cluster readLiveTopology();
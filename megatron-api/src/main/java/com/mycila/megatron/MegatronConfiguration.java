@@ -16,7 +16,9 @@
 package com.mycila.megatron;
 
 import com.tc.classloader.CommonComponent;
+import org.terracotta.management.model.context.Context;
 
+import java.util.Collection;
 import java.util.Properties;
 
 /**
@@ -27,6 +29,15 @@ public interface MegatronConfiguration {
 
   long getStatisticCollectorInterval();
 
+  /**
+   * @param context      the context of the management registry whose statistics are collected (a client or a server entity)
+   * @param capabilities the names of the capabilities of this registry
+   * @return the interval in milliseconds at which the statistics of this registry are collected
+   */
+  default long getStatisticCollectorInterval(Context context, Collection<String> capabilities) {
+    return getStatisticCollectorInterval();
+  }
+
   String getProperty(String key, String def);
 
   Properties getProperties();
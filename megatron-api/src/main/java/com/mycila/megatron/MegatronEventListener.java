@@ -15,6 +15,7 @@
  */
 package com.mycila.megatron;
 
+import com.mycila.megatron.format.StatisticsSnapshot;
 import com.tc.classloader.CommonComponent;
 import org.terracotta.management.model.notification.ContextualNotification;
 import org.terracotta.management.model.stats.ContextualStatistics;
@@ -37,4 +38,22 @@ public interface MegatronEventListener {
    */
   default void onStatistics(List<ContextualStatistics> contextualStatistics) {}
 
+  /**
+   * Callback called with the same snapshot of a set of collected statistics, already reduced once, for all the listeners.
+   * Listeners should override this method instead of {@link #onStatistics(List)} to avoid reducing the samples again.
+   * <p>
+   * By default, delegates to {@link #onStatistics(List)} so that existing listeners keep working.
+   */
+  default void onStatistics(StatisticsSnapshot snapshot) {
+    onStatistics(snapshot.getContextualStatistics());
+  }
+
+  /**
+   * @return the fill ratio of the fullest queue of this listener, between 0 (empty or no queue) and 1 (full).
+   * Used to collect the statistics less often when the listeners do not keep up.
+   */
+  default double getBackpressure() {
+    return 0;
+  }
+
 }
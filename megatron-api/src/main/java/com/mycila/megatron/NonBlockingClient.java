@@ -0,0 +1,197 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import com.mycila.megatron.io.EncodedLines;
+import com.mycila.megatron.queue.FlushPolicy;
+import com.mycila.megatron.queue.RingBuffer;
+import com.mycila.megatron.reactor.TransportReactor;
+import com.mycila.megatron.sink.EncodingSink;
+import com.mycila.megatron.sink.MetricEncoder;
+import com.mycila.megatron.sink.MetricSink;
+import com.mycila.megatron.stats.TransportStatistics;
+import com.tc.classloader.CommonComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * A {@link Client} queuing the lines and writing them to a {@link BufferedClient} from a lane of a {@link TransportReactor}.
+ * <p>
+ * The queue must use the wait strategy of the lane.
+ * While the transport is not {@link BufferedClient#isReady() ready}, the lines stay in the queue.
+ * <p>
+ * The dequeued lines are written to the transport, which is flushed according to the {@link FlushPolicy}
+ * (the batch size in bytes is estimated from the number of chars).
+ * <p>
+ * Points written to a {@link #openSink(MetricEncoder) sink} are encoded by the producer thread into chunks of lines,
+ * which are queued in a second ring buffer (with the same policies) and written as is to the transport.
+ * <p>
+ * The statistics of the transport are completed with the queued lines, the queue depth and the lines dropped by the queue.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public class NonBlockingClient implements Client, TransportReactor.Task {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(NonBlockingClient.class);
+  private static final long NOT_READY_DELAY = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final BufferedClient transport;
+  private final RingBuffer<String> queue;
+  private final RingBuffer<ByteBuffer> chunks;
+  private final TransportReactor.Lane lane;
+  private final Consumer<String> writer;
+  private final Consumer<ByteBuffer> chunkWriter;
+  private final TransportStatistics statistics;
+  private final FlushPolicy flushPolicy;
+
+  private long batchStart;
+  private long batchBytes;
+  private long batchLines;
+
+  private volatile boolean closed;
+
+  public NonBlockingClient(BufferedClient transport, RingBuffer<String> queue, TransportReactor.Lane lane) {
+    this(transport, queue, FlushPolicy.IMMEDIATE, lane);
+  }
+
+  public NonBlockingClient(BufferedClient transport, RingBuffer<String> queue, FlushPolicy flushPolicy, TransportReactor.Lane lane) {
+    if (queue.getWaitStrategy() != lane.getWaitStrategy()) {
+      throw new IllegalArgumentException("The queue must use the wait strategy of the lane");
+    }
+    this.transport = transport;
+    this.queue = queue;
+    // a chunk holds many lines
+    this.chunks = queue.withCapacity(Math.max(16, queue.capacity() / 64));
+    this.lane = lane;
+    this.flushPolicy = flushPolicy;
+    this.writer = line -> {
+      if (batchLines++ == 0) {
+        batchStart = System.nanoTime();
+      }
+      batchBytes += line.length() + 1;
+      transport.write(line);
+    };
+    this.chunkWriter = chunk -> {
+      int lines = EncodedLines.count(chunk);
+      if (batchLines == 0) {
+        batchStart = System.nanoTime();
+      }
+      batchLines += lines;
+      batchBytes += chunk.remaining();
+      transport.write(chunk);
+    };
+    this.statistics = transport.getStatistics() == null ? new TransportStatistics() : transport.getStatistics();
+    this.statistics.bindQueue(queue, true);
+    lane.register(this);
+  }
+
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      LOGGER.info("Closing...");
+      lane.unregister(this);
+      run();
+      transport.close();
+    }
+  }
+
+  @Override
+  public void send(List<String> messages) {
+    if (!closed) {
+      int enqueued = 0;
+      for (int i = 0, size = messages.size(); i < size; i++) {
+        if (queue.offer(messages.get(i))) {
+          enqueued++;
+        }
+      }
+      statistics.enqueued(enqueued);
+    }
+  }
+
+  @Override
+  public void send(Stream<String> messages) {
+    if (!closed) {
+      messages.forEach(message -> {
+        if (queue.offer(message)) {
+          statistics.enqueued(1);
+        }
+      });
+    }
+  }
+
+  @Override
+  public MetricSink openSink(MetricEncoder encoder) {
+    return new EncodingSink(encoder, chunk -> {
+      if (!closed) {
+        int lines = EncodedLines.count(chunk);
+        ByteBuffer copy = ByteBuffer.allocate(chunk.remaining());
+        copy.put(chunk).flip();
+        if (chunks.offer(copy)) {
+          statistics.enqueued(lines);
+        } else {
+          statistics.dropped(lines);
+        }
+      }
+    }, () -> {});
+  }
+
+  @Override
+  public boolean hasWork() {
+    return (!queue.isEmpty() || !chunks.isEmpty()) && transport.isReady();
+  }
+
+  @Override
+  public synchronized long run() {
+    if (!transport.isReady()) {
+      // lines stay in the queue until the transport is ready
+      return queue.isEmpty() && chunks.isEmpty() ? -1 : NOT_READY_DELAY;
+    }
+    queue.drain(writer);
+    chunks.drain(chunkWriter);
+    if (batchLines == 0) {
+      return -1;
+    }
+    long linger = flushPolicy.remainingLinger(batchStart, System.nanoTime());
+    if (closed || linger <= 0 || flushPolicy.isFull(batchBytes, batchLines)) {
+      transport.flush();
+      batchLines = 0;
+      batchBytes = 0;
+      return -1;
+    }
+    return linger;
+  }
+
+  /**
+   * @return the number of lines dropped because the queue was full
+   */
+  public long getDropCount() {
+    return queue.getDropCount();
+  }
+
+  @Override
+  public TransportStatistics getStatistics() {
+    return statistics;
+  }
+
+}
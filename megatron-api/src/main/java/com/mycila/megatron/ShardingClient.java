@@ -0,0 +1,219 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import com.mycila.megatron.format.StatisticColumns;
+import com.mycila.megatron.sink.MetricEncoder;
+import com.mycila.megatron.sink.MetricSink;
+import com.mycila.megatron.sink.MetricType;
+import com.mycila.megatron.stats.TransportStatistics;
+import com.tc.classloader.CommonComponent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.mycila.megatron.Utils.closeSilently;
+
+/**
+ * Spreads the lines over several clients by consistent hashing on the series name.
+ * <p>
+ * The series name is the beginning of a line, up to the first {@code ':'} (StatsD) or {@code ' '} (Graphite plaintext).
+ * A series always goes to the same client so that it is aggregated by a single server,
+ * and adding or removing a client only moves the series of this client.
+ * <p>
+ * Each client is placed at {@link #VIRTUAL_NODES} points on the ring to balance the load.
+ * <p>
+ * A {@link #openSink(MetricEncoder) sink} routes each point on its name to the sink of its client,
+ * so that the points are encoded once, straight into the buffers of the clients.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class ShardingClient implements Client {
+
+  public static final int VIRTUAL_NODES = 160;
+
+  private final List<Client> clients;
+  private final int[] points;
+  private final int[] shards;
+  private final TransportStatistics statistics;
+
+  /**
+   * @param clients the clients to spread the lines over
+   * @param names   a unique and stable name for each client (i.e. {@code host:port}), used to place them on the ring
+   */
+  public ShardingClient(List<? extends Client> clients, List<String> names) {
+    if (clients.isEmpty() || clients.size() != names.size()) {
+      throw new IllegalArgumentException("Bad clients: " + names);
+    }
+    this.clients = new ArrayList<>(clients);
+    Map<Integer, Integer> ring = new TreeMap<>();
+    for (int shard = 0; shard < names.size(); shard++) {
+      for (int i = 0; i < VIRTUAL_NODES; i++) {
+        ring.putIfAbsent(hash(names.get(shard) + "-" + i, ' '), shard);
+      }
+    }
+    points = new int[ring.size()];
+    shards = new int[ring.size()];
+    int i = 0;
+    for (Map.Entry<Integer, Integer> entry : ring.entrySet()) {
+      points[i] = entry.getKey();
+      shards[i++] = entry.getValue();
+    }
+    statistics = TransportStatistics.sum(this.clients.stream()
+        .map(Client::getStatistics)
+        .filter(Objects::nonNull)
+        .collect(Collectors.toList()));
+  }
+
+  @Override
+  public void close() {
+    clients.forEach(client -> closeSilently(client));
+  }
+
+  @Override
+  public void send(Stream<String> messages) {
+    int n = clients.size();
+    if (n == 1) {
+      clients.get(0).send(messages);
+      return;
+    }
+    List<List<String>> batches = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      batches.add(new ArrayList<>());
+    }
+    messages.forEach(line -> batches.get(shardOf(line)).add(line));
+    for (int i = 0; i < n; i++) {
+      if (!batches.get(i).isEmpty()) {
+        clients.get(i).send(batches.get(i));
+      }
+    }
+  }
+
+  @Override
+  public MetricSink openSink(MetricEncoder encoder) {
+    return clients.size() == 1 ? clients.get(0).openSink(encoder) : new ShardingSink(encoder);
+  }
+
+  /**
+   * @return the index of the client receiving this line
+   */
+  public int shardOf(CharSequence line) {
+    int h = hash(line, ':');
+    // first point on the ring at or after the hash
+    int lo = 0;
+    int hi = points.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (points[mid] < h) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return shards[lo == points.length ? 0 : lo];
+  }
+
+  /**
+   * @return the sum of the statistics of all the clients
+   */
+  @Override
+  public TransportStatistics getStatistics() {
+    return statistics;
+  }
+
+  public List<Client> getClients() {
+    return clients;
+  }
+
+  private final class ShardingSink implements MetricSink {
+
+    private final MetricEncoder encoder;
+    // opened on the first point of each client
+    private final MetricSink[] sinks = new MetricSink[clients.size()];
+
+    ShardingSink(MetricEncoder encoder) {
+      this.encoder = encoder;
+    }
+
+    @Override
+    public MetricSink write(CharSequence name, CharSequence tags, Number value, MetricType type, long timestamp) {
+      sinkOf(name).write(name, tags, value, type, timestamp);
+      return this;
+    }
+
+    @Override
+    public MetricSink write(CharSequence name, CharSequence tags, long value, MetricType type, long timestamp) {
+      sinkOf(name).write(name, tags, value, type, timestamp);
+      return this;
+    }
+
+    @Override
+    public MetricSink write(CharSequence name, CharSequence tags, double value, MetricType type, long timestamp) {
+      sinkOf(name).write(name, tags, value, type, timestamp);
+      return this;
+    }
+
+    @Override
+    public MetricSink write(CharSequence name, CharSequence tags, StatisticColumns statistics, int row, MetricType type, long timestamp) {
+      sinkOf(name).write(name, tags, statistics, row, type, timestamp);
+      return this;
+    }
+
+    @Override
+    public void close() {
+      for (MetricSink sink : sinks) {
+        if (sink != null) {
+          sink.close();
+        }
+      }
+    }
+
+    private MetricSink sinkOf(CharSequence name) {
+      int shard = shardOf(name);
+      MetricSink sink = sinks[shard];
+      if (sink == null) {
+        sink = sinks[shard] = clients.get(shard).openSink(encoder);
+      }
+      return sink;
+    }
+
+  }
+
+  // FNV-1a of the series name, followed by the murmur3 finalizer to spread similar names
+  private static int hash(CharSequence s, char end) {
+    int h = 0x811c9dc5;
+    for (int i = 0, len = s.length(); i < len; i++) {
+      char c = s.charAt(i);
+      if (c == end || c == ' ') {
+        break;
+      }
+      h = (h ^ c) * 0x01000193;
+    }
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import com.tc.classloader.CommonComponent;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.management.model.notification.ContextualNotification;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
+
+/**
+ * Suppresses the statistic values which did not change since they were last sent.
+ * <p>
+ * The last value sent for each series (a context and a statistic name) is kept in a primitive open-addressing hash map.
+ * A value is sent again only when it differs from the last one sent by more than {@code epsilon}.
+ * <p>
+ * All the values of a context are sent again every {@code heartbeat} batches in which the context is reported,
+ * so that backends do not mark the unchanged series as stale.
+ * Each statistic collector pushes its own batches, so the heartbeat of a series is {@code heartbeat} times the interval of its own collector,
+ * and follows this interval when it changes.
+ * <p>
+ * The series of the clients, entities, caches and servers which are gone are evicted by {@link #onNotification(ContextualNotification)}.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class ChangeDetector {
+
+  /**
+   * Detects a change for every value: nothing is suppressed
+   */
+  public static final ChangeDetector DISABLED = new ChangeDetector();
+
+  private static final long INTEGRAL = 0x8000_0000L;
+
+  private final boolean enabled;
+  private final double epsilon;
+  private final int heartbeat;
+  private final Map<Context, ContextState> contexts = new HashMap<>();
+  private final SeriesValues values = new SeriesValues();
+
+  private long batch;
+  private int nextContextId;
+  private Context lastContext;
+  private ContextState lastState;
+  private long suppressed;
+
+  private ChangeDetector() {
+    this.enabled = false;
+    this.epsilon = 0;
+    this.heartbeat = 0;
+  }
+
+  /**
+   * @param epsilon   a value is sent when it differs from the last value sent by more than this amount
+   * @param heartbeat all the values of a context are sent again every this number of batches in which the context is reported
+   * @throws IllegalArgumentException if epsilon is negative or if the heartbeat is not positive
+   */
+  public ChangeDetector(double epsilon, int heartbeat) {
+    if (!(epsilon >= 0)) {
+      throw new IllegalArgumentException("Bad epsilon: " + epsilon);
+    }
+    if (heartbeat <= 0) {
+      throw new IllegalArgumentException("Bad heartbeat: " + heartbeat);
+    }
+    this.enabled = true;
+    this.epsilon = epsilon;
+    this.heartbeat = heartbeat;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Called before each batch of statistics
+   */
+  public void nextBatch() {
+    if (enabled) {
+      synchronized (this) {
+        batch++;
+      }
+    }
+  }
+
+  /**
+   * @return true if this value has to be sent, in which case it is remembered as the last value sent for its series
+   */
+  public boolean hasChanged(Context context, StatisticColumns statistics, int row) {
+    if (!enabled) {
+      return true;
+    }
+    boolean integral = statistics.isIntegral(row);
+    long value = integral ? statistics.getLong(row) : Double.doubleToLongBits(statistics.getDouble(row));
+    synchronized (this) {
+      ContextState state = contextState(context);
+      long key = (long) state.id << 32 | statistics.getNameIndex(row) | (integral ? INTEGRAL : 0);
+      int slot = values.slot(key);
+      if (slot >= 0) {
+        long last = values.get(slot);
+        if (!state.heartbeat && (integral ? !isChanged(last, value) : !isChanged(Double.longBitsToDouble(last), Double.longBitsToDouble(value)))) {
+          suppressed++;
+          return false;
+        }
+        values.set(slot, value);
+      } else {
+        values.put(key, value);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Forgets the series of the clients, entities, caches and servers which are gone
+   */
+  public void onNotification(ContextualNotification notification) {
+    if (!enabled) {
+      return;
+    }
+    switch (notification.getType()) {
+      case "SERVER_ENTITY_DESTROYED":
+      case "CLIENT_DISCONNECTED":
+      case "SERVER_LEFT":
+      case "CACHE_REMOVED": {
+        Context gone = notification.getContext();
+        synchronized (this) {
+          Set<Integer> ids = contexts.entrySet().stream()
+              .filter(entry -> entry.getKey().contains(gone))
+              .map(entry -> entry.getValue().id)
+              .collect(Collectors.toSet());
+          if (!ids.isEmpty()) {
+            contexts.keySet().removeIf(context -> context.contains(gone));
+            values.retain(key -> !ids.contains((int) (key >>> 32)));
+            lastContext = null;
+            lastState = null;
+          }
+        }
+        break;
+      }
+    }
+  }
+
+  /**
+   * @return the number of values suppressed so far
+   */
+  public synchronized long getSuppressedCount() {
+    return suppressed;
+  }
+
+  /**
+   * @return the number of series currently tracked
+   */
+  public synchronized int size() {
+    return values.size();
+  }
+
+  /**
+   * @return the number of contexts currently tracked
+   */
+  public synchronized int getContextCount() {
+    return contexts.size();
+  }
+
+  @Override
+  public String toString() {
+    return enabled ? "ChangeDetector{epsilon=" + epsilon + ", heartbeat=" + heartbeat + "}" : "ChangeDetector{disabled}";
+  }
+
+  private boolean isChanged(long last, long value) {
+    return value != last && (epsilon == 0 || Math.abs((double) value - (double) last) > epsilon);
+  }
+
+  private boolean isChanged(double last, double value) {
+    // NaN compared to NaN is unchanged, but NaN compared to a number is a change
+    return Double.compare(value, last) != 0 && (epsilon == 0 || !(Math.abs(value - last) <= epsilon));
+  }
+
+  private ContextState contextState(Context context) {
+    if (context != lastContext) {
+      ContextState state = contexts.get(context);
+      if (state == null) {
+        state = new ContextState(nextContextId++);
+        contexts.put(context, state);
+      }
+      lastContext = context;
+      lastState = state;
+    }
+    ContextState state = lastState;
+    if (state.batch != batch) {
+      // first value of the context in this batch
+      state.batch = batch;
+      state.heartbeat = state.collections > 0 && state.collections % heartbeat == 0;
+      state.collections++;
+    }
+    return state;
+  }
+
+  private static final class ContextState {
+    final int id;
+    long batch = -1;
+    // number of batches in which the context was reported
+    long collections;
+    // true if all the values of the context are sent again in this batch
+    boolean heartbeat;
+
+    ContextState(int id) {
+      this.id = id;
+    }
+  }
+
+  /**
+   * Open-addressing hash map of series keys to the raw bits of their last value.
+   * Keys are never negative, so that -1 marks a free slot.
+   */
+  private static final class SeriesValues {
+    private static final long FREE = -1;
+
+    private long[] keys = new long[64];
+    private long[] values = new long[64];
+    private int size;
+
+    SeriesValues() {
+      Arrays.fill(keys, FREE);
+    }
+
+    int size() {
+      return size;
+    }
+
+    int slot(long key) {
+      int mask = keys.length - 1;
+      for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+        long k = keys[slot];
+        if (k == key) {
+          return slot;
+        }
+        if (k == FREE) {
+          return -1;
+        }
+      }
+    }
+
+    long get(int slot) {
+      return values[slot];
+    }
+
+    void set(int slot, long value) {
+      values[slot] = value;
+    }
+
+    void put(long key, long value) {
+      if (size >= keys.length >> 1) {
+        grow();
+      }
+      int mask = keys.length - 1;
+      int slot = hash(key) & mask;
+      while (keys[slot] != FREE) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+      values[slot] = value;
+      size++;
+    }
+
+    void retain(LongPredicate filter) {
+      rehash(keys.length, filter);
+    }
+
+    private void grow() {
+      rehash(keys.length << 1, key -> true);
+    }
+
+    private void rehash(int capacity, LongPredicate filter) {
+      long[] oldKeys = keys;
+      long[] oldValues = values;
+      keys = new long[capacity];
+      values = new long[capacity];
+      Arrays.fill(keys, FREE);
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != FREE && filter.test(oldKeys[i])) {
+          put(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+
+    private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+/**
+ * Replaces each run of reserved chars by a single replacement char, like {@code s.replaceAll("[chars]+", "_")} would,
+ * but with a precomputed table of the reserved ASCII chars instead of a regex.
+ * Strings without any reserved char are returned as is.
+ *
+ * @author Mathieu Carbou
+ */
+final class CharEscaper {
+
+  private final boolean[] reserved = new boolean[128];
+  private final char replacement;
+
+  CharEscaper(String chars, char replacement) {
+    for (int i = 0; i < chars.length(); i++) {
+      reserved[chars.charAt(i)] = true;
+    }
+    this.replacement = replacement;
+  }
+
+  String escape(String s) {
+    for (int i = 0, length = s.length(); i < length; i++) {
+      if (isReserved(s.charAt(i))) {
+        return escape(s, i, new StringBuilder(length).append(s, 0, i)).toString();
+      }
+    }
+    return s;
+  }
+
+  StringBuilder escape(CharSequence s, StringBuilder target) {
+    return escape(s, 0, target);
+  }
+
+  private StringBuilder escape(CharSequence s, int from, StringBuilder target) {
+    boolean inRun = false;
+    for (int i = from, length = s.length(); i < length; i++) {
+      char c = s.charAt(i);
+      if (isReserved(c)) {
+        if (!inRun) {
+          target.append(replacement);
+          inRun = true;
+        }
+      } else {
+        target.append(c);
+        inRun = false;
+      }
+    }
+    return target;
+  }
+
+  private boolean isReserved(char c) {
+    return c < 128 && reserved[c];
+  }
+
+}
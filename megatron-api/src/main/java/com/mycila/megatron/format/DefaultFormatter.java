@@ -22,40 +22,33 @@ import org.terracotta.management.model.cluster.Server;
 import org.terracotta.management.model.cluster.ServerEntity;
 import org.terracotta.management.model.cluster.Stripe;
 import org.terracotta.management.model.context.Context;
+import org.terracotta.management.model.notification.ContextualNotification;
 
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
+ * Metric names and tag lines only depend on the context, so they are rendered once per context and cached.
+ * The cache keeps at most {@code cacheSize} contexts (the least recently used ones are evicted)
+ * and forgets the contexts of clients, entities and caches which are gone.
+ *
  * @author Mathieu Carbou
  */
 @CommonComponent
 public class DefaultFormatter implements Formatter {
 
-  private static final String MEGATRON_ENTITY = "com.mycila.megatron.server.entity.MegatronEntity";
+  public static final String MEGATRON_ENTITY = "com.mycila.megatron.server.entity.MegatronEntity";
+  public static final int DEFAULT_CACHE_SIZE = 4096;
   private static final String EHCACHE_ENTITY = "org.ehcache.";
   private static final String DATASET_ENTITY = "com.terracottatech.store.";
-
-  private static final ThreadLocal<NumberFormat> NUMBER_FORMATTERS = ThreadLocal.withInitial(() -> {
-    final NumberFormat numberFormatter = NumberFormat.getInstance(Locale.US);
-    numberFormatter.setGroupingUsed(false);
-    numberFormatter.setMaximumFractionDigits(6);
-    if (numberFormatter instanceof DecimalFormat) { // better safe than a runtime error
-      final DecimalFormat decimalFormat = (DecimalFormat) numberFormatter;
-      final DecimalFormatSymbols symbols = decimalFormat.getDecimalFormatSymbols();
-      symbols.setNaN("NaN");
-      decimalFormat.setDecimalFormatSymbols(symbols);
-    }
-    return numberFormatter;
-  });
+  private static final CharEscaper ESCAPER = new CharEscaper("@$,.:|#;'\"", '_');
+  private static final List<String> IGNORED_KEYS = Arrays.asList("consumerId", "collectorId", ServerEntity.KEY, Server.KEY, Stripe.KEY, Client.KEY);
 
   private String globalPrefix = "";
   private String prefixSeparator = ".";
@@ -66,6 +59,9 @@ public class DefaultFormatter implements Formatter {
   private String tagAssignement = "=";
   private String tagSeparator = ",";
   private String tagSurroundValue = "";
+  private int cacheSize = DEFAULT_CACHE_SIZE;
+
+  private Map<Context, Series> cache;
 
   public DefaultFormatter globalPrefix(String globalPrefix) {
     this.globalPrefix = globalPrefix;
@@ -102,22 +98,40 @@ public class DefaultFormatter implements Formatter {
     return this;
   }
 
+  /**
+   * @param cacheSize maximum number of contexts for which names and tags are cached, 0 to disable the cache
+   */
+  public DefaultFormatter cacheSize(int cacheSize) {
+    this.cacheSize = cacheSize;
+    return this;
+  }
+
   @Override
   public void init() {
     globalTagLine = globalTags.length == 0 ? "" : String.join(tagSeparator, globalTags);
+    cache = cacheSize > 0 ? new LruCache(cacheSize) : null;
   }
 
   @Override
   public String formatMetricName(String prefix, Context context, String metricName) {
-    metricName = escape(metricName);
-    String metric = tagSupport ? buildSimplePrefix(context) : buildFullPrefix(context);
-    // add suffix (exact stat name)
-    metric = metric.isEmpty() ? metricName : metricName.isEmpty() ? metric : (metric + prefixSeparator + metricName);
-    // add prefix (i.e. event, statistic, etc
-    metric = metric.isEmpty() ? prefix : prefix.isEmpty() ? metric : (prefix + prefixSeparator + metric);
-    // add global prefix (i.e. megatron)
-    metric = metric.isEmpty() ? globalPrefix : globalPrefix.isEmpty() ? metric : (globalPrefix + prefixSeparator + metric);
-    return metric;
+    Series series = series(context);
+    if (series == null) {
+      return appendMetricName(new StringBuilder(), prefix, contextPrefix(context), metricName).toString();
+    }
+    Map<String, String> names = series.names.computeIfAbsent(prefix, p -> new ConcurrentHashMap<>());
+    String name = names.get(metricName);
+    if (name == null) {
+      name = appendMetricName(new StringBuilder(), prefix, series.prefix, metricName).toString();
+      names.put(metricName, name);
+    }
+    return name;
+  }
+
+  @Override
+  public StringBuilder appendMetricName(StringBuilder target, String prefix, Context context, String metricName) {
+    return cache == null ?
+        appendMetricName(target, prefix, contextPrefix(context), metricName) :
+        target.append(formatMetricName(prefix, context, metricName));
   }
 
   @Override
@@ -125,26 +139,132 @@ public class DefaultFormatter implements Formatter {
     if (!tagSupport) {
       return "";
     }
-    String tags = tags(context).entrySet()
-        .stream()
-        .map(e -> e.getKey() + tagAssignement + surroundValue(e.getValue()))
-        .collect(Collectors.joining(tagSeparator));
-    tags = tags.isEmpty() ? globalTagLine : (globalTagLine + tagSeparator + tags);
+    Series series = series(context);
+    if (series == null) {
+      return tagLine(context);
+    }
+    String tags = series.tags;
+    if (tags == null) {
+      series.tags = tags = tagLine(context);
+    }
     return tags;
   }
 
+  /**
+   * Evicts the cached contexts of the clients, entities, caches and servers which are gone
+   */
+  @Override
+  public void onNotification(ContextualNotification notification) {
+    if (cache != null) {
+      switch (notification.getType()) {
+        case "SERVER_ENTITY_DESTROYED":
+        case "CLIENT_DISCONNECTED":
+        case "SERVER_LEFT":
+        case "CACHE_REMOVED": {
+          Context gone = notification.getContext();
+          synchronized (cache) {
+            cache.keySet().removeIf(context -> context.contains(gone));
+          }
+          break;
+        }
+      }
+    }
+  }
+
+  @Override
+  public StringBuilder appendTags(StringBuilder target, Context context) {
+    return target.append(formatTags(context));
+  }
+
   @Override
   public String formatValue(Number value) {
+    return formatNumber(value);
+  }
+
+  @Override
+  public StringBuilder appendValue(StringBuilder target, Number value) {
+    if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return target.append(value.longValue());
+    }
+    if (value instanceof Double || value instanceof Float) {
+      return NumberEncoder.append(target, value.doubleValue());
+    }
+    return target.append(value);
+  }
+
+  @Override
+  public StringBuilder appendValue(StringBuilder target, StatisticColumns statistics, int row) {
+    return statistics.isIntegral(row) ?
+        target.append(statistics.getLong(row)) :
+        NumberEncoder.append(target, statistics.getDouble(row));
+  }
+
+  /**
+   * Formats decimal numbers with at most 6 fraction digits and without grouping, other numbers with their {@code toString()}
+   */
+  public static String formatNumber(Number value) {
     if (value instanceof Double || value instanceof Float) {
-      return NUMBER_FORMATTERS.get().format(value.doubleValue());
+      return NumberEncoder.format(value.doubleValue());
     } else {
       return value.toString();
     }
   }
 
+  private Series series(Context context) {
+    Map<Context, Series> cache = this.cache;
+    if (cache == null) {
+      return null;
+    }
+    synchronized (cache) {
+      Series series = cache.get(context);
+      if (series == null) {
+        series = new Series(contextPrefix(context));
+        cache.put(context, series);
+      }
+      return series;
+    }
+  }
+
+  private String contextPrefix(Context context) {
+    return tagSupport ? buildSimplePrefix(context) : buildFullPrefix(context);
+  }
+
+  private StringBuilder appendMetricName(StringBuilder target, String prefix, String contextPrefix, String metricName) {
+    int start = target.length();
+    // global prefix (i.e. megatron), then prefix (i.e. event, statistic, etc), then context, then exact stat name
+    appendPart(target, start, globalPrefix);
+    appendPart(target, start, prefix);
+    appendPart(target, start, contextPrefix);
+    if (!metricName.isEmpty()) {
+      if (target.length() > start) {
+        target.append(prefixSeparator);
+      }
+      ESCAPER.escape(metricName, target);
+    }
+    return target;
+  }
+
+  private void appendPart(StringBuilder target, int start, String part) {
+    if (!part.isEmpty()) {
+      if (target.length() > start) {
+        target.append(prefixSeparator);
+      }
+      target.append(part);
+    }
+  }
+
+  private String tagLine(Context context) {
+    String tags = tags(context).entrySet()
+        .stream()
+        .map(e -> e.getKey() + tagAssignement + surroundValue(e.getValue()))
+        .collect(Collectors.joining(tagSeparator));
+    tags = tags.isEmpty() ? globalTagLine : (globalTagLine + tagSeparator + tags);
+    return tags;
+  }
+
   private static Map<String, String> tags(Context context) {
     Map<String, String> tags = new TreeMap<>(context);
-    tags.keySet().removeAll(Arrays.asList("consumerId", "collectorId", ServerEntity.KEY, Server.KEY, Stripe.KEY, Client.KEY));
+    tags.keySet().removeAll(IGNORED_KEYS);
     if (context.contains(Client.KEY)) {
       tags.put("hostAddress", ClientIdentifier.valueOf(context.get(Client.KEY)).getHostAddress());
       tags.put("pid", String.valueOf(ClientIdentifier.valueOf(context.get(Client.KEY)).getPid()));
@@ -157,7 +277,9 @@ public class DefaultFormatter implements Formatter {
 
   private String buildSimplePrefix(Context context) {
     List<String> prefixes = new ArrayList<>();
-    if (context.contains(Client.KEY)) {
+    if (context.contains(Rollup.KEY)) {
+      prefixes.add("rollup");
+    } else if (context.contains(Client.KEY)) {
       prefixes.add("client");
       ClientIdentifier clientIdentifier = ClientIdentifier.valueOf(context.get(Client.KEY));
       if (clientIdentifier.getName().startsWith("Ehcache:")) {
@@ -190,7 +312,15 @@ public class DefaultFormatter implements Formatter {
 
   private String buildFullPrefix(Context context) {
     List<String> prefixes = new ArrayList<>();
-    if (context.contains(Client.KEY)) {
+    if (context.contains(Rollup.KEY)) {
+      // example: rollup.cacheManagerName.cm.cacheName.orders
+      prefixes.add("rollup");
+      for (Map.Entry<String, String> entry : context.entrySet()) {
+        if (!entry.getKey().equals(Rollup.KEY) && !IGNORED_KEYS.contains(entry.getKey())) {
+          add(prefixes, entry.getKey(), entry.getValue());
+        }
+      }
+    } else if (context.contains(Client.KEY)) {
       ClientIdentifier clientIdentifier = ClientIdentifier.valueOf(context.get(Client.KEY));
       add(prefixes, "clients", clientIdentifier.getHostAddress());
       add(prefixes, "procs", String.valueOf(clientIdentifier.getPid()));
@@ -235,7 +365,33 @@ public class DefaultFormatter implements Formatter {
   }
 
   private static String escape(String s) {
-    return s.replaceAll("[@$,.:|#;'\"]+", "_");
+    return ESCAPER.escape(s);
+  }
+
+  private static final class Series {
+    final String prefix;
+    final Map<String, Map<String, String>> names = new ConcurrentHashMap<>();
+    volatile String tags;
+
+    Series(String prefix) {
+      this.prefix = prefix;
+    }
+  }
+
+  private static final class LruCache extends LinkedHashMap<Context, Series> {
+    private static final long serialVersionUID = 1L;
+
+    private final int maxSize;
+
+    LruCache(int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Context, Series> eldest) {
+      return size() > maxSize;
+    }
   }
 
 }
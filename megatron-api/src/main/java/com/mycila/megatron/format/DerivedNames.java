@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Names of the statistics derived from another statistic (i.e. {@code Cache:HitRatio:p99} derived from {@code Cache:HitRatio}).
+ * <p>
+ * Derived names are built once per statistic, and remember the statistic they come from so that
+ * the include and exclude rules match them like this statistic.
+ *
+ * @author Mathieu Carbou
+ */
+final class DerivedNames {
+
+  private static final Map<String, String> BASE_NAMES = new ConcurrentHashMap<>();
+
+  private final String[] suffixes;
+  private final Map<String, String[]> names = new ConcurrentHashMap<>();
+
+  DerivedNames(String... suffixes) {
+    this.suffixes = suffixes;
+  }
+
+  /**
+   * @return the derived names of this statistic, one per suffix
+   */
+  String[] of(String name) {
+    String[] derived = names.get(name);
+    if (derived == null) {
+      derived = new String[suffixes.length];
+      for (int i = 0; i < suffixes.length; i++) {
+        derived[i] = name + suffixes[i];
+        BASE_NAMES.put(derived[i], name);
+      }
+      names.put(name, derived);
+    }
+    return derived;
+  }
+
+  /**
+   * @return the statistic this name was derived from, or the name itself
+   */
+  static String baseName(String name) {
+    String base = BASE_NAMES.get(name);
+    return base == null ? name : base;
+  }
+
+}
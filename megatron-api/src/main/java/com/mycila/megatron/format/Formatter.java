@@ -17,8 +17,12 @@ package com.mycila.megatron.format;
 
 import com.tc.classloader.CommonComponent;
 import org.terracotta.management.model.context.Context;
+import org.terracotta.management.model.notification.ContextualNotification;
 
 /**
+ * The {@code append*} methods render into a caller-supplied {@link StringBuilder},
+ * which can be reused for all the lines of a batch.
+ *
  * @author Mathieu Carbou
  */
 @CommonComponent
@@ -30,4 +34,25 @@ public interface Formatter {
   String formatTags(Context context);
 
   String formatValue(Number value);
+
+  default StringBuilder appendMetricName(StringBuilder target, String prefix, Context context, String suffix) {
+    return target.append(formatMetricName(prefix, context, suffix));
+  }
+
+  default StringBuilder appendTags(StringBuilder target, Context context) {
+    return target.append(formatTags(context));
+  }
+
+  default StringBuilder appendValue(StringBuilder target, Number value) {
+    return target.append(formatValue(value));
+  }
+
+  default StringBuilder appendValue(StringBuilder target, StatisticColumns statistics, int row) {
+    return appendValue(target, statistics.getValue(row));
+  }
+
+  /**
+   * Called for each notification, so that a formatter can forget what it keeps about a context which is gone
+   */
+  default void onNotification(ContextualNotification notification) {}
 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import com.tc.classloader.CommonComponent;
+import org.terracotta.management.model.context.Context;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Include and exclude rules deciding which statistics are exported, compiled once into tries.
+ * <p>
+ * A rule is either a statistic name pattern (i.e. {@code Cache:HitRatio} or {@code OffHeapResource:*})
+ * or a context rule {@code key=pattern} (i.e. {@code cacheName=orders*}) matching the value of a context key.
+ * Patterns are matched as a whole and {@code *} matches any sequence of chars.
+ * <p>
+ * A statistic is exported when no exclude rule matches it and, if there are some include rules, when one of them matches it.
+ * Once compiled, matching a statistic does not allocate anything.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class MetricFilter {
+
+  public static final MetricFilter ACCEPT_ALL = new MetricFilter(new String[0], new String[0]);
+
+  private final Rules includes;
+  private final Rules excludes;
+  private final String description;
+
+  private MetricFilter(String[] includes, String[] excludes) {
+    this.includes = new Rules(includes);
+    this.excludes = new Rules(excludes);
+    this.description = "include=" + Arrays.toString(includes) + ", exclude=" + Arrays.toString(excludes);
+  }
+
+  /**
+   * @throws IllegalArgumentException if a rule is empty
+   */
+  public static MetricFilter compile(String[] includes, String[] excludes) {
+    return includes.length == 0 && excludes.length == 0 ? ACCEPT_ALL : new MetricFilter(includes, excludes);
+  }
+
+  public boolean acceptsAll() {
+    return includes.isEmpty() && excludes.isEmpty();
+  }
+
+  /**
+   * @return false if all the statistics of this context are filtered out
+   */
+  public boolean accepts(Context context) {
+    return !excludes.matches(context) && (includes.isEmpty() || includes.hasStatisticRules() || includes.matches(context));
+  }
+
+  public boolean accepts(Context context, String statisticName) {
+    return !excludes.matches(context) && isStatisticAccepted(isContextIncluded(context), statisticName);
+  }
+
+  /**
+   * @return true if the context is included, so that its statistics only have to pass the exclude rules
+   */
+  boolean isContextIncluded(Context context) {
+    return includes.isEmpty() || includes.matches(context);
+  }
+
+  boolean isStatisticAccepted(boolean contextIncluded, String statisticName) {
+    return !excludes.matches(statisticName) && (contextIncluded || includes.matches(statisticName));
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+
+  private static final class Rules {
+    private final Trie statistics = new Trie();
+    private final Map<String, Trie> contexts = new HashMap<>();
+    private final boolean empty;
+
+    Rules(String[] rules) {
+      boolean empty = true;
+      for (String rule : rules) {
+        rule = rule.trim();
+        if (rule.isEmpty()) {
+          continue;
+        }
+        empty = false;
+        int eq = rule.indexOf('=');
+        if (eq == -1) {
+          statistics.add(rule);
+        } else if (eq == 0) {
+          throw new IllegalArgumentException("Bad rule: " + rule);
+        } else {
+          contexts.computeIfAbsent(rule.substring(0, eq).trim(), k -> new Trie()).add(rule.substring(eq + 1).trim());
+        }
+      }
+      this.empty = empty;
+    }
+
+    boolean isEmpty() {
+      return empty;
+    }
+
+    boolean hasStatisticRules() {
+      return !statistics.isEmpty();
+    }
+
+    boolean matches(String statisticName) {
+      return statistics.matches(statisticName);
+    }
+
+    boolean matches(Context context) {
+      if (contexts.isEmpty()) {
+        return false;
+      }
+      for (Map.Entry<String, Trie> entry : contexts.entrySet()) {
+        String value = context.get(entry.getKey());
+        if (value != null && entry.getValue().matches(value)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * A trie of patterns where {@code *} matches any sequence of chars
+   */
+  private static final class Trie {
+    private final Node root = new Node();
+
+    boolean isEmpty() {
+      return root.children.length == 0 && root.star == null && !root.terminal;
+    }
+
+    void add(String pattern) {
+      Node node = root;
+      for (int i = 0; i < pattern.length(); i++) {
+        char c = pattern.charAt(i);
+        if (c == '*') {
+          if (node.star == null) {
+            node.star = new Node();
+          }
+          node = node.star;
+          // consecutive stars are the same as one
+          while (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+            i++;
+          }
+        } else {
+          node = node.child(c);
+        }
+      }
+      node.terminal = true;
+    }
+
+    boolean matches(String s) {
+      return matches(root, s, 0);
+    }
+
+    private static boolean matches(Node node, String s, int i) {
+      if (i == s.length()) {
+        return node.terminal || (node.star != null && node.star.terminal);
+      }
+      Node child = node.find(s.charAt(i));
+      if (child != null && matches(child, s, i + 1)) {
+        return true;
+      }
+      if (node.star != null) {
+        // the star consumes from 0 to all the remaining chars
+        for (int j = i; j <= s.length(); j++) {
+          if (matches(node.star, s, j)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class Node {
+    char[] chars = new char[0];
+    Node[] children = new Node[0];
+    Node star;
+    boolean terminal;
+
+    Node find(char c) {
+      // few children per node: a linear scan is the fastest
+      for (int i = 0; i < chars.length; i++) {
+        if (chars[i] == c) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    Node child(char c) {
+      Node child = find(c);
+      if (child == null) {
+        child = new Node();
+        chars = Arrays.copyOf(chars, chars.length + 1);
+        children = Arrays.copyOf(children, children.length + 1);
+        chars[chars.length - 1] = c;
+        children[children.length - 1] = child;
+      }
+      return child;
+    }
+  }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import com.tc.classloader.CommonComponent;
+
+import java.nio.ByteBuffer;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Writes primitive numbers straight into a {@link StringBuilder} or a {@link ByteBuffer}, without allocating anything.
+ * <p>
+ * Doubles are written like a {@link DecimalFormat} without grouping and with at most 6 fraction digits would:
+ * the exact binary value is rounded half-even to 6 fraction digits, trailing zeros are removed
+ * and negative values rounded to zero keep their sign ({@code -0}).
+ * The rounding is computed on the binary mantissa with integer arithmetic.
+ * <p>
+ * Above {@value #MAX_EXACT} (where the ulp of a double exceeds the 6th fraction digit),
+ * and for NaN and infinities, the {@link DecimalFormat} is used.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class NumberEncoder {
+
+  public static final int FRACTION_DIGITS = 6;
+
+  private static final long SCALE = 1_000_000;
+  private static final double MAX_EXACT = 0x1p33;
+  private static final long FIVE_POW_6 = 15_625;
+
+  private static final ThreadLocal<NumberFormat> NUMBER_FORMATTERS = ThreadLocal.withInitial(() -> {
+    final NumberFormat numberFormatter = NumberFormat.getInstance(Locale.US);
+    numberFormatter.setGroupingUsed(false);
+    numberFormatter.setMaximumFractionDigits(FRACTION_DIGITS);
+    if (numberFormatter instanceof DecimalFormat) { // better safe than a runtime error
+      final DecimalFormat decimalFormat = (DecimalFormat) numberFormatter;
+      final DecimalFormatSymbols symbols = decimalFormat.getDecimalFormatSymbols();
+      symbols.setNaN("NaN");
+      decimalFormat.setDecimalFormatSymbols(symbols);
+    }
+    return numberFormatter;
+  });
+
+  private NumberEncoder() {
+  }
+
+  public static String format(double value) {
+    return isFast(value) ? append(new StringBuilder(24), value).toString() : NUMBER_FORMATTERS.get().format(value);
+  }
+
+  public static StringBuilder append(StringBuilder target, double value) {
+    if (!isFast(value)) {
+      return target.append(NUMBER_FORMATTERS.get().format(value));
+    }
+    if (isNegative(value)) {
+      target.append('-');
+    }
+    long scaled = scaled(Math.abs(value));
+    target.append(scaled / SCALE);
+    int fraction = (int) (scaled % SCALE);
+    if (fraction != 0) {
+      target.append('.');
+      for (long div = SCALE / 10; fraction != 0; div /= 10) {
+        target.append((char) ('0' + fraction / div));
+        fraction %= div;
+      }
+    }
+    return target;
+  }
+
+  /**
+   * @throws java.nio.BufferOverflowException if the target buffer is too small
+   */
+  public static void put(ByteBuffer target, double value) {
+    if (!isFast(value)) {
+      putChars(target, NUMBER_FORMATTERS.get().format(value));
+      return;
+    }
+    if (isNegative(value)) {
+      target.put((byte) '-');
+    }
+    long scaled = scaled(Math.abs(value));
+    put(target, scaled / SCALE);
+    int fraction = (int) (scaled % SCALE);
+    if (fraction != 0) {
+      target.put((byte) '.');
+      for (long div = SCALE / 10; fraction != 0; div /= 10) {
+        target.put((byte) ('0' + fraction / div));
+        fraction %= div;
+      }
+    }
+  }
+
+  /**
+   * @throws java.nio.BufferOverflowException if the target buffer is too small
+   */
+  public static void put(ByteBuffer target, long value) {
+    if (value == Long.MIN_VALUE) {
+      putChars(target, "-9223372036854775808");
+      return;
+    }
+    if (value < 0) {
+      target.put((byte) '-');
+      value = -value;
+    }
+    long div = 1;
+    while (div <= value / 10) {
+      div *= 10;
+    }
+    for (; div > 0; div /= 10) {
+      target.put((byte) ('0' + value / div % 10));
+    }
+  }
+
+  private static void putChars(ByteBuffer target, String s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        target.put((byte) c);
+      } else if (c < 0x800) {
+        target.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+      } else {
+        // i.e. the infinity symbol of DecimalFormat
+        target.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+      }
+    }
+  }
+
+  private static boolean isFast(double value) {
+    // also false for NaN
+    return Math.abs(value) < MAX_EXACT;
+  }
+
+  private static boolean isNegative(double value) {
+    // like DecimalFormat, -0.0 is written -0
+    return Double.doubleToRawLongBits(value) < 0;
+  }
+
+  /**
+   * @return the positive value multiplied by 10^6 and rounded half-even, computed on the exact binary value
+   */
+  static long scaled(double value) {
+    long bits = Double.doubleToRawLongBits(value);
+    int exponent = (int) (bits >>> 52) & 0x7FF;
+    long mantissa = bits & 0xF_FFFF_FFFF_FFFFL;
+    if (exponent == 0) {
+      // subnormal
+      exponent = 1;
+    } else {
+      mantissa |= 1L << 52;
+    }
+    // value = mantissa * 2^(exponent - 1075) and value * 10^6 = mantissa * 5^6 / 2^shift
+    int shift = 1075 - exponent - FRACTION_DIGITS;
+    if (shift <= 0) {
+      return (mantissa * FIVE_POW_6) << -shift;
+    }
+    if (shift > 68) {
+      // mantissa * 5^6 < 2^67: less than a half
+      return 0;
+    }
+    // 128 bits product of mantissa (< 2^53) and 5^6 (< 2^14)
+    long lo = mantissa * FIVE_POW_6;
+    long hi = ((mantissa >>> 32) * FIVE_POW_6 + (((mantissa & 0xFFFF_FFFFL) * FIVE_POW_6) >>> 32)) >>> 32;
+    long quotient;
+    int cmp; // remainder compared to half of the divisor
+    if (shift < 64) {
+      quotient = (lo >>> shift) | (hi << (64 - shift));
+      long remainder = lo & ((1L << shift) - 1);
+      cmp = Long.compare(remainder, 1L << (shift - 1));
+    } else if (shift == 64) {
+      quotient = hi;
+      cmp = Long.compareUnsigned(lo, Long.MIN_VALUE);
+    } else {
+      quotient = hi >>> (shift - 64);
+      long remainderHi = hi & ((1L << (shift - 64)) - 1);
+      long halfHi = 1L << (shift - 65);
+      cmp = remainderHi != halfHi ? Long.compare(remainderHi, halfHi) : lo == 0 ? 0 : 1;
+    }
+    if (cmp > 0 || (cmp == 0 && (quotient & 1) == 1)) {
+      quotient++;
+    }
+    return quotient;
+  }
+
+}
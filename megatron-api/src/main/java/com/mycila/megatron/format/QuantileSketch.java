@@ -0,0 +1,265 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import com.tc.classloader.CommonComponent;
+
+/**
+ * Mergeable quantile sketch with a relative accuracy guarantee (DDSketch).
+ * <p>
+ * Values are counted in logarithmic buckets: bucket {@code i} holds the values in {@code (gamma^(i-1), gamma^i]},
+ * with {@code gamma = (1 + accuracy) / (1 - accuracy)}, so that any quantile is returned within {@code accuracy} of its true value.
+ * Negative values are counted in a mirrored set of buckets, values too close to 0 in a single zero bucket.
+ * <p>
+ * Sketches with the same accuracy are merged by adding their buckets, which is exact:
+ * merging the sketches of several contexts gives the same quantiles as sketching all their values.
+ * <p>
+ * Buckets are kept in dense arrays. At most {@value #MAX_BUCKETS} buckets are kept per sign:
+ * beyond this, the lowest buckets are collapsed, which only loses accuracy on the lowest quantiles.
+ * Not thread-safe.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class QuantileSketch {
+
+  public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+  static final int MAX_BUCKETS = 2048;
+
+  private final double relativeAccuracy;
+  private final double gamma;
+  private final double logGamma;
+  private final double minIndexable;
+  private final Buckets positives = new Buckets();
+  private final Buckets negatives = new Buckets();
+
+  private long zeros;
+  private long count;
+  private double sum;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  public QuantileSketch() {
+    this(DEFAULT_RELATIVE_ACCURACY);
+  }
+
+  /**
+   * @throws IllegalArgumentException if the accuracy is not in {@code (0, 1)}
+   */
+  public QuantileSketch(double relativeAccuracy) {
+    if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+      throw new IllegalArgumentException("Bad relative accuracy: " + relativeAccuracy);
+    }
+    this.relativeAccuracy = relativeAccuracy;
+    this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+    this.logGamma = Math.log(gamma);
+    this.minIndexable = Double.MIN_NORMAL * gamma;
+  }
+
+  public double getRelativeAccuracy() {
+    return relativeAccuracy;
+  }
+
+  /**
+   * Adds a value. NaN is ignored.
+   */
+  public QuantileSketch add(double value) {
+    if (Double.isNaN(value)) {
+      return this;
+    }
+    if (value > minIndexable) {
+      positives.add(index(value), 1);
+    } else if (value < -minIndexable) {
+      negatives.add(index(-value), 1);
+    } else {
+      zeros++;
+    }
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+    return this;
+  }
+
+  /**
+   * Adds the values of another sketch to this one
+   *
+   * @throws IllegalArgumentException if the sketches do not have the same accuracy
+   */
+  public QuantileSketch merge(QuantileSketch other) {
+    if (other.gamma != gamma) {
+      throw new IllegalArgumentException("Cannot merge a sketch of accuracy " + other.relativeAccuracy + " into a sketch of accuracy " + relativeAccuracy);
+    }
+    if (other.count > 0) {
+      positives.merge(other.positives);
+      negatives.merge(other.negatives);
+      zeros += other.zeros;
+      count += other.count;
+      sum += other.sum;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+    }
+    return this;
+  }
+
+  /**
+   * @param quantile the quantile, between 0 and 1 (i.e. 0.99 for p99)
+   * @return the value of this quantile, or NaN if the sketch is empty
+   */
+  public double getQuantile(double quantile) {
+    if (!(quantile >= 0 && quantile <= 1)) {
+      throw new IllegalArgumentException("Bad quantile: " + quantile);
+    }
+    if (count == 0) {
+      return Double.NaN;
+    }
+    if (quantile == 1) {
+      return max;
+    }
+    long rank = (long) (quantile * (count - 1));
+    double value;
+    if (rank < negatives.total) {
+      value = -value(negatives.indexAtRankDescending(rank));
+    } else if (rank < negatives.total + zeros) {
+      value = 0;
+    } else {
+      value = value(positives.indexAtRank(rank - negatives.total - zeros));
+    }
+    // the exact bounds are known
+    return Math.max(min, Math.min(max, value));
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public boolean isEmpty() {
+    return count == 0;
+  }
+
+  public double getSum() {
+    return sum;
+  }
+
+  /**
+   * @return the exact minimum, or NaN if the sketch is empty
+   */
+  public double getMin() {
+    return count == 0 ? Double.NaN : min;
+  }
+
+  /**
+   * @return the exact maximum, or NaN if the sketch is empty
+   */
+  public double getMax() {
+    return count == 0 ? Double.NaN : max;
+  }
+
+  public QuantileSketch copy() {
+    return new QuantileSketch(relativeAccuracy).merge(this);
+  }
+
+  @Override
+  public String toString() {
+    return "QuantileSketch{count=" + count + ", min=" + getMin() + ", p50=" + getQuantile(0.5) + ", p99=" + getQuantile(0.99) + ", max=" + getMax() + '}';
+  }
+
+  private int index(double value) {
+    return (int) Math.ceil(Math.log(value) / logGamma);
+  }
+
+  // the value of a bucket, at the same relative distance of its two bounds
+  private double value(int index) {
+    return 2 * Math.pow(gamma, index) / (gamma + 1);
+  }
+
+  private static final class Buckets {
+    long[] counts = new long[0];
+    int offset;
+    int minIndex;
+    int maxIndex;
+    long total;
+
+    void add(int index, long n) {
+      if (total == 0) {
+        minIndex = maxIndex = index;
+      }
+      int hi = Math.max(maxIndex, index);
+      // collapses the lowest buckets to keep at most MAX_BUCKETS
+      int lo = Math.max(Math.min(minIndex, index), hi - MAX_BUCKETS + 1);
+      if (lo < offset || hi >= offset + counts.length || lo > minIndex) {
+        resize(lo, hi);
+      }
+      counts[Math.max(index, lo) - offset] += n;
+      total += n;
+      minIndex = lo;
+      maxIndex = hi;
+    }
+
+    void merge(Buckets other) {
+      for (int index = other.minIndex; other.total > 0 && index <= other.maxIndex; index++) {
+        long n = other.counts[index - other.offset];
+        if (n > 0) {
+          add(index, n);
+        }
+      }
+    }
+
+    int indexAtRank(long rank) {
+      long seen = 0;
+      for (int index = minIndex; index <= maxIndex; index++) {
+        seen += counts[index - offset];
+        if (seen > rank) {
+          return index;
+        }
+      }
+      return maxIndex;
+    }
+
+    int indexAtRankDescending(long rank) {
+      long seen = 0;
+      for (int index = maxIndex; index >= minIndex; index--) {
+        seen += counts[index - offset];
+        if (seen > rank) {
+          return index;
+        }
+      }
+      return minIndex;
+    }
+
+    private void resize(int lo, int hi) {
+      int span = hi - lo + 1;
+      long[] resized = new long[span + span / 2 + 8];
+      int resizedOffset = lo - (resized.length - span) / 2;
+      if (total > 0) {
+        long collapsed = 0;
+        for (int index = minIndex; index <= maxIndex; index++) {
+          long n = counts[index - offset];
+          if (index < lo) {
+            collapsed += n;
+          } else {
+            resized[index - resizedOffset] += n;
+          }
+        }
+        resized[lo - resizedOffset] += collapsed;
+      }
+      counts = resized;
+      offset = resizedOffset;
+    }
+  }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import com.tc.classloader.CommonComponent;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.statistics.StatisticType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Rolls up the statistics of the contexts which only differ by some keys (i.e. {@code clientId}) into a single context.
+ * <p>
+ * With hundreds of clients, a single logical cache otherwise becomes hundreds of series.
+ * The rolled-up context is the original context without these keys, plus a {@link #KEY} key listing them.
+ * For each statistic, the sum, min, max and average over the grouped contexts are computed in one pass,
+ * as statistics named {@code <name>:sum}, {@code <name>:min}, {@code <name>:max} and {@code <name>:avg}.
+ * <p>
+ * The quantile sketches of the grouped contexts are merged on demand.
+ * Contexts having none of these keys are not rolled up.
+ * <p>
+ * The members of a group are reported in different batches (one per client): they are kept by a {@link RollupAggregator}.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class Rollup {
+
+  public static final String KEY = "rollup";
+
+  private static final DerivedNames NAMES = new DerivedNames(":sum", ":min", ":max", ":avg");
+
+  private final Set<String> keys;
+  private final String description;
+
+  private Rollup(Set<String> keys) {
+    this.keys = keys;
+    this.description = String.join(",", keys);
+  }
+
+  /**
+   * @param keys the context keys to drop to group the contexts
+   * @throws IllegalArgumentException if there is no key
+   */
+  public static Rollup of(String... keys) {
+    Set<String> set = new TreeSet<>();
+    for (String key : keys) {
+      key = key.trim();
+      if (!key.isEmpty()) {
+        set.add(key);
+      }
+    }
+    if (set.isEmpty()) {
+      throw new IllegalArgumentException("No rollup key");
+    }
+    return new Rollup(Collections.unmodifiableSet(set));
+  }
+
+  public Set<String> getKeys() {
+    return keys;
+  }
+
+  /**
+   * @return true if this context has some of the rolled-up keys
+   */
+  public boolean appliesTo(Context context) {
+    for (String key : keys) {
+      if (context.contains(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the context grouping this context
+   */
+  public Context groupOf(Context context) {
+    Map<String, String> group = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : context.entrySet()) {
+      if (!keys.contains(entry.getKey())) {
+        group.put(entry.getKey(), entry.getValue());
+      }
+    }
+    group.put(KEY, description);
+    return Context.create(group);
+  }
+
+  /**
+   * @param group   the context grouping the members
+   * @param members the last statistics of each member of the group
+   * @return the rolled-up statistics of the group
+   */
+  StatisticsSnapshot.Entry aggregate(Context group, Collection<StatisticsSnapshot.Entry> members) {
+    Map<String, Aggregate> aggregates = new HashMap<>();
+    for (StatisticsSnapshot.Entry member : members) {
+      StatisticColumns columns = member.getColumns();
+      for (int row = 0; row < columns.size(); row++) {
+        Aggregate aggregate = aggregates.get(columns.getName(row));
+        if (aggregate == null) {
+          aggregates.put(columns.getName(row), aggregate = new Aggregate(columns.getType(row)));
+        }
+        aggregate.add(columns, row);
+      }
+    }
+    StatisticColumns.Builder columns = StatisticColumns.builder(aggregates.size() * 4);
+    for (Map.Entry<String, Aggregate> entry : aggregates.entrySet()) {
+      entry.getValue().addTo(columns, NAMES.of(entry.getKey()));
+    }
+    return StatisticsSnapshot.Entry.rollup(group, columns.build(), new ArrayList<>(members));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return this == o || o instanceof Rollup && keys.equals(((Rollup) o).keys);
+  }
+
+  @Override
+  public int hashCode() {
+    return keys.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "Rollup{" + description + '}';
+  }
+
+  private static final class Aggregate {
+    final StatisticType type;
+    boolean integral = true;
+    long longSum;
+    long longMin = Long.MAX_VALUE;
+    long longMax = Long.MIN_VALUE;
+    double sum;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    int count;
+
+    Aggregate(StatisticType type) {
+      this.type = type;
+    }
+
+    void add(StatisticColumns columns, int row) {
+      if (integral && columns.isIntegral(row)) {
+        long value = columns.getLong(row);
+        longSum += value;
+        longMin = Math.min(longMin, value);
+        longMax = Math.max(longMax, value);
+      } else {
+        integral = false;
+      }
+      double value = columns.getDouble(row);
+      sum += value;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      count++;
+    }
+
+    void addTo(StatisticColumns.Builder columns, String[] names) {
+      if (integral) {
+        columns.add(names[0], type, longSum);
+        columns.add(names[1], type, longMin);
+        columns.add(names[2], type, longMax);
+      } else {
+        columns.add(names[0], type, sum);
+        columns.add(names[1], type, min);
+        columns.add(names[2], type, max);
+      }
+      columns.add(names[3], type, sum / count);
+    }
+  }
+
+}
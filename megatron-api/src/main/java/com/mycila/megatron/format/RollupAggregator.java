@@ -0,0 +1,151 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import com.tc.classloader.CommonComponent;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.management.model.notification.ContextualNotification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rolls up the contexts grouped by a {@link Rollup} across the batches of statistics.
+ * <p>
+ * Each statistic collector pushes its own batch, so the members of a group (i.e. the clients using the same cache) are reported in different batches.
+ * The last statistics of each member are kept per group, and a group is rolled up once per collection:
+ * when one of its members reports again, all the members had the time to report their statistics for the previous collection.
+ * A group is therefore first rolled up at the second collection.
+ * <p>
+ * The members of the clients, entities, caches and servers which are gone are evicted by {@link #onNotification(ContextualNotification)}.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class RollupAggregator {
+
+  private final Rollup rollup;
+  private final Map<Context, Group> groups = new LinkedHashMap<>();
+
+  public RollupAggregator(Rollup rollup) {
+    this.rollup = rollup;
+  }
+
+  public Rollup getRollup() {
+    return rollup;
+  }
+
+  /**
+   * Keeps the statistics of the rolled-up contexts of this batch as the last ones of their members
+   *
+   * @return the rolled-up statistics of the groups having completed a collection
+   */
+  public synchronized List<StatisticsSnapshot.Entry> update(StatisticsSnapshot snapshot) {
+    Set<Group> completed = null;
+    for (StatisticsSnapshot.Entry entry : snapshot) {
+      Context member = entry.getContext();
+      if (!rollup.appliesTo(member)) {
+        continue;
+      }
+      Group group = groups.computeIfAbsent(rollup.groupOf(member), Group::new);
+      if (!group.reported.add(member)) {
+        // a new collection: the previous one is complete
+        group.reported.clear();
+        group.reported.add(member);
+        if (completed == null) {
+          completed = new LinkedHashSet<>();
+        }
+        completed.add(group);
+      }
+      group.members.put(member, entry);
+    }
+    if (completed == null) {
+      return Collections.emptyList();
+    }
+    // rolled up once all the members of this batch are updated
+    List<StatisticsSnapshot.Entry> entries = new ArrayList<>(completed.size());
+    for (Group group : completed) {
+      entries.add(rollup.aggregate(group.context, group.members.values()));
+    }
+    return entries;
+  }
+
+  /**
+   * Evicts the members of the clients, entities, caches and servers which are gone
+   */
+  public synchronized void onNotification(ContextualNotification notification) {
+    switch (notification.getType()) {
+      case "SERVER_ENTITY_DESTROYED":
+      case "CLIENT_DISCONNECTED":
+      case "SERVER_LEFT":
+      case "CACHE_REMOVED": {
+        Context gone = notification.getContext();
+        for (Iterator<Group> it = groups.values().iterator(); it.hasNext(); ) {
+          Group group = it.next();
+          group.members.keySet().removeIf(context -> context.contains(gone));
+          group.reported.removeIf(context -> context.contains(gone));
+          if (group.members.isEmpty()) {
+            it.remove();
+          }
+        }
+        break;
+      }
+    }
+  }
+
+  /**
+   * @return the number of groups
+   */
+  public synchronized int size() {
+    return groups.size();
+  }
+
+  /**
+   * @return the number of members of all the groups
+   */
+  public synchronized int getMemberCount() {
+    int count = 0;
+    for (Group group : groups.values()) {
+      count += group.members.size();
+    }
+    return count;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "RollupAggregator{" + rollup + ", groups=" + groups.size() + '}';
+  }
+
+  private static final class Group {
+    final Context context;
+    // the last statistics of each member
+    final Map<Context, StatisticsSnapshot.Entry> members = new LinkedHashMap<>();
+    // the members which reported since the last rollup
+    final Set<Context> reported = new HashSet<>();
+
+    Group(Context context) {
+      this.context = context;
+    }
+  }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import com.tc.classloader.CommonComponent;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.statistics.StatisticType;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable and columnar set of reduced statistics, sorted by name.
+ * <p>
+ * Instead of a {@code TreeMap<String, Number>} with one node and one boxed value per statistic,
+ * a row is made of an index in a JVM-wide table of interned statistic names, a primitive value
+ * ({@code long} or {@code double}) and 4 bits in a bitmap, holding the {@link StatisticType} and whether the value is integral.
+ * <p>
+ * Integral values are formatted like {@link Long}s and the others like {@link Double}s.
+ * Only {@link StatisticType#COUNTER}, {@link StatisticType#GAUGE}, {@link StatisticType#RATE} and {@link StatisticType#RATIO} are supported.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class StatisticColumns {
+
+  public static final StatisticColumns EMPTY = new StatisticColumns(0, new int[0], new long[0], new double[0], new long[0]);
+
+  private static final StatisticType[] TYPES = {StatisticType.COUNTER, StatisticType.GAUGE, StatisticType.RATE, StatisticType.RATIO};
+  private static final int INTEGRAL = 4;
+  private static final int BITS = 4;
+  private static final int ROWS_PER_WORD = Long.SIZE / BITS;
+
+  private static final Map<String, Integer> NAME_INDEXES = new ConcurrentHashMap<>();
+  private static volatile String[] names = new String[64];
+
+  private final int size;
+  private final int[] nameIndexes;
+  private final long[] longs;
+  private final double[] doubles;
+  private final long[] bitmap;
+
+  private StatisticColumns(int size, int[] nameIndexes, long[] longs, double[] doubles, long[] bitmap) {
+    this.size = size;
+    this.nameIndexes = nameIndexes;
+    this.longs = longs;
+    this.doubles = doubles;
+    this.bitmap = bitmap;
+  }
+
+  public static Builder builder() {
+    return new Builder(16);
+  }
+
+  public static Builder builder(int expectedSize) {
+    return new Builder(expectedSize);
+  }
+
+  /**
+   * @return the index of this statistic name in the JVM-wide table of interned names. The same name always gets the same index.
+   */
+  public static int nameIndex(String name) {
+    Integer index = NAME_INDEXES.get(name);
+    return index != null ? index : intern(name);
+  }
+
+  /**
+   * @return the interned statistic name at this index
+   */
+  public static String name(int nameIndex) {
+    return names[nameIndex];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public String getName(int row) {
+    return names[nameIndexes[checkRow(row)]];
+  }
+
+  public int getNameIndex(int row) {
+    return nameIndexes[checkRow(row)];
+  }
+
+  public StatisticType getType(int row) {
+    return TYPES[bits(checkRow(row)) & 3];
+  }
+
+  public boolean isIntegral(int row) {
+    return (bits(checkRow(row)) & INTEGRAL) != 0;
+  }
+
+  public long getLong(int row) {
+    return isIntegral(row) ? longs[row] : (long) doubles[row];
+  }
+
+  public double getDouble(int row) {
+    return isIntegral(row) ? longs[row] : doubles[row];
+  }
+
+  /**
+   * @return the boxed value of this row, a {@link Long} or a {@link Double}
+   */
+  public Number getValue(int row) {
+    return isIntegral(row) ? (Number) longs[row] : (Number) doubles[row];
+  }
+
+  /**
+   * @return the row of this statistic or a negative number if there is no such statistic
+   */
+  public int indexOf(String name) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = names[nameIndexes[mid]].compareTo(name);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * @return the statistics of this context accepted by the filter, or this instance if they are all accepted
+   */
+  public StatisticColumns select(MetricFilter filter, Context context) {
+    return select(filter, context, false);
+  }
+
+  /**
+   * @param derived true if these statistics were derived from other ones, so that they are filtered like the statistics they come from
+   */
+  StatisticColumns select(MetricFilter filter, Context context, boolean derived) {
+    if (filter.acceptsAll() || size == 0) {
+      return this;
+    }
+    if (!filter.accepts(context)) {
+      return EMPTY;
+    }
+    boolean contextIncluded = filter.isContextIncluded(context);
+    Builder builder = null;
+    for (int row = 0; row < size; row++) {
+      boolean accepted = filter.isStatisticAccepted(contextIncluded, derived ? DerivedNames.baseName(getName(row)) : getName(row));
+      if (builder == null && !accepted) {
+        // first rejected row: copies the accepted rows so far
+        builder = new Builder(size);
+        for (int i = 0; i < row; i++) {
+          builder.append(this, i);
+        }
+      } else if (builder != null && accepted) {
+        builder.append(this, row);
+      }
+    }
+    return builder == null ? this : builder.build();
+  }
+
+  /**
+   * @return a new unmodifiable and sorted map of the boxed values
+   */
+  public Map<String, Number> toMap() {
+    Map<String, Number> map = new TreeMap<>();
+    for (int row = 0; row < size; row++) {
+      map.put(getName(row), getValue(row));
+    }
+    return Collections.unmodifiableMap(map);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    for (int row = 0; row < size; row++) {
+      if (row > 0) {
+        sb.append(", ");
+      }
+      sb.append(getName(row)).append('=').append(getValue(row));
+    }
+    return sb.append('}').toString();
+  }
+
+  private int checkRow(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+    }
+    return row;
+  }
+
+  private int bits(int row) {
+    return (int) (bitmap[row / ROWS_PER_WORD] >>> (row % ROWS_PER_WORD * BITS)) & 0xF;
+  }
+
+  private static synchronized int intern(String name) {
+    Integer index = NAME_INDEXES.get(name);
+    if (index != null) {
+      return index;
+    }
+    int next = NAME_INDEXES.size();
+    String[] table = names;
+    if (next == table.length) {
+      table = Arrays.copyOf(table, table.length * 2);
+    }
+    table[next] = name;
+    // publishes the name before its index
+    names = table;
+    NAME_INDEXES.put(name, next);
+    return next;
+  }
+
+  private static int typeBits(StatisticType type) {
+    switch (type) {
+      case COUNTER:
+        return 0;
+      case GAUGE:
+        return 1;
+      case RATE:
+        return 2;
+      case RATIO:
+        return 3;
+      default:
+        throw new IllegalArgumentException("Unsupported statistic type: " + type);
+    }
+  }
+
+  /**
+   * Builds a {@link StatisticColumns}. Rows can be added in any order: they are kept sorted by name.
+   * Adding a statistic twice replaces its value.
+   */
+  @CommonComponent
+  public static final class Builder {
+
+    private int size;
+    private int[] nameIndexes;
+    private long[] longs;
+    private double[] doubles;
+    private byte[] bits;
+
+    private Builder(int expectedSize) {
+      int capacity = Math.max(1, expectedSize);
+      this.nameIndexes = new int[capacity];
+      this.longs = new long[capacity];
+      this.doubles = new double[capacity];
+      this.bits = new byte[capacity];
+    }
+
+    public Builder add(String name, StatisticType type, long value) {
+      int row = row(name);
+      longs[row] = value;
+      doubles[row] = 0;
+      bits[row] = (byte) (typeBits(type) | INTEGRAL);
+      return this;
+    }
+
+    public Builder add(String name, StatisticType type, double value) {
+      int row = row(name);
+      longs[row] = 0;
+      doubles[row] = value;
+      bits[row] = (byte) typeBits(type);
+      return this;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public StatisticColumns build() {
+      if (size == 0) {
+        return EMPTY;
+      }
+      long[] bitmap = new long[(size + ROWS_PER_WORD - 1) / ROWS_PER_WORD];
+      for (int row = 0; row < size; row++) {
+        bitmap[row / ROWS_PER_WORD] |= (long) bits[row] << (row % ROWS_PER_WORD * BITS);
+      }
+      return new StatisticColumns(size,
+          Arrays.copyOf(nameIndexes, size),
+          Arrays.copyOf(longs, size),
+          Arrays.copyOf(doubles, size),
+          bitmap);
+    }
+
+    // rows of a sorted source are appended without searching
+    void append(StatisticColumns source, int row) {
+      ensureCapacity();
+      nameIndexes[size] = source.nameIndexes[row];
+      longs[size] = source.longs[row];
+      doubles[size] = source.doubles[row];
+      bits[size] = (byte) source.bits(row);
+      size++;
+    }
+
+    private int row(String name) {
+      int nameIndex = nameIndex(name);
+      // statistics usually come unsorted from a hash map: binary search for the insertion point
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int cmp = names[nameIndexes[mid]].compareTo(name);
+        if (cmp < 0) {
+          low = mid + 1;
+        } else if (cmp > 0) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      ensureCapacity();
+      int moved = size - low;
+      if (moved > 0) {
+        System.arraycopy(nameIndexes, low, nameIndexes, low + 1, moved);
+        System.arraycopy(longs, low, longs, low + 1, moved);
+        System.arraycopy(doubles, low, doubles, low + 1, moved);
+        System.arraycopy(bits, low, bits, low + 1, moved);
+      }
+      nameIndexes[low] = nameIndex;
+      size++;
+      return low;
+    }
+
+    private void ensureCapacity() {
+      if (size == nameIndexes.length) {
+        int capacity = size * 2;
+        nameIndexes = Arrays.copyOf(nameIndexes, capacity);
+        longs = Arrays.copyOf(longs, capacity);
+        doubles = Arrays.copyOf(doubles, capacity);
+        bits = Arrays.copyOf(bits, capacity);
+      }
+    }
+  }
+
+}
@@ -18,12 +18,14 @@ package com.mycila.megatron.format;
 import com.tc.classloader.CommonComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.terracotta.management.model.context.Context;
 import org.terracotta.management.model.stats.ContextualStatistics;
 import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.StatisticType;
 import org.terracotta.statistics.registry.Statistic;
 
 import java.io.Serializable;
-import java.util.Comparator;
+import java.util.DoubleSummaryStatistics;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -34,40 +36,82 @@ import java.util.TreeMap;
 public class Statistics {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Statistics.class);
-  private static final Comparator<Number> NUMBER_COMPARATOR = Comparator.comparingDouble(Number::doubleValue);
 
   public static Map<String, Number> extractStatistics(ContextualStatistics contextualStatistics) {
-    Map<String, Statistic<? extends Serializable>> statistics = contextualStatistics.getStatistics();
+    return extractStatistics(contextualStatistics, MetricFilter.ACCEPT_ALL);
+  }
+
+  /**
+   * Only extracts the statistics accepted by the filter: the samples of the others are not even read
+   */
+  public static Map<String, Number> extractStatistics(ContextualStatistics contextualStatistics, MetricFilter filter) {
+    StatisticColumns columns = reduce(contextualStatistics, filter);
     Map<String, Number> reduced = new TreeMap<>();
+    for (int row = 0; row < columns.size(); row++) {
+      reduced.put(columns.getName(row), columns.getValue(row));
+    }
+    return reduced;
+  }
+
+  public static StatisticColumns reduce(ContextualStatistics contextualStatistics) {
+    return reduce(contextualStatistics, MetricFilter.ACCEPT_ALL);
+  }
+
+  /**
+   * Reduces the samples of each statistic accepted by the filter into a primitive value:
+   * rates and ratios are averaged, the maximum of counters and gauges is taken.
+   * The samples of the other statistics are not even read.
+   */
+  public static StatisticColumns reduce(ContextualStatistics contextualStatistics, MetricFilter filter) {
+    Context context = contextualStatistics.getContext();
+    if (!filter.accepts(context)) {
+      return StatisticColumns.EMPTY;
+    }
+    boolean contextIncluded = filter.isContextIncluded(context);
+    Map<String, Statistic<? extends Serializable>> statistics = contextualStatistics.getStatistics();
+    StatisticColumns.Builder columns = StatisticColumns.builder(statistics.size());
     for (Map.Entry<String, Statistic<? extends Serializable>> entry : statistics.entrySet()) {
       String name = entry.getKey();
+      if (!filter.isStatisticAccepted(contextIncluded, name)) {
+        continue;
+      }
       Statistic<? extends Serializable> statistic = entry.getValue();
-      switch (statistic.getType()) {
+      StatisticType type = statistic.getType();
+      switch (type) {
 
         case RATE:
-        case RATIO:
+        case RATIO: {
           // aggregate by averaging the samples
-          statistic.getSamples()
-              .stream()
-              .map(Sample::getSample)
-              .filter(Number.class::isInstance)
-              .map(Number.class::cast)
-              .mapToDouble(Number::doubleValue)
-              .average()
-              .ifPresent(avg -> reduced.put(name, avg));
+          DoubleSummaryStatistics summary = new DoubleSummaryStatistics();
+          for (Sample<? extends Serializable> sample : statistic.getSamples()) {
+            Serializable value = sample.getSample();
+            if (value instanceof Number) {
+              summary.accept(((Number) value).doubleValue());
+            }
+          }
+          if (summary.getCount() > 0) {
+            columns.add(name, type, summary.getAverage());
+          }
           break;
+        }
 
         case COUNTER:
-        case GAUGE:
+        case GAUGE: {
           // aggregate by taking the maximum from the samples
-          statistic.getSamples()
-              .stream()
-              .map(Sample::getSample)
-              .filter(Number.class::isInstance)
-              .map(Number.class::cast)
-              .max(NUMBER_COMPARATOR)
-              .ifPresent(max -> reduced.put(name, max));
+          Number max = null;
+          for (Sample<? extends Serializable> sample : statistic.getSamples()) {
+            Serializable value = sample.getSample();
+            if (value instanceof Number && (max == null || Double.compare(((Number) value).doubleValue(), max.doubleValue()) > 0)) {
+              max = (Number) value;
+            }
+          }
+          if (max instanceof Double || max instanceof Float) {
+            columns.add(name, type, max.doubleValue());
+          } else if (max != null) {
+            columns.add(name, type, max.longValue());
+          }
           break;
+        }
 
         case TABLE:
           // we cannot support tables
@@ -77,7 +121,43 @@ public class Statistics {
           LOGGER.trace("Unsupported statistic: {}", statistic);
       }
     }
-    return reduced;
+    return columns.build();
+  }
+
+  /**
+   * Sketches all the samples of the rates, ratios and gauges, instead of reducing them to a single value,
+   * so that the spikes within a collection window are not lost.
+   *
+   * @return the sketches of the statistics having numeric samples, sorted by name
+   */
+  public static Map<String, QuantileSketch> sketch(ContextualStatistics contextualStatistics, double relativeAccuracy) {
+    Map<String, QuantileSketch> sketches = new TreeMap<>();
+    for (Map.Entry<String, Statistic<? extends Serializable>> entry : contextualStatistics.getStatistics().entrySet()) {
+      Statistic<? extends Serializable> statistic = entry.getValue();
+      switch (statistic.getType()) {
+        case RATE:
+        case RATIO:
+        case GAUGE: {
+          QuantileSketch sketch = null;
+          for (Sample<? extends Serializable> sample : statistic.getSamples()) {
+            Serializable value = sample.getSample();
+            if (value instanceof Number) {
+              if (sketch == null) {
+                sketch = new QuantileSketch(relativeAccuracy);
+              }
+              sketch.add(((Number) value).doubleValue());
+            }
+          }
+          if (sketch != null && !sketch.isEmpty()) {
+            sketches.put(entry.getKey(), sketch);
+          }
+          break;
+        }
+        default:
+          // counters only grow: their quantiles are not meaningful
+      }
+    }
+    return sketches;
   }
 
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import com.tc.classloader.CommonComponent;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.management.model.stats.ContextualStatistics;
+import org.terracotta.statistics.StatisticType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable view of a batch of statistics, reduced once and shared by all the plugins.
+ * <p>
+ * The samples of each statistic are reduced with {@link Statistics#reduce(ContextualStatistics)}
+ * when the snapshot is built, so that the plugins receiving the same batch do not reduce it again each.
+ * Plugins only apply their own {@link MetricFilter} on the reduced values, kept in {@link StatisticColumns}.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class StatisticsSnapshot implements Iterable<StatisticsSnapshot.Entry> {
+
+  private final List<ContextualStatistics> contextualStatistics;
+  private final List<Entry> entries;
+
+  private StatisticsSnapshot(List<ContextualStatistics> contextualStatistics, List<Entry> entries) {
+    this.contextualStatistics = contextualStatistics;
+    this.entries = entries;
+  }
+
+  public static StatisticsSnapshot of(List<ContextualStatistics> contextualStatistics) {
+    List<Entry> entries = new ArrayList<>(contextualStatistics.size());
+    for (ContextualStatistics statistics : contextualStatistics) {
+      entries.add(new Entry(statistics.getContext(), Statistics.reduce(statistics), false, statistics, Collections.emptyList(), null));
+    }
+    return new StatisticsSnapshot(Collections.unmodifiableList(contextualStatistics), Collections.unmodifiableList(entries));
+  }
+
+  /**
+   * @return the raw batch this snapshot was built from
+   */
+  public List<ContextualStatistics> getContextualStatistics() {
+    return contextualStatistics;
+  }
+
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  @Override
+  public Iterator<Entry> iterator() {
+    return entries.iterator();
+  }
+
+  @Override
+  public String toString() {
+    return "StatisticsSnapshot{entries=" + entries + '}';
+  }
+
+  /**
+   * The reduced statistics of a context, sorted by name
+   */
+  @CommonComponent
+  public static final class Entry {
+
+    // not ":max", which is the max of a rollup
+    private static final DerivedNames QUANTILES = new DerivedNames(":p50", ":p99", ":p100");
+
+    private final Context context;
+    private final StatisticColumns columns;
+    private final boolean derived;
+    private final ContextualStatistics source;
+    private final List<Entry> members;
+
+    private volatile Map<String, QuantileSketch> sketches;
+    private volatile Entry quantiles;
+
+    private Entry(Context context, StatisticColumns columns, boolean derived, ContextualStatistics source, List<Entry> members, Map<String, QuantileSketch> sketches) {
+      this.context = context;
+      this.columns = columns;
+      this.derived = derived;
+      this.source = source;
+      this.members = members;
+      this.sketches = sketches;
+    }
+
+    static Entry rollup(Context context, StatisticColumns columns, List<Entry> members) {
+      return new Entry(context, columns, true, null, members, null);
+    }
+
+    public Context getContext() {
+      return context;
+    }
+
+    public StatisticColumns getColumns() {
+      return columns;
+    }
+
+    /**
+     * @return true if these statistics were computed by a {@link Rollup}
+     */
+    public boolean isRollup() {
+      return context.contains(Rollup.KEY);
+    }
+
+    /**
+     * @return true if these statistics were derived from other ones (rollups, quantiles), in which case they are filtered like them
+     */
+    public boolean isDerived() {
+      return derived;
+    }
+
+    /**
+     * @return the statistics accepted by the filter. The shared columns are returned as is when the filter accepts all of them.
+     */
+    public StatisticColumns getColumns(MetricFilter filter) {
+      return columns.select(filter, context, derived);
+    }
+
+    /**
+     * @return the statistics as a new map of boxed values: prefer {@link #getColumns()}
+     */
+    public Map<String, Number> getStatistics() {
+      return columns.toMap();
+    }
+
+    /**
+     * @return the statistics accepted by the filter as a new map of boxed values: prefer {@link #getColumns(MetricFilter)}
+     */
+    public Map<String, Number> getStatistics(MetricFilter filter) {
+      return getColumns(filter).toMap();
+    }
+
+    /**
+     * Sketches all the samples of the rates, ratios and gauges of this context, or merges the sketches of the rolled-up contexts.
+     * Sketches are only built when first requested, then shared by all the plugins: they must not be modified.
+     *
+     * @return the sketches of the statistics, sorted by name
+     */
+    public Map<String, QuantileSketch> getSketches() {
+      Map<String, QuantileSketch> sketches = this.sketches;
+      if (sketches == null) {
+        if (source != null) {
+          sketches = Statistics.sketch(source, QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        } else {
+          Map<String, QuantileSketch> merged = new TreeMap<>();
+          for (Entry member : members) {
+            for (Map.Entry<String, QuantileSketch> sketch : member.getSketches().entrySet()) {
+              QuantileSketch target = merged.get(sketch.getKey());
+              if (target == null) {
+                merged.put(sketch.getKey(), sketch.getValue().copy());
+              } else {
+                target.merge(sketch.getValue());
+              }
+            }
+          }
+          sketches = merged;
+        }
+        this.sketches = sketches = Collections.unmodifiableMap(sketches);
+      }
+      return sketches;
+    }
+
+    /**
+     * @return the p50, p99 and max of the samples of each sketched statistic, as statistics named
+     * {@code <name>:p50}, {@code <name>:p99} and {@code <name>:p100} of the same context
+     */
+    public Entry getQuantiles() {
+      Entry quantiles = this.quantiles;
+      if (quantiles == null) {
+        Map<String, QuantileSketch> sketches = getSketches();
+        StatisticColumns.Builder builder = StatisticColumns.builder(sketches.size() * 3);
+        for (Map.Entry<String, QuantileSketch> entry : sketches.entrySet()) {
+          String[] names = QUANTILES.of(entry.getKey());
+          QuantileSketch sketch = entry.getValue();
+          builder.add(names[0], StatisticType.GAUGE, sketch.getQuantile(0.5));
+          builder.add(names[1], StatisticType.GAUGE, sketch.getQuantile(0.99));
+          builder.add(names[2], StatisticType.GAUGE, sketch.getMax());
+        }
+        this.quantiles = quantiles = new Entry(context, builder.build(), true, null, Collections.emptyList(), Collections.emptyMap());
+      }
+      return quantiles;
+    }
+
+    @Override
+    public String toString() {
+      return "Entry{context=" + context + ", statistics=" + columns + '}';
+    }
+
+  }
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.http;
+
+import com.mycila.megatron.stats.TransportStatistics;
+import com.tc.classloader.CommonComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Posts request bodies asynchronously on an {@link Executor}.
+ * <p>
+ * At most {@code maxInFlight} requests are executing or waiting for a retry at the same time:
+ * {@link #send(byte[])} blocks the caller when this limit is reached, which lets the caller's queue apply its drop policy.
+ * <p>
+ * Requests failing with an I/O error, a 5xx or a 429 status code are retried at most {@code maxRetries} times,
+ * with an exponential backoff and some jitter. Once all retries have failed, the request is shed.
+ * Due retries are re-submitted by the thread calling {@link #send(byte[])} or {@link #resubmitRetries()},
+ * so that no timer is required.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class AsyncHttpSender implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AsyncHttpSender.class);
+  private static final long CLOSE_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+  private static final long MAX_POLL = MILLISECONDS.toNanos(100);
+
+  private final Http http;
+  private final Executor executor;
+  private final int maxInFlight;
+  private final Semaphore inFlight;
+  private final int maxRetries;
+  private final long retryBackoff;
+  private final long maxRetryBackoff;
+  private final DelayQueue<Request> retries = new DelayQueue<>();
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong retried = new AtomicLong();
+  private final AtomicLong shed = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  private volatile Consumer<byte[]> shedHandler = body -> {};
+  private volatile Runnable completionHandler = () -> {};
+  private volatile boolean closed;
+
+  /**
+   * @param retryBackoff    initial delay before retrying a failed request
+   * @param maxRetryBackoff maximum delay between 2 retries
+   */
+  public AsyncHttpSender(Http http, Executor executor, int maxInFlight, int maxRetries, long retryBackoff, long maxRetryBackoff, TimeUnit unit) {
+    if (maxInFlight <= 0) {
+      throw new IllegalArgumentException("Bad maxInFlight: " + maxInFlight);
+    }
+    this.http = http;
+    this.executor = executor;
+    this.maxInFlight = maxInFlight;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.maxRetries = Math.max(0, maxRetries);
+    this.retryBackoff = Math.max(1, unit.toNanos(retryBackoff));
+    this.maxRetryBackoff = Math.max(this.retryBackoff, unit.toNanos(maxRetryBackoff));
+  }
+
+  /**
+   * Submits a request body, waiting for an in-flight slot to become available
+   */
+  public void send(byte[] body) throws InterruptedException {
+    while (!inFlight.tryAcquire(nextPoll(), NANOSECONDS)) {
+      resubmitRetries();
+    }
+    Request request = new Request(body, null);
+    if (closed) {
+      request.attempts = maxRetries;
+    }
+    submit(request);
+  }
+
+  /**
+   * Submits a request body if an in-flight slot is available
+   *
+   * @return false if there was no available slot
+   */
+  public boolean trySend(byte[] body) {
+    return trySend(body, null);
+  }
+
+  /**
+   * Submits a request body if an in-flight slot is available, and calls a listener once the request is completed.
+   * <p>
+   * The listener is called with true when the request does not need to be sent again (sent or rejected by the backend),
+   * or with false when it has failed all its retries. The shed handler is not called for such a request.
+   *
+   * @param listener can be null
+   * @return false if there was no available slot
+   */
+  public boolean trySend(byte[] body, Consumer<Boolean> listener) {
+    if (!inFlight.tryAcquire()) {
+      return false;
+    }
+    Request request = new Request(body, listener);
+    if (closed) {
+      request.attempts = maxRetries;
+    }
+    submit(request);
+    return true;
+  }
+
+  /**
+   * Sets the handler receiving the bodies of the requests shed after having failed all their retries.
+   * <p>
+   * Only the requests which failed with a retryable error (I/O error, HTTP 429 or 5xx) are shed: a request rejected by the backend
+   * is dropped and counted in the transport statistics, so that it is not spooled and replayed forever.
+   */
+  public void onShed(Consumer<byte[]> shedHandler) {
+    this.shedHandler = shedHandler;
+  }
+
+  /**
+   * Sets the handler called each time a request completes or fails, once its in-flight slot is available again
+   */
+  public void onCompletion(Runnable completionHandler) {
+    this.completionHandler = completionHandler;
+  }
+
+  /**
+   * Re-submits the requests which are due for a retry
+   *
+   * @return the number of re-submitted requests
+   */
+  public int resubmitRetries() {
+    int n = 0;
+    if (closed) {
+      // no more waiting: all pending retries are attempted one last time
+      for (Iterator<Request> it = retries.iterator(); it.hasNext(); ) {
+        Request request = it.next();
+        it.remove();
+        request.attempts = maxRetries;
+        retried.incrementAndGet();
+        submit(request);
+        n++;
+      }
+    } else {
+      Request request;
+      while ((request = retries.poll()) != null) {
+        retried.incrementAndGet();
+        submit(request);
+        n++;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * @return the delay until the next retry is due, or -1 if there is no pending retry
+   */
+  public long nextRetryDelay(TimeUnit unit) {
+    Request next = retries.peek();
+    return next == null ? -1 : Math.max(0, next.getDelay(unit));
+  }
+
+  /**
+   * Waits for the in-flight requests to complete.
+   * <p>
+   * Once closed, requests are not retried anymore and pending retries are attempted one last time.
+   * Requests can still be sent after closing: calling this method again waits for them.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    long deadline = System.nanoTime() + CLOSE_TIMEOUT;
+    try {
+      while (!inFlight.tryAcquire(maxInFlight, MAX_POLL, NANOSECONDS)) {
+        resubmitRetries();
+        if (System.nanoTime() - deadline > 0) {
+          LOGGER.warn("[{}] Closing with {} requests still in flight", http.getUrl().getAuthority(), getInFlight());
+          return;
+        }
+      }
+      inFlight.release(maxInFlight);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public long getSentCount() {
+    return sent.get();
+  }
+
+  public long getRetryCount() {
+    return retried.get();
+  }
+
+  /**
+   * @return the number of requests which failed all their retries with a retryable error (I/O error, HTTP 429 or 5xx)
+   */
+  public long getShedCount() {
+    return shed.get();
+  }
+
+  /**
+   * @return the number of requests dropped because the backend rejected them (HTTP 4xx other than 429)
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /**
+   * @return true if a request can be submitted without waiting
+   */
+  public boolean hasCapacity() {
+    return inFlight.availablePermits() > 0;
+  }
+
+  /**
+   * @return true if some failed requests are waiting to be retried
+   */
+  public boolean isRetrying() {
+    return !retries.isEmpty();
+  }
+
+  public int getInFlight() {
+    return maxInFlight - inFlight.availablePermits();
+  }
+
+  private void submit(Request request) {
+    try {
+      executor.execute(() -> execute(request));
+    } catch (RejectedExecutionException e) {
+      // executor shutting down: last attempt from the calling thread
+      request.attempts = maxRetries;
+      execute(request);
+    }
+  }
+
+  private void execute(Request request) {
+    int code = http.execute(request.body);
+    if (code / 100 == 2) {
+      sent.incrementAndGet();
+      inFlight.release();
+      request.completed(true);
+      completionHandler.run();
+    } else if (!closed && request.attempts < maxRetries && isRetryable(code)) {
+      request.attempts++;
+      request.due = System.nanoTime() + backoff(request.attempts);
+      retries.add(request);
+      completionHandler.run();
+    } else if (isRetryable(code)) {
+      LOGGER.warn("[{}] Shedding request of {} bytes after {} attempt(s)", http.getUrl().getAuthority(), request.body.length, request.attempts + 1);
+      shed.incrementAndGet();
+      inFlight.release();
+      if (request.listener == null) {
+        shedHandler.accept(request.body);
+      } else {
+        request.completed(false);
+      }
+      completionHandler.run();
+    } else {
+      // rejected by the backend: sending the same body again would fail the same way
+      LOGGER.warn("[{}] Dropping request of {} bytes rejected with HTTP {}", http.getUrl().getAuthority(), request.body.length, code);
+      rejected.incrementAndGet();
+      http.getStatistics().dropped(TransportStatistics.countLines(request.body, request.body.length));
+      inFlight.release();
+      request.completed(true);
+      completionHandler.run();
+    }
+  }
+
+  private long backoff(int attempt) {
+    long delay = attempt >= 62 ? maxRetryBackoff : Math.min(maxRetryBackoff, retryBackoff << (attempt - 1));
+    if (delay < 0) {
+      delay = maxRetryBackoff;
+    }
+    // "equal jitter": half of the delay is random so that retries from several nodes do not hit the backend at the same time
+    long half = delay >> 1;
+    return half + ThreadLocalRandom.current().nextLong(half + 1);
+  }
+
+  private long nextPoll() {
+    long next = nextRetryDelay(NANOSECONDS);
+    return next < 0 ? MAX_POLL : Math.min(next, MAX_POLL);
+  }
+
+  private static boolean isRetryable(int code) {
+    return code == -1 || code == 429 || code / 100 == 5;
+  }
+
+  private static final class Request implements Delayed {
+    final byte[] body;
+    final Consumer<Boolean> listener;
+    int attempts;
+    long due;
+
+    Request(byte[] body, Consumer<Boolean> listener) {
+      this.body = body;
+      this.listener = listener;
+    }
+
+    void completed(boolean done) {
+      if (listener != null) {
+        listener.accept(done);
+      }
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(due - System.nanoTime(), NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+      return Long.compare(due, ((Request) o).due);
+    }
+  }
+
+}
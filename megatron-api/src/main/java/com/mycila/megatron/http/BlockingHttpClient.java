@@ -16,11 +16,18 @@
 package com.mycila.megatron.http;
 
 import com.mycila.megatron.Client;
+import com.mycila.megatron.io.EncodedLines;
+import com.mycila.megatron.sink.EncodingSink;
+import com.mycila.megatron.sink.MetricEncoder;
+import com.mycila.megatron.sink.MetricSink;
+import com.mycila.megatron.stats.TransportStatistics;
 import com.tc.classloader.CommonComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.net.URL;
+import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -29,11 +36,15 @@ public final class BlockingHttpClient implements Client {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(BlockingHttpClient.class);
 
-  private final URL url;
+  private final Http http;
   private volatile boolean closed;
 
   public BlockingHttpClient(URL url) {
-    this.url = url;
+    this(new Http(url));
+  }
+
+  public BlockingHttpClient(Http http) {
+    this.http = http;
   }
 
   @Override
@@ -47,8 +58,32 @@ public final class BlockingHttpClient implements Client {
   @Override
   public void send(Stream<String> messages) {
     if (!closed) {
-      Http.post(url, messages.collect(Collectors.joining("\n")) + "\n");
+      List<String> lines = messages.collect(Collectors.toList());
+      if (!http.post(String.join("\n", lines) + "\n")) {
+        http.getStatistics().dropped(lines.size());
+      }
     }
   }
 
+  /**
+   * Opens a sink encoding the points into the body of a single request, posted when the sink is closed
+   */
+  @Override
+  public MetricSink openSink(MetricEncoder encoder) {
+    ByteArrayOutputStream body = new ByteArrayOutputStream(EncodingSink.DEFAULT_CHUNK_SIZE);
+    return new EncodingSink(encoder, chunk -> EncodedLines.writeTo(chunk, body), () -> {
+      if (!closed && body.size() > 0) {
+        byte[] bytes = body.toByteArray();
+        if (!http.post(bytes)) {
+          http.getStatistics().dropped(TransportStatistics.countLines(bytes, bytes.length));
+        }
+      }
+    });
+  }
+
+  @Override
+  public TransportStatistics getStatistics() {
+    return http.getStatistics();
+  }
+
 }
@@ -15,6 +15,7 @@
  */
 package com.mycila.megatron.http;
 
+import com.mycila.megatron.stats.TransportStatistics;
 import com.tc.classloader.CommonComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,8 +27,22 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 /**
+ * Reusable HTTP transport posting text bodies to a fixed URL.
+ * <p>
+ * Responses (including error responses) are always fully read and closed so that the JDK keeps the
+ * underlying socket in its keep-alive cache and reuses it for the next request to the same host
+ * (see the {@code http.keepAlive} and {@code http.maxConnections} system properties).
+ * <p>
+ * Bodies bigger than {@code gzipThreshold} bytes are sent compressed with {@code Content-Encoding: gzip}.
+ * <p>
+ * Each request is recorded in the {@link TransportStatistics}: a request answered with a 2xx status code is a sent packet, the others are send errors.
+ * <p>
+ * Thread-safe.
+ *
  * @author Mathieu Carbou
  */
 @CommonComponent
@@ -35,56 +50,148 @@ public class Http {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Http.class);
 
+  public static final int DEFAULT_TIMEOUT = 5_000;
+
+  private final URL url;
+  private final int connectTimeout;
+  private final int readTimeout;
+  private final int gzipThreshold;
+  private final TransportStatistics statistics = new TransportStatistics();
+
+  public Http(URL url) {
+    this(url, DEFAULT_TIMEOUT, DEFAULT_TIMEOUT, 0);
+  }
+
+  /**
+   * @param gzipThreshold bodies bigger than this size in bytes are gzipped. 0 or less to never gzip.
+   */
+  public Http(URL url, int connectTimeout, int readTimeout, int gzipThreshold) {
+    this.url = url;
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+    this.gzipThreshold = gzipThreshold;
+  }
+
+  public URL getUrl() {
+    return url;
+  }
+
+  public TransportStatistics getStatistics() {
+    return statistics;
+  }
+
   public static void post(URL url, String text) {
+    new Http(url).post(text);
+  }
+
+  /**
+   * @return true if the server answered with a 2xx status code
+   */
+  public boolean post(String text) {
     if (LOGGER.isTraceEnabled()) {
       LOGGER.trace("[{}] POST > \n{}", url.getAuthority(), text);
     }
+    return post(text.getBytes(StandardCharsets.UTF_8));
+  }
 
+  /**
+   * @return true if the server answered with a 2xx status code
+   */
+  public boolean post(byte[] body) {
+    return execute(body) / 100 == 2;
+  }
+
+  /**
+   * Posts the body
+   *
+   * @return the HTTP status code, or -1 if the request failed with an I/O error
+   */
+  public int execute(byte[] body) {
+    HttpURLConnection connection = null;
+    int lines = TransportStatistics.countLines(body, body.length);
+    long start = System.nanoTime();
     try {
-      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+      boolean gzip = gzipThreshold > 0 && body.length > gzipThreshold;
+      if (gzip) {
+        body = gzip(body);
+      }
+
+      connection = (HttpURLConnection) url.openConnection();
       connection.setRequestMethod("POST");
       connection.setUseCaches(false);
-      connection.setConnectTimeout(5_000);
-      connection.setReadTimeout(5_000);
+      connection.setConnectTimeout(connectTimeout);
+      connection.setReadTimeout(readTimeout);
       connection.setDoInput(true);
       connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(body.length);
       connection.setRequestProperty("Content-type", "application/x-www-form-urlencoded");
       connection.setRequestProperty("Accept", "*/*");
+      if (gzip) {
+        connection.setRequestProperty("Content-Encoding", "gzip");
+      }
 
       try (OutputStream os = connection.getOutputStream()) {
-        os.write(text.getBytes(StandardCharsets.UTF_8));
+        os.write(body);
         os.flush();
       }
 
-      String status = connection.getResponseMessage();
       int code = connection.getResponseCode();
+      String status = connection.getResponseMessage();
       if (code / 100 == 2) {
+        drain(connection.getInputStream());
+        statistics.sent(lines, body.length, System.nanoTime() - start, TimeUnit.NANOSECONDS);
         LOGGER.trace("[{}] POST < {} {}", url.getAuthority(), code, status);
       } else {
-        String err = "";
-        try (InputStream is = connection.getInputStream()) {
-          err += read(is);
-        } catch (IOException ignored) {
-        }
-        try (InputStream is = connection.getErrorStream()) {
-          err += read(is);
-        } catch (IOException ignored) {
-        }
+        String err = read(connection.getErrorStream());
+        statistics.error(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         LOGGER.warn("[{}] POST < {} {}\n{}", url.getAuthority(), code, status, err);
       }
+      return code;
     } catch (IOException e) {
+      statistics.error(System.nanoTime() - start, TimeUnit.NANOSECONDS);
       LOGGER.warn("[{}] POST ERROR: {}", url.getAuthority(), e.getMessage(), e);
+      if (connection != null) {
+        // reading the error stream (if any) still allows the connection to be reused
+        try {
+          drain(connection.getErrorStream());
+        } catch (IOException ignored) {
+        }
+      }
+      return -1;
+    }
+  }
+
+  private static byte[] gzip(byte[] body) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(body);
+    }
+    return out.toByteArray();
+  }
+
+  private static void drain(InputStream in) throws IOException {
+    if (in != null) {
+      try (InputStream is = in) {
+        byte[] buffer = new byte[1024];
+        while (is.read(buffer) != -1) {
+        }
+      }
     }
   }
 
   private static String read(InputStream in) throws IOException {
-    ByteArrayOutputStream result = new ByteArrayOutputStream();
-    byte[] buffer = new byte[1024];
-    int length;
-    while ((length = in.read(buffer)) != -1) {
-      result.write(buffer, 0, length);
+    if (in == null) {
+      return "";
+    }
+    try (InputStream is = in) {
+      ByteArrayOutputStream result = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      int length;
+      while ((length = is.read(buffer)) != -1) {
+        result.write(buffer, 0, length);
+      }
+      return result.toString(StandardCharsets.UTF_8.name());
     }
-    return result.toString(StandardCharsets.UTF_8.name());
   }
 
 }
@@ -16,48 +16,108 @@
 package com.mycila.megatron.http;
 
 import com.mycila.megatron.Client;
+import com.mycila.megatron.io.EncodedLines;
+import com.mycila.megatron.queue.DropPolicy;
+import com.mycila.megatron.queue.FlushPolicy;
+import com.mycila.megatron.queue.RingBuffer;
+import com.mycila.megatron.reactor.TransportReactor;
+import com.mycila.megatron.sink.EncodingSink;
+import com.mycila.megatron.sink.MetricEncoder;
+import com.mycila.megatron.sink.MetricSink;
+import com.mycila.megatron.spool.DiskSpool;
+import com.mycila.megatron.stats.TransportStatistics;
 import com.tc.classloader.CommonComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Queues batches of lines and sends them from a lane of a {@link TransportReactor}.
+ * The batches are queued UTF-8 encoded: the points written to a {@link #openSink(MetricEncoder) sink}
+ * are encoded straight into the batch and copied as-is into the request bodies.
+ * <p>
+ * When built with an {@link AsyncHttpSender}, the queued batches are grouped into requests of at most {@code maxBodySize} bytes
+ * which are posted concurrently, with retries. The lane never waits for a request to complete: while no request can be posted,
+ * the batches stay in the queue. Without {@link AsyncHttpSender}, all the queued batches are posted in one request from the lane.
+ * <p>
+ * When a {@link DiskSpool} is used (asynchronous mode only), the batches which do not fit in the queue, the requests which
+ * cannot be posted straight away and the requests which failed all their retries are written to the spool.
+ * While the spool is not empty, new requests are appended to it, so that the order is kept
+ * (except for the requests which failed their retries: they are appended after the requests spooled in the meantime).
+ * The spool is replayed one request at a time, at most {@code replayRate} requests per second, and only while no request is failing.
+ * A replayed request stays in the spool until it is sent or rejected by the backend: delivery is at-least-once.
+ * <p>
+ * The dequeued batches are grouped into a request until the {@link FlushPolicy} says it must be sent
+ * (the {@code batchLines} count the lines of the batches). The batch size of the policy also limits the size of a request.
+ * <p>
+ * The {@link Http#getStatistics() statistics} count the lines and report the number of queued batches as the queue depth.
+ * The batches evicted from the queue by {@link DropPolicy#DROP_OLDEST} are not counted as dropped lines.
+ */
 @CommonComponent
-public final class NonBlockingHttpClient implements Client {
+public final class NonBlockingHttpClient implements Client, TransportReactor.Task {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(NonBlockingHttpClient.class);
 
-  private final BlockingQueue<String> batches;
-  private final Thread sender;
-  private final URL url;
+  public static final int DEFAULT_QUEUE_SIZE = 1 << 10;
+  public static final int DEFAULT_MAX_BODY_SIZE = 1 << 20;
+
+  private final RingBuffer<byte[]> batches;
+  private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+  private final Http http;
+  private final AsyncHttpSender asyncSender;
+  private final int maxBodySize;
+  private final DiskSpool spool;
+  private final long replayInterval;
+  private final TransportReactor.Lane lane;
+  private final FlushPolicy flushPolicy;
 
+  private byte[] pendingBatch;
+  private byte[] pendingBody;
+  private long nextReplay;
+  private volatile boolean replaying;
+  private int bodySize;
+  private int bodyLines;
+  private long bodyStart;
   private volatile boolean closed;
 
-  public NonBlockingHttpClient(URL url, int queueSize, ThreadFactory threadFactory) {
-    this.url = url;
-    this.batches = new LinkedBlockingQueue<>(queueSize);
-    this.sender = threadFactory.newThread(() -> {
-      while (!closed && !Thread.currentThread().isInterrupted()) {
-        try {
-          Optional<String> message = Optional.ofNullable(batches.poll(1, TimeUnit.SECONDS));
-          drainAndSend(message);
-        } catch (InterruptedException e) {
-          drainAndSend(Optional.empty());
-          closed = true;
-        }
-      }
-    });
-    this.sender.start();
+  /**
+   * @param asyncSender sender used to post the requests. Can be null to post synchronously from the lane.
+   * @param maxBodySize maximum size in bytes of a request body. 0 or less for no limit.
+   *                    A single batch bigger than this size is still sent, alone.
+   * @param spool       spool used to store the requests which cannot be sent. Can be null. Only used with an {@link AsyncHttpSender}.
+   * @param replayRate  maximum number of requests per second replayed from the spool
+   * @param flushPolicy when to post the grouped batches
+   * @param batches     queue using the wait strategy of the lane
+   */
+  public NonBlockingHttpClient(Http http, AsyncHttpSender asyncSender, int maxBodySize, DiskSpool spool, int replayRate, FlushPolicy flushPolicy, RingBuffer<byte[]> batches, TransportReactor.Lane lane) {
+    if (batches.getWaitStrategy() != lane.getWaitStrategy()) {
+      throw new IllegalArgumentException("The queue must use the wait strategy of the lane");
+    }
+    this.http = http;
+    this.asyncSender = asyncSender;
+    this.maxBodySize = maxBodySize <= 0 ? Integer.MAX_VALUE : maxBodySize;
+    this.spool = asyncSender == null ? null : spool;
+    this.replayInterval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, replayRate);
+    this.batches = batches;
+    this.lane = lane;
+    this.flushPolicy = flushPolicy;
+    if (asyncSender != null) {
+      // wakes up the lane when a request completes, to post the next one
+      asyncSender.onCompletion(lane.getWaitStrategy()::signal);
+    }
+    if (this.spool != null) {
+      asyncSender.onShed(this.spool::append);
+    } else if (asyncSender != null) {
+      asyncSender.onShed(body -> http.getStatistics().dropped(TransportStatistics.countLines(body, body.length)));
+    }
+    http.getStatistics().bindQueue(batches, false);
+    lane.register(this);
   }
 
   @Override
@@ -65,37 +125,239 @@ public final class NonBlockingHttpClient implements Client {
     if (!closed) {
       closed = true;
       LOGGER.info("Closing...");
-      try {
-        sender.join();
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
+      lane.unregister(this);
+      if (asyncSender != null) {
+        // stops the retries and waits for the in-flight requests
+        asyncSender.close();
+      }
+      synchronized (this) {
+        try {
+          drainAndSend(true);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (asyncSender != null) {
+        asyncSender.close();
+      }
+      if (spool != null) {
+        spool.close();
       }
-      drainAndSend(Optional.empty());
     }
   }
 
   @Override
   public void send(Stream<String> messages) {
     if (!closed) {
-      batches.offer(messages.collect(Collectors.joining("\n")));
+      List<String> lines = messages.collect(Collectors.toList());
+      if (!lines.isEmpty()) {
+        offer((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8), lines.size());
+      }
     }
   }
 
-  private void drainAndSend(Optional<String> polled) {
-    List<String> drained;
-    int size = batches.size();
-    if (size > 0) {
-      drained = new ArrayList<>(1 + size);
-      polled.ifPresent(drained::add);
-      batches.drainTo(drained);
+  /**
+   * Opens a sink encoding the points into a single batch, queued when the sink is closed
+   */
+  @Override
+  public MetricSink openSink(MetricEncoder encoder) {
+    ByteArrayOutputStream batch = new ByteArrayOutputStream(EncodingSink.DEFAULT_CHUNK_SIZE);
+    return new EncodingSink(encoder, chunk -> EncodedLines.writeTo(chunk, batch), () -> {
+      if (!closed && batch.size() > 0) {
+        byte[] bytes = batch.toByteArray();
+        offer(bytes, TransportStatistics.countLines(bytes, bytes.length));
+      }
+    });
+  }
+
+  private void offer(byte[] batch, int lines) {
+    if (batches.offer(batch)) {
+      http.getStatistics().enqueued(lines);
+    } else if (spool != null) {
+      spool.append(batch);
     } else {
-      drained = polled.map(Collections::singletonList).orElse(Collections.emptyList());
+      http.getStatistics().dropped(lines);
+    }
+  }
+
+  @Override
+  public boolean hasWork() {
+    return !batches.isEmpty() || pendingBody != null && (asyncSender == null || asyncSender.hasCapacity());
+  }
+
+  @Override
+  public synchronized long run() {
+    if (closed) {
+      // the closing thread sends what remains
+      return -1;
+    }
+    if (asyncSender != null) {
+      asyncSender.resubmitRetries();
+      replay();
+    }
+    try {
+      drainAndSend(false);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return nextWait();
+  }
+
+  /**
+   * @return the number of batches dropped because the queue was full
+   */
+  public long getDropCount() {
+    return batches.getDropCount();
+  }
+
+  /**
+   * @return the number of requests which failed all their retries. They are lost unless a spool is used.
+   */
+  public long getShedCount() {
+    return asyncSender == null ? 0 : asyncSender.getShedCount();
+  }
+
+  /**
+   * @return the number of requests dropped because the backend rejected them. They are never spooled.
+   */
+  public long getRejectedCount() {
+    return asyncSender == null ? 0 : asyncSender.getRejectedCount();
+  }
+
+  @Override
+  public TransportStatistics getStatistics() {
+    return http.getStatistics();
+  }
+
+  public DiskSpool getSpool() {
+    return spool;
+  }
+
+  private long nextWait() {
+    long wait = asyncSender == null ? -1 : asyncSender.nextRetryDelay(TimeUnit.NANOSECONDS);
+    if (bodySize > 0 && pendingBody == null) {
+      long linger = Math.max(0, flushPolicy.remainingLinger(bodyStart, System.nanoTime()));
+      wait = wait < 0 ? linger : Math.min(wait, linger);
+    }
+    if (spool != null && !spool.isEmpty()) {
+      long replay = Math.max(0, nextReplay - System.nanoTime());
+      wait = wait < 0 ? replay : Math.min(wait, replay);
+    }
+    return wait;
+  }
+
+  /**
+   * Replays the oldest spooled request, one at a time. It is only removed from the spool once sent (or rejected),
+   * so that it is replayed again after a restart if the server stops in the meantime.
+   */
+  private void replay() {
+    if (spool == null || replaying || asyncSender.isRetrying()) {
+      return;
+    }
+    long now = System.nanoTime();
+    if (now - nextReplay >= 0 && asyncSender.hasCapacity()) {
+      byte[] body = spool.peek();
+      if (body != null) {
+        nextReplay = now + replayInterval;
+        replaying = true;
+        if (!asyncSender.trySend(body, this::replayed)) {
+          replaying = false;
+        }
+      }
+    }
+  }
+
+  private void replayed(boolean done) {
+    if (done) {
+      spool.remove();
+    }
+    replaying = false;
+  }
+
+  /**
+   * @param blocking true to wait for the requests to be posted instead of keeping them for later
+   */
+  private void drainAndSend(boolean blocking) throws InterruptedException {
+    for (; ; ) {
+      if (pendingBody == null) {
+        pendingBody = nextBody(blocking);
+        if (pendingBody == null) {
+          return;
+        }
+      }
+      if (!dispatch(pendingBody, blocking)) {
+        return;
+      }
+      pendingBody = null;
+    }
+  }
+
+  /**
+   * @return false if the body could not be posted nor spooled
+   */
+  private boolean dispatch(byte[] body, boolean blocking) throws InterruptedException {
+    if (asyncSender == null) {
+      if (!http.post(body)) {
+        http.getStatistics().dropped(TransportStatistics.countLines(body, body.length));
+      }
+      return true;
+    }
+    if (spool != null && (closed || !spool.isEmpty())) {
+      spool.append(body);
+      return true;
+    }
+    if (asyncSender.trySend(body)) {
+      return true;
+    }
+    if (spool != null) {
+      spool.append(body);
+      return true;
+    }
+    if (blocking) {
+      asyncSender.send(body);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @param force true to return the body even if the flush policy says to wait
+   * @return the next body to post, or null if there is nothing to post yet
+   */
+  private byte[] nextBody(boolean force) {
+    boolean full = false;
+    byte[] batch = pendingBatch != null ? pendingBatch : batches.poll();
+    pendingBatch = null;
+    while (batch != null) {
+      int length = batch.length;
+      if (bodySize > 0 && (bodySize + length > maxBodySize || flushPolicy.isFull(bodySize, bodyLines))) {
+        pendingBatch = batch;
+        full = true;
+        break;
+      }
+      if (bodySize == 0) {
+        bodyStart = System.nanoTime();
+      }
+      body.write(batch, 0, length);
+      bodySize += length;
+      bodyLines += TransportStatistics.countLines(batch, length);
+      batch = batches.poll();
+    }
+    if (bodySize == 0) {
+      return null;
+    }
+    if (!full && !force && !flushPolicy.isFull(bodySize, bodyLines) && flushPolicy.remainingLinger(bodyStart, System.nanoTime()) > 0) {
+      // lingering for more batches
+      return null;
     }
-    if (!drained.isEmpty()) {
-      String message = drained.stream()
-          .collect(Collectors.joining("\n")) + "\n";
-      Http.post(url, message);
+    byte[] message = body.toByteArray();
+    body.reset();
+    bodySize = 0;
+    bodyLines = 0;
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("[{}] POST > \n{}", http.getUrl().getAuthority(), new String(message, StandardCharsets.UTF_8));
     }
+    return message;
   }
 
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.io;
+
+import com.tc.classloader.CommonComponent;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Utilities for buffers of UTF-8 encoded, newline-terminated lines,
+ * like the ones produced by a {@link com.mycila.megatron.sink.MetricEncoder}.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class EncodedLines {
+
+  private EncodedLines() {
+  }
+
+  /**
+   * Copies as many whole lines as possible (but at most {@code maxLines}) from the source buffer to the target buffer.
+   *
+   * @return the number of lines copied, 0 if the next line does not fit in the remaining space of the target buffer
+   */
+  public static int copy(ByteBuffer source, ByteBuffer target, int maxLines) {
+    int start = source.position();
+    int max = start + Math.min(source.remaining(), target.remaining());
+    int end = start;
+    int lines = 0;
+    for (int i = start; i < max && lines < maxLines; i++) {
+      if (source.get(i) == '\n') {
+        end = i + 1;
+        lines++;
+      }
+    }
+    if (lines > 0) {
+      ByteBuffer slice = source.duplicate();
+      slice.limit(end);
+      target.put(slice);
+      source.position(end);
+    }
+    return lines;
+  }
+
+  /**
+   * @return the next line of the source buffer, including its {@code '\n'}, as a view of the source buffer
+   */
+  public static ByteBuffer next(ByteBuffer source) {
+    int start = source.position();
+    int end = start;
+    while (end < source.limit() && source.get(end) != '\n') {
+      end++;
+    }
+    if (end < source.limit()) {
+      end++;
+    }
+    ByteBuffer line = source.duplicate();
+    line.limit(end);
+    source.position(end);
+    return line;
+  }
+
+  /**
+   * @return the number of lines remaining in the buffer
+   */
+  public static int count(ByteBuffer lines) {
+    int count = 0;
+    for (int i = lines.position(), end = lines.limit(); i < end; i++) {
+      if (lines.get(i) == '\n') {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Appends the remaining lines of the buffer to the stream and consumes the buffer
+   */
+  public static void writeTo(ByteBuffer lines, ByteArrayOutputStream out) {
+    if (lines.hasArray()) {
+      out.write(lines.array(), lines.arrayOffset() + lines.position(), lines.remaining());
+      lines.position(lines.limit());
+    } else {
+      byte[] bytes = new byte[lines.remaining()];
+      lines.get(bytes);
+      out.write(bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * Decodes the remaining lines of the buffer, without their {@code '\n'}, and consumes the buffer
+   */
+  public static void decode(ByteBuffer lines, Consumer<String> consumer) {
+    while (lines.hasRemaining()) {
+      ByteBuffer line = next(lines);
+      if (line.get(line.limit() - 1) == '\n') {
+        line.limit(line.limit() - 1);
+      }
+      consumer.accept(StandardCharsets.UTF_8.decode(line).toString());
+    }
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.io;
+
+import com.tc.classloader.CommonComponent;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes newline-terminated lines in UTF-8 straight into a {@link ByteBuffer}.
+ * <p>
+ * ASCII lines (the vast majority of metric lines) are copied byte per byte.
+ * Other lines go through a reused {@link CharsetEncoder}.
+ * Once warmed up, encoding does not allocate anything.
+ * <p>
+ * Not thread-safe: use one instance per sending thread.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class LineEncoder {
+
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+  private CharBuffer chars = CharBuffer.allocate(256);
+
+  /**
+   * Encodes the line followed by {@code '\n'} into the target buffer.
+   *
+   * @return false if the encoded line does not fit in the remaining space of the target buffer.
+   * In this case the target buffer is left untouched.
+   */
+  public boolean encode(CharSequence line, ByteBuffer target) {
+    int start = target.position();
+    int length = line.length();
+    if (target.remaining() < length + 1) {
+      // an UTF-8 encoded line takes at least one byte per char
+      return false;
+    }
+    int i = 0;
+    for (; i < length; i++) {
+      char c = line.charAt(i);
+      if (c >= 0x80) {
+        break;
+      }
+      target.put((byte) c);
+    }
+    if (i < length) {
+      target.position(start);
+      if (!encodeSlow(line, target)) {
+        target.position(start);
+        return false;
+      }
+    }
+    if (!target.hasRemaining()) {
+      target.position(start);
+      return false;
+    }
+    target.put((byte) '\n');
+    return true;
+  }
+
+  private boolean encodeSlow(CharSequence line, ByteBuffer target) {
+    int length = line.length();
+    if (chars.capacity() < length) {
+      chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+    }
+    chars.clear();
+    for (int i = 0; i < length; i++) {
+      chars.put(line.charAt(i));
+    }
+    chars.flip();
+    encoder.reset();
+    CoderResult result = encoder.encode(chars, target, true);
+    if (result.isOverflow()) {
+      return false;
+    }
+    return !encoder.flush(target).isOverflow();
+  }
+
+}
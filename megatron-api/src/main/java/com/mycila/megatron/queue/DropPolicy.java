@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.queue;
+
+import com.tc.classloader.CommonComponent;
+
+/**
+ * What to do when offering an element to a full {@link RingBuffer}
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public enum DropPolicy {
+
+  /**
+   * The offered element is dropped
+   */
+  DROP_NEWEST,
+
+  /**
+   * The oldest element in the buffer is dropped to make room for the offered one
+   */
+  DROP_OLDEST,
+
+  /**
+   * The producer waits for some room until a timeout expires, then the offered element is dropped
+   */
+  BLOCK
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.queue;
+
+import com.tc.classloader.CommonComponent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When an asynchronous client sends what it has dequeued: as soon as {@code batchBytes} or {@code batchLines} is reached,
+ * or when the oldest dequeued line has waited for {@code linger}, whichever comes first.
+ * <p>
+ * A linger of 0 sends straight away. A batch size of 0 or less means no limit.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class FlushPolicy {
+
+  public static final FlushPolicy IMMEDIATE = new FlushPolicy(0, 0, 0, TimeUnit.MILLISECONDS);
+
+  private final long batchBytes;
+  private final long batchLines;
+  private final long lingerNanos;
+
+  public FlushPolicy(int batchBytes, int batchLines, long linger, TimeUnit unit) {
+    this.batchBytes = batchBytes <= 0 ? Long.MAX_VALUE : batchBytes;
+    this.batchLines = batchLines <= 0 ? Long.MAX_VALUE : batchLines;
+    this.lingerNanos = Math.max(0, unit.toNanos(linger));
+  }
+
+  /**
+   * @return true if a batch of this size must be sent now
+   */
+  public boolean isFull(long bytes, long lines) {
+    return bytes >= batchBytes || lines >= batchLines;
+  }
+
+  /**
+   * @param batchStart time in nanoseconds when the first line of the batch was dequeued
+   * @return the time in nanoseconds to wait before sending the batch, or 0 or less if it must be sent now
+   */
+  public long remainingLinger(long batchStart, long now) {
+    return lingerNanos - (now - batchStart);
+  }
+
+  @Override
+  public String toString() {
+    return "FlushPolicy{batchBytes=" + batchBytes + ", batchLines=" + batchLines + ", lingerMs=" + TimeUnit.NANOSECONDS.toMillis(lingerNanos) + "}";
+  }
+
+}
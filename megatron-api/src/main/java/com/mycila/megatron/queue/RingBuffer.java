@@ -0,0 +1,223 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.queue;
+
+import com.tc.classloader.CommonComponent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Bounded, preallocated and lock-free ring buffer for many producers and one consumer.
+ * <p>
+ * Slots are sequenced (D. Vyukov's bounded queue algorithm) so that offering and polling never lock nor allocate.
+ * When the buffer is full, the {@link DropPolicy} decides which element is lost.
+ * Producers are allowed to poll the oldest element to apply {@link DropPolicy#DROP_OLDEST}, which is why polling is also CAS-based.
+ * <p>
+ * The consumer waits for elements through the {@link WaitStrategy}, which producers signal after each successful offer.
+ * <p>
+ * The capacity is rounded up to the next power of 2 (2 minimum).
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class RingBuffer<E> {
+
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  private final Object[] elements;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong drops = new AtomicLong();
+  private final DropPolicy dropPolicy;
+  private final long blockTimeoutNanos;
+  private final WaitStrategy waitStrategy;
+  private final BooleanSupplier notEmpty = () -> !isEmpty();
+
+  public RingBuffer(int capacity, DropPolicy dropPolicy, long blockTimeout, TimeUnit unit, WaitStrategy waitStrategy) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Bad capacity: " + capacity);
+    }
+    // at least 2 slots: with a single slot, a full buffer cannot be told apart from an empty one
+    int size = capacity >= MAX_CAPACITY ? MAX_CAPACITY : Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+    this.elements = new Object[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    this.mask = size - 1;
+    this.dropPolicy = dropPolicy;
+    this.blockTimeoutNanos = unit.toNanos(blockTimeout);
+    this.waitStrategy = waitStrategy;
+  }
+
+  /**
+   * @return true if the element was added, false if it was dropped
+   */
+  public boolean offer(E e) {
+    if (tryOffer(e)) {
+      waitStrategy.signal();
+      return true;
+    }
+    switch (dropPolicy) {
+
+      case DROP_OLDEST: {
+        while (!tryOffer(e)) {
+          if (poll() != null) {
+            drops.incrementAndGet();
+          }
+        }
+        waitStrategy.signal();
+        return true;
+      }
+
+      case BLOCK: {
+        waitStrategy.signal();
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        long pause = 1_000;
+        while (System.nanoTime() < deadline) {
+          LockSupport.parkNanos(this, pause);
+          if (tryOffer(e)) {
+            waitStrategy.signal();
+            return true;
+          }
+          pause = Math.min(pause << 1, 1_000_000);
+        }
+        drops.incrementAndGet();
+        return false;
+      }
+
+      case DROP_NEWEST:
+      default: {
+        drops.incrementAndGet();
+        return false;
+      }
+    }
+  }
+
+  /**
+   * @return the oldest element or null if the buffer is empty
+   */
+  @SuppressWarnings("unchecked")
+  public E poll() {
+    long pos = head.get();
+    for (; ; ) {
+      int idx = (int) (pos & mask);
+      long dif = sequences.get(idx) - (pos + 1);
+      if (dif == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          E e = (E) elements[idx];
+          elements[idx] = null;
+          sequences.lazySet(idx, pos + mask + 1);
+          return e;
+        }
+        pos = head.get();
+      } else if (dif < 0) {
+        return null;
+      } else {
+        pos = head.get();
+      }
+    }
+  }
+
+  /**
+   * Removes at most {@code max} elements and passes them to the consumer
+   *
+   * @return the number of elements drained
+   */
+  public int drain(Consumer<? super E> consumer, int max) {
+    int n = 0;
+    E e;
+    while (n < max && (e = poll()) != null) {
+      consumer.accept(e);
+      n++;
+    }
+    return n;
+  }
+
+  public int drain(Consumer<? super E> consumer) {
+    return drain(consumer, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Waits for the buffer to have some elements
+   *
+   * @return true if the buffer has some elements
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    return waitStrategy.await(notEmpty, timeout, unit);
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public int size() {
+    // read head first: the size can only be over-estimated, never negative
+    long h = head.get();
+    long t = tail.get();
+    return (int) Math.max(0, Math.min(t - h, elements.length));
+  }
+
+  public int capacity() {
+    return elements.length;
+  }
+
+  /**
+   * @return the exact number of elements dropped so far
+   */
+  public long getDropCount() {
+    return drops.get();
+  }
+
+  public WaitStrategy getWaitStrategy() {
+    return waitStrategy;
+  }
+
+  /**
+   * @return a new empty ring buffer with the same drop policy, block timeout and wait strategy
+   */
+  public <T> RingBuffer<T> withCapacity(int capacity) {
+    return new RingBuffer<>(capacity, dropPolicy, blockTimeoutNanos, TimeUnit.NANOSECONDS, waitStrategy);
+  }
+
+  private boolean tryOffer(E e) {
+    long pos = tail.get();
+    for (; ; ) {
+      int idx = (int) (pos & mask);
+      long dif = sequences.get(idx) - pos;
+      if (dif == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          elements[idx] = e;
+          sequences.lazySet(idx, pos + 1);
+          return true;
+        }
+        pos = tail.get();
+      } else if (dif < 0) {
+        return false;
+      } else {
+        pos = tail.get();
+      }
+    }
+  }
+
+}
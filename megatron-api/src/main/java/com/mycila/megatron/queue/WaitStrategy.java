@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.queue;
+
+import com.tc.classloader.CommonComponent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * How a consumer thread waits for data to be available.
+ * <p>
+ * A wait strategy is owned by a single consumer thread, but can be signaled by any number of producers.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public abstract class WaitStrategy {
+
+  private volatile Thread waiter;
+
+  /**
+   * Waits until the condition becomes true, the timeout expires, the strategy is signaled or the thread is interrupted.
+   *
+   * @return the condition value when returning
+   */
+  public final boolean await(BooleanSupplier condition, long timeout, TimeUnit unit) throws InterruptedException {
+    if (condition.getAsBoolean()) {
+      return true;
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    if (spin(condition)) {
+      return true;
+    }
+    waiter = Thread.currentThread();
+    try {
+      long remaining;
+      while (!condition.getAsBoolean() && (remaining = deadline - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(this, remaining);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+    } finally {
+      waiter = null;
+    }
+    return condition.getAsBoolean();
+  }
+
+  /**
+   * Wakes up the consumer thread if it is parked
+   */
+  public final void signal() {
+    Thread t = waiter;
+    if (t != null) {
+      LockSupport.unpark(t);
+    }
+  }
+
+  abstract boolean spin(BooleanSupplier condition);
+
+  public enum Type {
+    /**
+     * Parks the consumer thread straight away. Lowest CPU usage.
+     */
+    PARK {
+      @Override
+      public WaitStrategy create() {
+        return new WaitStrategy() {
+          @Override
+          boolean spin(BooleanSupplier condition) {
+            return false;
+          }
+        };
+      }
+    },
+
+    /**
+     * Busy-spins a little before parking the consumer thread. Lower latency when data arrives in bursts.
+     */
+    SPIN_THEN_PARK {
+      @Override
+      public WaitStrategy create() {
+        return new WaitStrategy() {
+          @Override
+          boolean spin(BooleanSupplier condition) {
+            for (int i = 0; i < SPINS; i++) {
+              if (condition.getAsBoolean()) {
+                return true;
+              }
+              if (i >= SPINS / 2) {
+                Thread.yield();
+              }
+            }
+            return false;
+          }
+        };
+      }
+    };
+
+    private static final int SPINS = 256;
+
+    public abstract WaitStrategy create();
+  }
+
+}
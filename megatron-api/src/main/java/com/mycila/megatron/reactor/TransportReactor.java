@@ -0,0 +1,281 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.reactor;
+
+import com.mycila.megatron.MegatronConfiguration;
+import com.mycila.megatron.queue.WaitStrategy;
+import com.mycila.megatron.stats.TransportStatisticsRegistry;
+import com.tc.classloader.CommonComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static com.mycila.megatron.Utils.closeSilently;
+
+/**
+ * Runs the sending side of all the non-blocking clients on a small fixed pool of threads, called lanes.
+ * <p>
+ * Each lane owns a {@link WaitStrategy} which is shared by the queues of all the clients registered on this lane,
+ * so that a lane thread sleeps until one of its clients has something to send.
+ * <p>
+ * The reactor also shares the UDP sockets: clients sending to the same {@code host:port} use the same {@link DatagramChannel},
+ * and holds the {@link TransportStatisticsRegistry} of the clients.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class TransportReactor implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TransportReactor.class);
+  private static final long MAX_WAIT = TimeUnit.SECONDS.toNanos(1);
+
+  private final Lane[] lanes;
+  private final AtomicInteger next = new AtomicInteger();
+  private final Map<String, SharedDatagramChannel> datagramChannels = new HashMap<>();
+  private final TransportStatisticsRegistry statistics = new TransportStatisticsRegistry();
+
+  private volatile boolean closed;
+
+  public TransportReactor(int lanes, WaitStrategy.Type waitStrategy, ThreadFactory threadFactory) {
+    if (lanes <= 0) {
+      throw new IllegalArgumentException("Bad lane count: " + lanes);
+    }
+    this.lanes = new Lane[lanes];
+    for (int i = 0; i < lanes; i++) {
+      this.lanes[i] = new Lane(waitStrategy.create(), threadFactory);
+    }
+  }
+
+  /**
+   * Creates a reactor with only one lane using the given wait strategy
+   */
+  public TransportReactor(WaitStrategy waitStrategy, ThreadFactory threadFactory) {
+    this.lanes = new Lane[]{new Lane(waitStrategy, threadFactory)};
+  }
+
+  /**
+   * Creates a reactor from the {@code megatron.transport.lanes} (default: 1) and {@code megatron.transport.waitStrategy} (default: {@code PARK}) properties
+   */
+  public static TransportReactor create(MegatronConfiguration configuration, ThreadFactory threadFactory) {
+    int lanes = Integer.parseInt(configuration.getProperty("megatron.transport.lanes", "1"));
+    WaitStrategy.Type waitStrategy = WaitStrategy.Type.valueOf(configuration.getProperty("megatron.transport.waitStrategy", WaitStrategy.Type.PARK.name()).toUpperCase());
+    return new TransportReactor(lanes, waitStrategy, threadFactory);
+  }
+
+  /**
+   * @return the statistics of the clients sending through this reactor
+   */
+  public TransportStatisticsRegistry getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * @return a lane, picked in round robin
+   */
+  public Lane nextLane() {
+    return lanes[Math.floorMod(next.getAndIncrement(), lanes.length)];
+  }
+
+  /**
+   * Opens a UDP socket to send datagrams to the given host and port, or returns the one already opened.
+   * The returned channel must be closed when not used anymore: the socket is closed once it is not used by anyone.
+   */
+  public synchronized SharedDatagramChannel openDatagramChannel(String hostname, int port) {
+    if (closed) {
+      throw new IllegalStateException("Closed");
+    }
+    String key = hostname + ":" + port;
+    SharedDatagramChannel channel = datagramChannels.get(key);
+    if (channel == null) {
+      try {
+        channel = new SharedDatagramChannel(key, DatagramChannel.open());
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to open UDP socket to " + key, e);
+      }
+      datagramChannels.put(key, channel);
+    }
+    channel.refs++;
+    return channel;
+  }
+
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      LOGGER.info("Closing...");
+      for (Lane lane : lanes) {
+        lane.close();
+      }
+      synchronized (this) {
+        for (SharedDatagramChannel channel : datagramChannels.values()) {
+          closeSilently(channel.channel);
+        }
+        datagramChannels.clear();
+      }
+    }
+  }
+
+  private synchronized void release(SharedDatagramChannel channel) {
+    if (--channel.refs == 0) {
+      datagramChannels.remove(channel.key);
+      closeSilently(channel.channel);
+    }
+  }
+
+  /**
+   * The sending side of a non-blocking client
+   */
+  public interface Task {
+
+    /**
+     * @return true if the task has some work to do now
+     */
+    boolean hasWork();
+
+    /**
+     * Sends what is pending. Must not block.
+     *
+     * @return the maximum delay in nanoseconds before this task must be run again, or a negative value to only be run when it has some work
+     */
+    long run();
+  }
+
+  /**
+   * A thread running some tasks
+   */
+  public final class Lane {
+
+    private final WaitStrategy waitStrategy;
+    private final List<Task> tasks = new CopyOnWriteArrayList<>();
+    private final BooleanSupplier hasWork;
+    private final Thread thread;
+
+    private volatile boolean stopped;
+
+    private Lane(WaitStrategy waitStrategy, ThreadFactory threadFactory) {
+      this.waitStrategy = waitStrategy;
+      this.hasWork = () -> {
+        if (stopped) {
+          return true;
+        }
+        for (Task task : tasks) {
+          if (task.hasWork()) {
+            return true;
+          }
+        }
+        return false;
+      };
+      this.thread = threadFactory.newThread(this::loop);
+      this.thread.start();
+    }
+
+    /**
+     * @return the wait strategy that the queues of the tasks registered on this lane must use
+     */
+    public WaitStrategy getWaitStrategy() {
+      return waitStrategy;
+    }
+
+    public TransportReactor getReactor() {
+      return TransportReactor.this;
+    }
+
+    public void register(Task task) {
+      tasks.add(task);
+      waitStrategy.signal();
+    }
+
+    /**
+     * Removes the task from the lane. The task might still be running when this method returns.
+     */
+    public void unregister(Task task) {
+      tasks.remove(task);
+    }
+
+    private void loop() {
+      long wait = MAX_WAIT;
+      while (!stopped && !Thread.currentThread().isInterrupted()) {
+        try {
+          waitStrategy.await(hasWork, wait, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+          stopped = true;
+        }
+        wait = MAX_WAIT;
+        for (Task task : tasks) {
+          try {
+            long delay = task.run();
+            if (delay >= 0) {
+              wait = Math.min(wait, delay);
+            }
+          } catch (RuntimeException e) {
+            LOGGER.error("Error in transport task {}: {}", task, e.getMessage(), e);
+          }
+        }
+      }
+    }
+
+    private void close() {
+      stopped = true;
+      waitStrategy.signal();
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * A UDP socket shared by all the clients sending to the same {@code host:port}
+   */
+  public final class SharedDatagramChannel implements Closeable {
+
+    private final String key;
+    private final DatagramChannel channel;
+
+    private int refs;
+
+    private SharedDatagramChannel(String key, DatagramChannel channel) {
+      this.key = key;
+      this.channel = channel;
+    }
+
+    public DatagramChannel getChannel() {
+      return channel;
+    }
+
+    /**
+     * Releases this socket. It is closed once all its users have released it.
+     */
+    @Override
+    public void close() {
+      release(this);
+    }
+  }
+
+}
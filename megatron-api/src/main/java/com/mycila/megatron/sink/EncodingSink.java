@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.sink;
+
+import com.tc.classloader.CommonComponent;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * A {@link MetricSink} encoding the points into a reused buffer,
+ * which is handed to a consumer each time it is full and when the sink is closed.
+ * <p>
+ * A chunk passed to the consumer only contains whole lines and is only valid during the call:
+ * the consumer must copy what it wants to keep.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class EncodingSink implements MetricSink {
+
+  public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+
+  private final MetricEncoder encoder;
+  private final Consumer<ByteBuffer> chunks;
+  private final Runnable onClose;
+
+  private ByteBuffer buffer;
+  private boolean closed;
+
+  public EncodingSink(MetricEncoder encoder, Consumer<ByteBuffer> chunks, Runnable onClose) {
+    this(encoder, DEFAULT_CHUNK_SIZE, chunks, onClose);
+  }
+
+  public EncodingSink(MetricEncoder encoder, int chunkSize, Consumer<ByteBuffer> chunks, Runnable onClose) {
+    this.encoder = encoder;
+    this.chunks = chunks;
+    this.onClose = onClose;
+    this.buffer = ByteBuffer.allocate(chunkSize);
+  }
+
+  @Override
+  public MetricSink write(CharSequence name, CharSequence tags, Number value, MetricType type, long timestamp) {
+    checkOpen();
+    if (!encoder.encode(buffer, name, tags, value, type, timestamp)) {
+      handOff();
+      while (!encoder.encode(buffer, name, tags, value, type, timestamp)) {
+        grow();
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public MetricSink write(CharSequence name, CharSequence tags, long value, MetricType type, long timestamp) {
+    checkOpen();
+    if (!encoder.encode(buffer, name, tags, value, type, timestamp)) {
+      handOff();
+      while (!encoder.encode(buffer, name, tags, value, type, timestamp)) {
+        grow();
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public MetricSink write(CharSequence name, CharSequence tags, double value, MetricType type, long timestamp) {
+    checkOpen();
+    if (!encoder.encode(buffer, name, tags, value, type, timestamp)) {
+      handOff();
+      while (!encoder.encode(buffer, name, tags, value, type, timestamp)) {
+        grow();
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      handOff();
+      onClose.run();
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Sink closed");
+    }
+  }
+
+  // point bigger than a chunk
+  private void grow() {
+    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+  }
+
+  private void handOff() {
+    if (buffer.position() > 0) {
+      buffer.flip();
+      try {
+        chunks.accept(buffer);
+      } finally {
+        buffer.clear();
+      }
+    }
+  }
+
+}
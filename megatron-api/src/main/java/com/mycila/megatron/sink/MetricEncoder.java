@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.sink;
+
+import com.tc.classloader.CommonComponent;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes metric points as newline-terminated lines of a wire protocol, straight into a {@link ByteBuffer}.
+ * <p>
+ * Encoders must be stateless so that they can be shared between threads.
+ *
+ * @author Mathieu Carbou
+ * @see MetricFormat
+ */
+@CommonComponent
+public interface MetricEncoder {
+
+  /**
+   * Encodes a metric point followed by {@code '\n'} into the target buffer.
+   *
+   * @param tags      the tags already formatted for this protocol, or an empty sequence
+   * @param timestamp the time of the point, in milliseconds since the epoch
+   * @return false if the encoded line does not fit in the remaining space of the target buffer.
+   * In this case the target buffer is left untouched.
+   */
+  boolean encode(ByteBuffer target, CharSequence name, CharSequence tags, Number value, MetricType type, long timestamp);
+
+  /**
+   * Encodes an integral value without boxing it, if the encoder supports it.
+   */
+  default boolean encode(ByteBuffer target, CharSequence name, CharSequence tags, long value, MetricType type, long timestamp) {
+    return encode(target, name, tags, (Number) value, type, timestamp);
+  }
+
+  /**
+   * Encodes a decimal value without boxing it, if the encoder supports it.
+   */
+  default boolean encode(ByteBuffer target, CharSequence name, CharSequence tags, double value, MetricType type, long timestamp) {
+    return encode(target, name, tags, (Number) value, type, timestamp);
+  }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.sink;
+
+import com.mycila.megatron.format.DefaultFormatter;
+import com.mycila.megatron.format.NumberEncoder;
+import com.tc.classloader.CommonComponent;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link MetricEncoder}s of the supported wire protocols.
+ * <p>
+ * Names and tags are written in UTF-8 char by char and values with the {@link NumberEncoder},
+ * so that encoding a point does not create any intermediate {@link String}.
+ * Values are written like {@link DefaultFormatter#formatValue(Number)} does.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public enum MetricFormat implements MetricEncoder {
+
+  /**
+   * {@code name:value|type}
+   */
+  STATSD {
+    @Override
+    void head(ByteBuffer target, CharSequence name, CharSequence tags) {
+      putChars(target, name);
+      target.put((byte) ':');
+    }
+
+    @Override
+    void tail(ByteBuffer target, CharSequence tags, MetricType type, long timestamp) {
+      target.put((byte) '|');
+      putChars(target, type.getSymbol());
+    }
+  },
+
+  /**
+   * {@code name:value|type|#tags}
+   */
+  DOGSTATSD {
+    @Override
+    void head(ByteBuffer target, CharSequence name, CharSequence tags) {
+      putChars(target, name);
+      target.put((byte) ':');
+    }
+
+    @Override
+    void tail(ByteBuffer target, CharSequence tags, MetricType type, long timestamp) {
+      target.put((byte) '|');
+      putChars(target, type.getSymbol());
+      if (tags.length() > 0) {
+        target.put((byte) '|').put((byte) '#');
+        putChars(target, tags);
+      }
+    }
+  },
+
+  /**
+   * {@code name#tags:value|type}
+   */
+  LIBRATO {
+    @Override
+    void head(ByteBuffer target, CharSequence name, CharSequence tags) {
+      putChars(target, name);
+      if (tags.length() > 0) {
+        target.put((byte) '#');
+        putChars(target, tags);
+      }
+      target.put((byte) ':');
+    }
+
+    @Override
+    void tail(ByteBuffer target, CharSequence tags, MetricType type, long timestamp) {
+      target.put((byte) '|');
+      putChars(target, type.getSymbol());
+    }
+  },
+
+  /**
+   * {@code name;tags value timestamp}, the timestamp being in seconds
+   */
+  GRAPHITE {
+    @Override
+    void head(ByteBuffer target, CharSequence name, CharSequence tags) {
+      putChars(target, name);
+      if (tags.length() > 0) {
+        target.put((byte) ';');
+        putChars(target, tags);
+      }
+      target.put((byte) ' ');
+    }
+
+    @Override
+    void tail(ByteBuffer target, CharSequence tags, MetricType type, long timestamp) {
+      target.put((byte) ' ');
+      NumberEncoder.put(target, timestamp / 1000);
+    }
+  },
+
+  /**
+   * {@code name{tags} value}, the Prometheus text exposition format
+   */
+  PROMETHEUS {
+    @Override
+    void head(ByteBuffer target, CharSequence name, CharSequence tags) {
+      putChars(target, name);
+      if (tags.length() > 0) {
+        target.put((byte) '{');
+        putChars(target, tags);
+        target.put((byte) '}');
+      }
+      target.put((byte) ' ');
+    }
+
+    @Override
+    void tail(ByteBuffer target, CharSequence tags, MetricType type, long timestamp) {
+      // the scrape time is used
+    }
+  };
+
+  @Override
+  public final boolean encode(ByteBuffer target, CharSequence name, CharSequence tags, Number value, MetricType type, long timestamp) {
+    int start = target.position();
+    try {
+      head(target, name, tags);
+      putValue(target, value);
+      tail(target, tags, type, timestamp);
+      target.put((byte) '\n');
+      return true;
+    } catch (BufferOverflowException e) {
+      target.position(start);
+      return false;
+    }
+  }
+
+  @Override
+  public final boolean encode(ByteBuffer target, CharSequence name, CharSequence tags, long value, MetricType type, long timestamp) {
+    int start = target.position();
+    try {
+      head(target, name, tags);
+      NumberEncoder.put(target, value);
+      tail(target, tags, type, timestamp);
+      target.put((byte) '\n');
+      return true;
+    } catch (BufferOverflowException e) {
+      target.position(start);
+      return false;
+    }
+  }
+
+  @Override
+  public final boolean encode(ByteBuffer target, CharSequence name, CharSequence tags, double value, MetricType type, long timestamp) {
+    int start = target.position();
+    try {
+      head(target, name, tags);
+      NumberEncoder.put(target, value);
+      tail(target, tags, type, timestamp);
+      target.put((byte) '\n');
+      return true;
+    } catch (BufferOverflowException e) {
+      target.position(start);
+      return false;
+    }
+  }
+
+  /**
+   * Writes what comes before the value
+   *
+   * @throws BufferOverflowException if the target buffer is too small
+   */
+  abstract void head(ByteBuffer target, CharSequence name, CharSequence tags);
+
+  /**
+   * Writes what comes after the value, without the terminating {@code '\n'}
+   *
+   * @throws BufferOverflowException if the target buffer is too small
+   */
+  abstract void tail(ByteBuffer target, CharSequence tags, MetricType type, long timestamp);
+
+  static void putValue(ByteBuffer target, Number value) {
+    if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      NumberEncoder.put(target, value.longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      NumberEncoder.put(target, value.doubleValue());
+    } else {
+      putChars(target, value.toString());
+    }
+  }
+
+  static void putChars(ByteBuffer target, CharSequence chars) {
+    for (int i = 0, length = chars.length(); i < length; i++) {
+      char c = chars.charAt(i);
+      if (c < 0x80) {
+        target.put((byte) c);
+      } else if (c < 0x800) {
+        target.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, chars.charAt(++i));
+        target.put((byte) (0xF0 | cp >> 18))
+            .put((byte) (0x80 | cp >> 12 & 0x3F))
+            .put((byte) (0x80 | cp >> 6 & 0x3F))
+            .put((byte) (0x80 | cp & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        // malformed input, replaced like the JDK encoder does
+        target.put((byte) '?');
+      } else {
+        target.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.sink;
+
+import com.mycila.megatron.format.StatisticColumns;
+import com.tc.classloader.CommonComponent;
+
+import java.io.Closeable;
+
+/**
+ * Receives the metric points of a plugin and encodes them for a transport, without building a {@link String} per line.
+ * <p>
+ * A sink is opened with {@link com.mycila.megatron.Client#openSink(MetricEncoder)} for a batch of points.
+ * The points are only guaranteed to be handed to the transport once the sink is closed.
+ * A sink is not thread-safe.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public interface MetricSink extends Closeable {
+
+  /**
+   * @param tags      the tags already formatted for the protocol of the encoder, or an empty sequence
+   * @param timestamp the time of the point, in milliseconds since the epoch
+   */
+  MetricSink write(CharSequence name, CharSequence tags, Number value, MetricType type, long timestamp);
+
+  default MetricSink write(CharSequence name, CharSequence tags, long value, MetricType type, long timestamp) {
+    return write(name, tags, (Number) value, type, timestamp);
+  }
+
+  default MetricSink write(CharSequence name, CharSequence tags, double value, MetricType type, long timestamp) {
+    return write(name, tags, (Number) value, type, timestamp);
+  }
+
+  /**
+   * Writes the value of a row of reduced statistics without boxing it
+   */
+  default MetricSink write(CharSequence name, CharSequence tags, StatisticColumns statistics, int row, MetricType type, long timestamp) {
+    return statistics.isIntegral(row) ?
+        write(name, tags, statistics.getLong(row), type, timestamp) :
+        write(name, tags, statistics.getDouble(row), type, timestamp);
+  }
+
+  @Override
+  void close();
+
+}
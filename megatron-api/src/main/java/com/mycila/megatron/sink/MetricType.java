@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.sink;
+
+import com.tc.classloader.CommonComponent;
+
+/**
+ * Type of a metric point, as understood by StatsD-like protocols
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public enum MetricType {
+
+  COUNTER("c"),
+  GAUGE("g"),
+  TIMER("ms"),
+  HISTOGRAM("h"),
+  SET("s");
+
+  private final String symbol;
+
+  MetricType(String symbol) {
+    this.symbol = symbol;
+  }
+
+  /**
+   * @return the StatsD symbol of this type, i.e. {@code c} for a counter
+   */
+  public String getSymbol() {
+    return symbol;
+  }
+
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.spool;
+
+import com.tc.classloader.CommonComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Store-and-forward spool of byte records, persisted in a directory as a sequence of memory-mapped segment files.
+ * <p>
+ * Records are appended to the last segment and read in order from the first one.
+ * A record is only visible once fully written, and is marked as consumed in place when removed,
+ * so that after a restart the spool resumes where it stopped.
+ * Fully consumed segments are unmapped and deleted.
+ * <p>
+ * Delivery is at-least-once when a record is read with {@link #peek()} and only removed with {@link #remove()} once it has been handled:
+ * a record being handled when the server stops is read again after the restart.
+ * <p>
+ * The spool never takes more than {@code maxSize} bytes on disk: when full, the oldest segment is deleted to make room.
+ * Records older than the retention are discarded when read.
+ * <p>
+ * Thread-safe.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class DiskSpool implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiskSpool.class);
+
+  public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+  private static final String SUFFIX = ".spool";
+  // record length (int) + timestamp (long)
+  private static final int HEADER = 12;
+
+  private final File dir;
+  private final long maxSize;
+  private final long retention;
+  private final int segmentSize;
+  private final Deque<Segment> segments = new ArrayDeque<>();
+
+  private Segment peeked;
+  private int peekedPos;
+  private long sequence;
+  private long size;
+  private int records;
+  private long dropped;
+  private long expired;
+  private boolean closed;
+
+  public DiskSpool(File dir, long maxSize, long retention, TimeUnit unit) {
+    this(dir, maxSize, retention, unit, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * @param maxSize   maximum size in bytes of all the segments
+   * @param retention maximum age of the records. 0 or less for no limit.
+   */
+  public DiskSpool(File dir, long maxSize, long retention, TimeUnit unit, int segmentSize) {
+    if (maxSize <= HEADER) {
+      throw new IllegalArgumentException("Bad spool size: " + maxSize);
+    }
+    this.dir = dir;
+    this.maxSize = maxSize;
+    this.retention = retention <= 0 ? Long.MAX_VALUE : unit.toMillis(retention);
+    this.segmentSize = (int) Math.min(segmentSize, maxSize);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new UncheckedIOException(new IOException("Unable to create spool directory: " + dir));
+    }
+    File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+    if (files != null) {
+      Arrays.sort(files);
+      for (File file : files) {
+        try {
+          Segment segment = new Segment(file, sequenceOf(file), (int) file.length());
+          if (segment.pending == 0) {
+            segment.delete();
+          } else {
+            segments.addLast(segment);
+            size += segment.capacity;
+            records += segment.pending;
+            sequence = segment.sequence + 1;
+          }
+        } catch (IOException | RuntimeException e) {
+          LOGGER.warn("Ignoring corrupted spool segment: {}: {}", file, e.getMessage(), e);
+        }
+      }
+    }
+    if (records > 0) {
+      LOGGER.info("Recovered {} records from spool: {}", records, dir);
+    }
+  }
+
+  /**
+   * @return false if the record was dropped because it is bigger than the spool or the spool is closed
+   */
+  public synchronized boolean append(byte[] record) {
+    if (closed) {
+      dropped++;
+      return false;
+    }
+    if (record.length == 0) {
+      return true;
+    }
+    int length = HEADER + record.length;
+    if (length > maxSize) {
+      dropped++;
+      return false;
+    }
+    Segment tail = segments.peekLast();
+    if (tail == null || !tail.fits(length)) {
+      int capacity = Math.max(segmentSize, length);
+      while (size + capacity > maxSize && !segments.isEmpty()) {
+        Segment oldest = segments.removeFirst();
+        LOGGER.warn("Spool full: dropping {} records from {}", oldest.pending, oldest.file);
+        dropped += oldest.pending;
+        discard(oldest);
+      }
+      try {
+        tail = new Segment(new File(dir, String.format("%020d%s", sequence, SUFFIX)), sequence, capacity);
+      } catch (IOException e) {
+        LOGGER.warn("Unable to create spool segment in {}: {}", dir, e.getMessage(), e);
+        dropped++;
+        return false;
+      }
+      sequence++;
+      segments.addLast(tail);
+      size += capacity;
+    }
+    tail.append(record, System.currentTimeMillis());
+    records++;
+    return true;
+  }
+
+  /**
+   * Removes the oldest record from the spool.
+   * <p>
+   * The record is consumed before being handled: use {@link #peek()} and {@link #remove()} to not lose it if it cannot be handled.
+   *
+   * @return the oldest record, or null if the spool is empty
+   */
+  public synchronized byte[] poll() {
+    byte[] record = peek();
+    if (record != null) {
+      remove();
+    }
+    return record;
+  }
+
+  /**
+   * Reads the oldest record without removing it from the spool: the same record is returned until it is removed
+   *
+   * @return the oldest record, or null if the spool is empty
+   */
+  public synchronized byte[] peek() {
+    long oldest = retention == Long.MAX_VALUE ? Long.MIN_VALUE : System.currentTimeMillis() - retention;
+    Segment head;
+    while ((head = segments.peekFirst()) != null) {
+      byte[] record = head.peek(oldest);
+      if (record != null) {
+        peeked = head;
+        peekedPos = head.readPos;
+        return record;
+      }
+      if (head == segments.peekLast()) {
+        // keep the tail segment to append more records
+        return null;
+      }
+      segments.removeFirst();
+      discard(head);
+    }
+    return null;
+  }
+
+  /**
+   * Removes the record returned by the last call to {@link #peek()}.
+   * Does nothing if that record has been dropped in the meantime because the spool was full.
+   */
+  public synchronized void remove() {
+    Segment head = segments.peekFirst();
+    if (head != null && head == peeked && head.readPos == peekedPos) {
+      head.consume();
+      records--;
+    }
+    peeked = null;
+  }
+
+  public synchronized boolean isEmpty() {
+    return records == 0;
+  }
+
+  /**
+   * @return the number of records in the spool
+   */
+  public synchronized int size() {
+    return records;
+  }
+
+  /**
+   * @return the number of records dropped because the spool was full
+   */
+  public synchronized long getDropCount() {
+    return dropped;
+  }
+
+  /**
+   * @return the number of records discarded because they were older than the retention
+   */
+  public synchronized long getExpiredCount() {
+    return expired;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      for (Segment segment : segments) {
+        segment.close();
+      }
+      segments.clear();
+      peeked = null;
+    }
+  }
+
+  private void discard(Segment segment) {
+    size -= segment.capacity;
+    records -= segment.pending;
+    segment.delete();
+  }
+
+  private static long sequenceOf(File file) {
+    String name = file.getName();
+    return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+  }
+
+  private final class Segment {
+
+    final File file;
+    final long sequence;
+    final int capacity;
+    final MappedByteBuffer buffer;
+
+    int readPos;
+    int writePos;
+    int pending;
+
+    Segment(File file, long sequence, int capacity) throws IOException {
+      this.file = file;
+      this.sequence = sequence;
+      this.capacity = capacity;
+      // the mapping stays valid once the file is closed
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.setLength(capacity);
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      }
+      // recovery: finds the first pending record and the end of the written records
+      readPos = -1;
+      int pos = 0;
+      while (pos + HEADER <= capacity) {
+        int length = buffer.getInt(pos);
+        if (length == 0 || length == Integer.MIN_VALUE || pos + HEADER + Math.abs(length) > capacity) {
+          break;
+        }
+        if (length > 0) {
+          pending++;
+          if (readPos < 0) {
+            readPos = pos;
+          }
+        }
+        pos += HEADER + Math.abs(length);
+      }
+      writePos = pos;
+      if (readPos < 0) {
+        readPos = pos;
+      }
+    }
+
+    boolean fits(int length) {
+      return writePos + length <= capacity;
+    }
+
+    void append(byte[] record, long timestamp) {
+      buffer.putLong(writePos + 4, timestamp);
+      ByteBuffer data = buffer.duplicate();
+      data.position(writePos + HEADER);
+      data.put(record);
+      // the length is written last so that a partially written record is never read back
+      buffer.putInt(writePos, record.length);
+      writePos += HEADER + record.length;
+      pending++;
+    }
+
+    /**
+     * @return the next pending record, or null if there is none. Expired records are consumed.
+     */
+    byte[] peek(long oldest) {
+      while (readPos < writePos) {
+        int length = buffer.getInt(readPos);
+        if (length < 0) {
+          readPos += HEADER - length;
+        } else if (buffer.getLong(readPos + 4) < oldest) {
+          consume();
+          expired++;
+          records--;
+        } else {
+          byte[] record = new byte[length];
+          ByteBuffer data = buffer.duplicate();
+          data.position(readPos + HEADER);
+          data.get(record);
+          return record;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Marks the record at the read position as consumed
+     */
+    void consume() {
+      int length = buffer.getInt(readPos);
+      buffer.putInt(readPos, -length);
+      readPos += HEADER + length;
+      pending--;
+    }
+
+    void close() {
+      buffer.force();
+      MappedBuffers.unmap(buffer);
+    }
+
+    void delete() {
+      // releases the disk space now instead of when the GC collects the buffer
+      MappedBuffers.unmap(buffer);
+      if (!file.delete()) {
+        LOGGER.warn("Unable to delete spool segment: {}", file);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.spool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases file mappings without waiting for the GC to collect the buffers, so that the space of a deleted file is given back right away.
+ * <p>
+ * The JDK has no public API for this: the cleaner of the buffer is looked up by reflection
+ * ({@code Unsafe.invokeCleaner} on Java 9+, {@code DirectBuffer.cleaner()} on Java 8).
+ * When none is available, the mapping is released by the GC like before.
+ *
+ * @author Mathieu Carbou
+ */
+final class MappedBuffers {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MappedBuffers.class);
+
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+  private static final Method CLEANER;
+  private static final Method CLEAN;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    Method cleaner = null;
+    Method clean = null;
+    try {
+      // Java 9+
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      invokeCleaner = null;
+      try {
+        // Java 8
+        cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+        clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      } catch (ReflectiveOperationException | RuntimeException e2) {
+        LOGGER.debug("Unable to find how to unmap buffers: mappings will be released by the GC", e2);
+        cleaner = null;
+        clean = null;
+      }
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+    CLEANER = cleaner;
+    CLEAN = clean;
+  }
+
+  private MappedBuffers() {
+  }
+
+  /**
+   * @return true if mappings can be released explicitly
+   */
+  static boolean isSupported() {
+    return INVOKE_CLEANER != null || CLEAN != null;
+  }
+
+  /**
+   * Releases the mapping of a buffer. The buffer, and all the buffers duplicated from it, must not be used anymore.
+   */
+  static void unmap(MappedByteBuffer buffer) {
+    try {
+      if (INVOKE_CLEANER != null) {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+      } else if (CLEAN != null) {
+        Object cleaner = CLEANER.invoke(buffer);
+        if (cleaner != null) {
+          CLEAN.invoke(cleaner);
+        }
+      }
+    } catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
+      LOGGER.debug("Unable to unmap buffer: its mapping will be released by the GC", e);
+    }
+  }
+
+}
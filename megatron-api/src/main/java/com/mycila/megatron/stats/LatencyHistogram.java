@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.stats;
+
+import com.tc.classloader.CommonComponent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power of 2 buckets in microseconds.
+ * <p>
+ * Bucket 0 counts the latencies below 1us, and bucket {@code i} the latencies in {@code [2^(i-1), 2^i)} us.
+ * Percentiles are reported as the upper bound of their bucket, so they are over-estimated by at most 2 times.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class LatencyHistogram {
+
+  static final int BUCKETS = 40;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  public void record(long duration, TimeUnit unit) {
+    long nanos = Math.max(0, unit.toNanos(duration));
+    long micros = nanos / 1_000;
+    int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    buckets.incrementAndGet(bucket);
+    totalNanos.add(nanos);
+    maxNanos.accumulate(nanos);
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += buckets.get(i);
+    }
+    return count;
+  }
+
+  long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  void addTo(long[] counts) {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += buckets.get(i);
+    }
+  }
+
+  /**
+   * @return the upper bound in microseconds of the bucket containing the given percentile (0 to 1), or 0 if empty
+   */
+  static long percentile(long[] counts, double percentile) {
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return 1L << i;
+      }
+    }
+    return 1L << (counts.length - 1);
+  }
+
+}
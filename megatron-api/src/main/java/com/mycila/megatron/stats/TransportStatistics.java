@@ -0,0 +1,236 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.stats;
+
+import com.mycila.megatron.queue.RingBuffer;
+import com.tc.classloader.CommonComponent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Throughput and loss counters of a {@link com.mycila.megatron.Client}.
+ * <p>
+ * A packet is a datagram, a write to a TCP socket or an HTTP request.
+ * A send error is a packet which could not be sent (its lines are counted as dropped unless they are retried).
+ * <p>
+ * Counters are updated without locking. A {@link #sum(Collection) sum} of several statistics is a read-only view.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class TransportStatistics {
+
+  private final LongAdder linesEnqueued = new LongAdder();
+  private final LongAdder linesSent = new LongAdder();
+  private final LongAdder linesDropped = new LongAdder();
+  private final LongAdder bytesSent = new LongAdder();
+  private final LongAdder packetsSent = new LongAdder();
+  private final LongAdder sendErrors = new LongAdder();
+  private final LatencyHistogram sendLatency = new LatencyHistogram();
+  private final List<TransportStatistics> parts;
+
+  private volatile IntSupplier queueDepth = () -> 0;
+  private volatile IntSupplier queueCapacity = () -> 0;
+  private volatile LongSupplier queueDrops = () -> 0;
+
+  public TransportStatistics() {
+    this(Collections.emptyList());
+  }
+
+  private TransportStatistics(List<TransportStatistics> parts) {
+    this.parts = parts;
+  }
+
+  /**
+   * @return a read-only view summing the given statistics
+   */
+  public static TransportStatistics sum(Collection<TransportStatistics> statistics) {
+    return new TransportStatistics(Collections.unmodifiableList(new ArrayList<>(statistics)));
+  }
+
+  /**
+   * Reports the size of the queue as the queue depth.
+   *
+   * @param countDrops true if the elements of the queue are lines, to count the lines dropped by the queue
+   */
+  public void bindQueue(RingBuffer<?> queue, boolean countDrops) {
+    queueDepth = queue::size;
+    queueCapacity = queue::capacity;
+    if (countDrops) {
+      queueDrops = queue::getDropCount;
+    }
+  }
+
+  public void enqueued(long lines) {
+    linesEnqueued.add(lines);
+  }
+
+  public void dropped(long lines) {
+    linesDropped.add(lines);
+  }
+
+  /**
+   * Records a packet successfully sent
+   */
+  public void sent(long lines, long bytes, long latency, TimeUnit unit) {
+    linesSent.add(lines);
+    bytesSent.add(bytes);
+    packetsSent.increment();
+    sendLatency.record(latency, unit);
+  }
+
+  /**
+   * Records a packet which could not be sent
+   */
+  public void error(long latency, TimeUnit unit) {
+    sendErrors.increment();
+    sendLatency.record(latency, unit);
+  }
+
+  public long getLinesEnqueued() {
+    long n = linesEnqueued.sum();
+    for (TransportStatistics part : parts) {
+      n += part.getLinesEnqueued();
+    }
+    return n;
+  }
+
+  public long getLinesSent() {
+    long n = linesSent.sum();
+    for (TransportStatistics part : parts) {
+      n += part.getLinesSent();
+    }
+    return n;
+  }
+
+  public long getLinesDropped() {
+    long n = linesDropped.sum() + queueDrops.getAsLong();
+    for (TransportStatistics part : parts) {
+      n += part.getLinesDropped();
+    }
+    return n;
+  }
+
+  public long getBytesSent() {
+    long n = bytesSent.sum();
+    for (TransportStatistics part : parts) {
+      n += part.getBytesSent();
+    }
+    return n;
+  }
+
+  public long getPacketsSent() {
+    long n = packetsSent.sum();
+    for (TransportStatistics part : parts) {
+      n += part.getPacketsSent();
+    }
+    return n;
+  }
+
+  public long getSendErrors() {
+    long n = sendErrors.sum();
+    for (TransportStatistics part : parts) {
+      n += part.getSendErrors();
+    }
+    return n;
+  }
+
+  public int getQueueDepth() {
+    int n = queueDepth.getAsInt();
+    for (TransportStatistics part : parts) {
+      n += part.getQueueDepth();
+    }
+    return n;
+  }
+
+  public int getQueueCapacity() {
+    int n = queueCapacity.getAsInt();
+    for (TransportStatistics part : parts) {
+      n += part.getQueueCapacity();
+    }
+    return n;
+  }
+
+  /**
+   * @return the fill ratio of the queue, between 0 and 1, or 0 if there is no queue
+   */
+  public double getQueueFill() {
+    int capacity = getQueueCapacity();
+    return capacity <= 0 ? 0 : Math.min(1, (double) getQueueDepth() / capacity);
+  }
+
+  /**
+   * @return the statistics by name: counters, then gauges (queue depth and send latencies in milliseconds)
+   */
+  public Map<String, Number> toMap() {
+    long[] buckets = new long[LatencyHistogram.BUCKETS];
+    long[] totals = new long[3];
+    collectLatencies(buckets, totals);
+    Map<String, Number> map = new LinkedHashMap<>();
+    map.put("LinesEnqueued", getLinesEnqueued());
+    map.put("LinesSent", getLinesSent());
+    map.put("LinesDropped", getLinesDropped());
+    map.put("BytesSent", getBytesSent());
+    map.put("PacketsSent", getPacketsSent());
+    map.put("SendErrors", getSendErrors());
+    map.put("QueueDepth", getQueueDepth());
+    map.put("SendLatencyMean", totals[0] == 0 ? 0.0 : totals[1] / 1_000_000.0 / totals[0]);
+    map.put("SendLatencyP50", LatencyHistogram.percentile(buckets, 0.50) / 1_000.0);
+    map.put("SendLatencyP99", LatencyHistogram.percentile(buckets, 0.99) / 1_000.0);
+    map.put("SendLatencyMax", totals[2] / 1_000_000.0);
+    return map;
+  }
+
+  /**
+   * @return the number of {@code '\n'} in the first {@code length} bytes
+   */
+  public static int countLines(byte[] bytes, int length) {
+    int lines = 0;
+    for (int i = 0; i < length; i++) {
+      if (bytes[i] == '\n') {
+        lines++;
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * @return true if the statistic is a counter, false if it is a gauge
+   */
+  public static boolean isCounter(String name) {
+    return !name.startsWith("Queue") && !name.startsWith("SendLatency");
+  }
+
+  private void collectLatencies(long[] buckets, long[] totals) {
+    sendLatency.addTo(buckets);
+    totals[0] += sendLatency.getCount();
+    totals[1] += sendLatency.getTotalNanos();
+    totals[2] = Math.max(totals[2], sendLatency.getMaxNanos());
+    for (TransportStatistics part : parts) {
+      part.collectLatencies(buckets, totals);
+    }
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.stats;
+
+import com.tc.classloader.CommonComponent;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.management.model.stats.ContextualStatistics;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.registry.Statistic;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link TransportStatistics} of the clients of all the plugins, by plugin name
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class TransportStatisticsRegistry {
+
+  public static final String CAPABILITY = "TransportStatistics";
+
+  private final Map<String, TransportStatistics> statistics = new ConcurrentHashMap<>();
+
+  public void register(String name, TransportStatistics transportStatistics) {
+    statistics.put(name, transportStatistics);
+  }
+
+  public void unregister(String name) {
+    statistics.remove(name);
+  }
+
+  /**
+   * @return the registered statistics, sorted by name
+   */
+  public Map<String, TransportStatistics> getAll() {
+    return Collections.unmodifiableMap(new TreeMap<>(statistics));
+  }
+
+  /**
+   * @param context the context of the statistics, to which are added {@code type=Transport} and {@code alias=<name>}
+   * @return the current values of the registered statistics, as Megatron statistics
+   */
+  public List<ContextualStatistics> collect(Context context) {
+    long now = System.currentTimeMillis();
+    List<ContextualStatistics> list = new ArrayList<>(statistics.size());
+    for (Map.Entry<String, TransportStatistics> entry : getAll().entrySet()) {
+      Map<String, Statistic<? extends Serializable>> values = new TreeMap<>();
+      for (Map.Entry<String, Number> value : entry.getValue().toMap().entrySet()) {
+        StatisticType type = TransportStatistics.isCounter(value.getKey()) ? StatisticType.COUNTER : StatisticType.GAUGE;
+        values.put(value.getKey(), new Statistic<>(type, Collections.singletonList(new Sample<>(now, value.getValue()))));
+      }
+      list.add(new ContextualStatistics(CAPABILITY, context.with("type", "Transport").with("alias", entry.getKey()), values));
+    }
+    return list;
+  }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.tcp;
+
+import com.mycila.megatron.NonBlockingClient;
+import com.mycila.megatron.queue.FlushPolicy;
+import com.mycila.megatron.queue.RingBuffer;
+import com.mycila.megatron.reactor.TransportReactor;
+import com.tc.classloader.CommonComponent;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Queues the lines and sends them through a {@link TcpClient} from a thread dedicated to this client.
+ * <p>
+ * The resolution of the host name and the writes to a full socket block the sending thread (up to the timeouts of the {@link TcpClient}):
+ * with a dedicated thread, a slow TCP endpoint only delays its own queue and never the clients sharing the lanes of the {@link TransportReactor}.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class NonBlockingTcpClient extends NonBlockingClient {
+
+  private final TransportReactor ownedReactor;
+
+  public NonBlockingTcpClient(TcpClient transport, RingBuffer<String> queue, FlushPolicy flushPolicy, ThreadFactory threadFactory) {
+    this(transport, queue, flushPolicy, new TransportReactor(queue.getWaitStrategy(), threadFactory));
+  }
+
+  private NonBlockingTcpClient(TcpClient transport, RingBuffer<String> queue, FlushPolicy flushPolicy, TransportReactor ownedReactor) {
+    super(transport, queue, flushPolicy, ownedReactor.nextLane());
+    this.ownedReactor = ownedReactor;
+  }
+
+  @Override
+  public void close() {
+    super.close();
+    ownedReactor.close();
+  }
+
+}
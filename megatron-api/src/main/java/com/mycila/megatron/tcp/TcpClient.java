@@ -0,0 +1,299 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.tcp;
+
+import com.mycila.megatron.BufferedClient;
+import com.mycila.megatron.io.EncodedLines;
+import com.mycila.megatron.io.LineEncoder;
+import com.mycila.megatron.stats.TransportStatistics;
+import com.tc.classloader.CommonComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.mycila.megatron.Utils.closeSilently;
+
+/**
+ * TCP client keeping a persistent connection, for line protocols like Graphite plaintext or StatsD over TCP.
+ * <p>
+ * Lines are encoded into a reused direct buffer which is written to the socket when full or flushed.
+ * Nagle's algorithm is kept enabled and the socket send buffer is large so that small writes are coalesced.
+ * <p>
+ * The connection is opened by {@link #isReady()}, which resolves the host name (blocking) and then connects without blocking.
+ * A connection not established within the connect timeout is abandoned.
+ * The socket stays non-blocking: when its send buffer is full, a write waits for it to have room ({@code OP_WRITE})
+ * at most the write timeout, after which the connection is considered lost and the unsent lines are dropped.
+ * <p>
+ * When the connection fails or is lost, it is re-opened after an exponential backoff (the host name is resolved again).
+ * While not connected, the client is not ready: a {@link com.mycila.megatron.NonBlockingClient} keeps the lines in its queue,
+ * and the lines written directly are dropped.
+ * <p>
+ * Since the resolution and the writes can block up to the timeouts, a TCP client should not share its thread with other clients:
+ * see {@link NonBlockingTcpClient}.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class TcpClient implements BufferedClient {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TcpClient.class);
+
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  public static final long DEFAULT_CONNECT_TIMEOUT = 5_000;
+  public static final long DEFAULT_WRITE_TIMEOUT = 5_000;
+
+  private static final int SEND_BUFFER_SIZE = 256 * 1024;
+  private static final long MIN_BACKOFF = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(30);
+
+  private final String hostname;
+  private final int port;
+  private final long connectTimeout;
+  private final long writeTimeout;
+  private final ByteBuffer buffer;
+  private final LineEncoder encoder = new LineEncoder();
+  private final TransportStatistics statistics = new TransportStatistics();
+
+  private SocketChannel channel;
+  private Selector selector;
+  private boolean connecting;
+  private long connectDeadline;
+  private long nextAttempt = System.nanoTime();
+  private long backoff = MIN_BACKOFF;
+  private int bufferedLines;
+  private volatile boolean closed;
+
+  public TcpClient(String hostname, int port) {
+    this(hostname, port, DEFAULT_BUFFER_SIZE);
+  }
+
+  public TcpClient(String hostname, int port, int bufferSize) {
+    this(hostname, port, bufferSize, DEFAULT_CONNECT_TIMEOUT, DEFAULT_WRITE_TIMEOUT, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param connectTimeout maximum time to establish the connection
+   * @param writeTimeout   maximum time to wait for the socket to accept a write when its send buffer is full
+   */
+  public TcpClient(String hostname, int port, int bufferSize, long connectTimeout, long writeTimeout, TimeUnit unit) {
+    this.hostname = hostname;
+    this.port = port;
+    this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    this.connectTimeout = Math.max(1, unit.toNanos(connectTimeout));
+    this.writeTimeout = Math.max(1, unit.toNanos(writeTimeout));
+  }
+
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      LOGGER.info("Closing...");
+      if (channel != null && !connecting) {
+        flush();
+      }
+      closed = true;
+      closeChannel();
+    }
+  }
+
+  @Override
+  public synchronized void send(List<String> messages) {
+    BufferedClient.super.send(messages);
+  }
+
+  @Override
+  public synchronized void send(Stream<String> messages) {
+    BufferedClient.super.send(messages);
+  }
+
+  /**
+   * Connects or finishes connecting if needed. Only the resolution of the host name blocks.
+   *
+   * @return true if connected
+   */
+  @Override
+  public synchronized boolean isReady() {
+    if (closed) {
+      return false;
+    }
+    if (channel != null && !connecting) {
+      return true;
+    }
+    try {
+      if (channel == null) {
+        if (System.nanoTime() - nextAttempt < 0) {
+          return false;
+        }
+        LOGGER.debug("[{}:{}] TCP connecting...", hostname, port);
+        InetSocketAddress address = new InetSocketAddress(hostname, port);
+        if (address.isUnresolved()) {
+          throw new UnknownHostException(hostname);
+        }
+        channel = SocketChannel.open();
+        connecting = true;
+        connectDeadline = System.nanoTime() + connectTimeout;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, false);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER_SIZE);
+        channel.connect(address);
+      }
+      if (channel.finishConnect()) {
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_WRITE);
+        connecting = false;
+        backoff = MIN_BACKOFF;
+        LOGGER.info("[{}:{}] TCP connected", hostname, port);
+        return true;
+      }
+      if (System.nanoTime() - connectDeadline > 0) {
+        throw new SocketTimeoutException("Connect timed out after " + TimeUnit.NANOSECONDS.toMillis(connectTimeout) + "ms");
+      }
+      return false;
+    } catch (IOException e) {
+      disconnect(e);
+      return false;
+    }
+  }
+
+  @Override
+  public void write(CharSequence line) {
+    if (!isReady()) {
+      statistics.dropped(1);
+      return;
+    }
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("[{}:{}] TCP > \n{}", hostname, port, line);
+    }
+    if (!encoder.encode(line, buffer)) {
+      flush();
+      if (!encoder.encode(line, buffer)) {
+        // line bigger than the buffer: written alone
+        write(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)), 1);
+        return;
+      }
+    }
+    bufferedLines++;
+  }
+
+  @Override
+  public void write(ByteBuffer lines) {
+    if (!isReady()) {
+      statistics.dropped(EncodedLines.count(lines));
+      lines.position(lines.limit());
+      return;
+    }
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("[{}:{}] TCP > \n{}", hostname, port, StandardCharsets.UTF_8.decode(lines.duplicate()));
+    }
+    while (lines.hasRemaining()) {
+      int copied = EncodedLines.copy(lines, buffer, Integer.MAX_VALUE);
+      if (copied > 0) {
+        bufferedLines += copied;
+      } else if (buffer.position() > 0) {
+        flush();
+      } else {
+        // line bigger than the buffer: written alone
+        write(EncodedLines.next(lines), 1);
+      }
+    }
+  }
+
+  @Override
+  public void flush() {
+    if (buffer.position() > 0) {
+      buffer.flip();
+      try {
+        write(buffer, bufferedLines);
+      } finally {
+        buffer.clear();
+        bufferedLines = 0;
+      }
+    }
+  }
+
+  /**
+   * @return the number of lines dropped, i.e. because the client was not connected
+   */
+  public long getDropCount() {
+    return statistics.getLinesDropped();
+  }
+
+  @Override
+  public TransportStatistics getStatistics() {
+    return statistics;
+  }
+
+  private void write(ByteBuffer data, int lines) {
+    SocketChannel channel = this.channel;
+    if (channel == null || connecting) {
+      statistics.dropped(lines);
+      return;
+    }
+    int bytes = data.remaining();
+    long start = System.nanoTime();
+    try {
+      while (data.hasRemaining()) {
+        if (channel.write(data) == 0) {
+          // send buffer full: waits for the socket to be writable again
+          long remaining = start + writeTimeout - System.nanoTime();
+          if (remaining <= 0) {
+            throw new SocketTimeoutException("Write timed out after " + TimeUnit.NANOSECONDS.toMillis(writeTimeout) + "ms");
+          }
+          selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+          selector.selectedKeys().clear();
+        }
+      }
+      statistics.sent(lines, bytes, System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    } catch (IOException e) {
+      statistics.error(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      statistics.dropped(lines);
+      disconnect(e);
+    }
+  }
+
+  private synchronized void disconnect(Exception e) {
+    LOGGER.warn("[{}:{}] TCP ERROR: {} (reconnecting in {}ms)", hostname, port, e.getMessage(), TimeUnit.NANOSECONDS.toMillis(backoff));
+    closeChannel();
+    connecting = false;
+    nextAttempt = System.nanoTime() + backoff;
+    backoff = Math.min(backoff << 1, MAX_BACKOFF);
+  }
+
+  private void closeChannel() {
+    if (selector != null) {
+      closeSilently(selector);
+      selector = null;
+    }
+    if (channel != null) {
+      closeSilently(channel);
+      channel = null;
+    }
+  }
+
+}
@@ -16,6 +16,8 @@
 package com.mycila.megatron.test;
 
 import com.mycila.megatron.MegatronApi;
+import com.mycila.megatron.queue.WaitStrategy;
+import com.mycila.megatron.reactor.TransportReactor;
 import org.terracotta.management.model.cluster.Cluster;
 
 import java.io.Closeable;
@@ -34,6 +36,7 @@ public class MegatronTestApi implements MegatronApi, Closeable {
 
   private final ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
   private final ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+  private final TransportReactor transportReactor = new TransportReactor(1, WaitStrategy.Type.PARK, getThreadFactory());
 
   @Override
   public ThreadFactory getThreadFactory() {
@@ -45,6 +48,11 @@ public class MegatronTestApi implements MegatronApi, Closeable {
     return executorService;
   }
 
+  @Override
+  public TransportReactor getTransportReactor() {
+    return transportReactor;
+  }
+
   @Override
   public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
     return scheduledExecutorService.scheduleWithFixedDelay(command, delay, delay, unit);
@@ -73,6 +81,7 @@ public class MegatronTestApi implements MegatronApi, Closeable {
   public void close() {
     executorService.shutdown();
     scheduledExecutorService.shutdown();
+    transportReactor.close();
   }
 
 }
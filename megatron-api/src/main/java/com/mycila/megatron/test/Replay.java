@@ -16,6 +16,7 @@
 package com.mycila.megatron.test;
 
 import com.mycila.megatron.MegatronEventListener;
+import com.mycila.megatron.format.StatisticsSnapshot;
 import org.terracotta.management.model.notification.ContextualNotification;
 import org.terracotta.management.model.stats.ContextualStatistics;
 
@@ -85,7 +86,7 @@ public class Replay {
               // finish thread
               return;
             case STATISTICS:
-              listener.onStatistics((List<ContextualStatistics>) event.getObject());
+              listener.onStatistics(StatisticsSnapshot.of((List<ContextualStatistics>) event.getObject()));
               break;
             case NOTIFICATIONS:
               listener.onNotifications((List<ContextualNotification>) event.getObject());
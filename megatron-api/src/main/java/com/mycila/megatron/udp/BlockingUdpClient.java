@@ -16,6 +16,7 @@
 package com.mycila.megatron.udp;
 
 import com.mycila.megatron.Client;
+import com.mycila.megatron.stats.TransportStatistics;
 import com.tc.classloader.CommonComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,7 +28,7 @@ import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import static com.mycila.megatron.Utils.closeSilently;
@@ -40,11 +41,18 @@ public final class BlockingUdpClient implements Client {
   private final DatagramSocket channel;
   private final String hostname;
   private final int port;
+  private final DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+  private final DatagramPacker packer;
+  private final TransportStatistics statistics = new TransportStatistics();
 
   private volatile InetSocketAddress cachedTarget;
   private volatile boolean closed;
 
   public BlockingUdpClient(String hostname, int port) {
+    this(hostname, port, 0);
+  }
+
+  public BlockingUdpClient(String hostname, int port, int maxPacketSize) {
     this.hostname = hostname;
     this.port = port;
     try {
@@ -52,6 +60,19 @@ public final class BlockingUdpClient implements Client {
     } catch (final IOException e) {
       throw new UncheckedIOException("Failed to start UDP client", e);
     }
+    this.packer = new DatagramPacker(maxPacketSize, (buffer, length) -> {
+      packet.setData(buffer, 0, length);
+      int lines = TransportStatistics.countLines(buffer, length);
+      long start = System.nanoTime();
+      try {
+        channel.send(packet);
+      } catch (IOException e) {
+        statistics.error(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        statistics.dropped(lines);
+        throw e;
+      }
+      statistics.sent(lines, length, System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    });
   }
 
   @Override
@@ -73,21 +94,33 @@ public final class BlockingUdpClient implements Client {
         LOGGER.warn("[{}:{}] UDP ERROR: {}", hostname, port, e.getMessage(), e);
         return;
       }
-      messages.forEach(message -> {
-        if (LOGGER.isTraceEnabled()) {
-          LOGGER.trace("[{}:{}] UDP > \n{}", hostname, port, message);
-        }
-          byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
-          DatagramPacket packet = new DatagramPacket(bytes, bytes.length, target);
+      synchronized (packer) {
+        packet.setSocketAddress(target);
+        messages.forEach(message -> {
+          if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("[{}:{}] UDP > \n{}", hostname, port, message);
+          }
+          try {
+            packer.add(message);
+          } catch (IOException e) {
+            packer.reset();
+            LOGGER.warn("[{}:{}] UDP ERROR: {}", hostname, port, e.getMessage(), e);
+          }
+        });
         try {
-          channel.send(packet);
+          packer.flush();
         } catch (IOException e) {
           LOGGER.warn("[{}:{}] UDP ERROR: {}", hostname, port, e.getMessage(), e);
         }
-      });
+      }
     }
   }
 
+  @Override
+  public TransportStatistics getStatistics() {
+    return statistics;
+  }
+
   private InetSocketAddress getTarget() throws UnknownHostException {
     if (cachedTarget == null) {
       cachedTarget = new InetSocketAddress(InetAddress.getByName(hostname), port);
@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.udp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Packs newline-terminated metric lines into datagrams of at most {@code maxPacketSize} bytes.
+ * <p>
+ * A line is never split: a line bigger than {@code maxPacketSize} is sent alone in its own datagram.
+ * When {@code maxPacketSize} is lower or equal to 0, packing is disabled and each line is sent in its own datagram.
+ *
+ * @author Mathieu Carbou
+ */
+final class DatagramPacker {
+
+  private final byte[] buffer;
+  private final Sender sender;
+
+  private int position;
+
+  DatagramPacker(int maxPacketSize, Sender sender) {
+    this.buffer = maxPacketSize <= 0 ? null : new byte[maxPacketSize];
+    this.sender = sender;
+  }
+
+  void add(String message) throws IOException {
+    byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+    if (buffer == null) {
+      sender.send(bytes, bytes.length);
+      return;
+    }
+    if (position + bytes.length > buffer.length) {
+      flush();
+    }
+    if (bytes.length > buffer.length) {
+      sender.send(bytes, bytes.length);
+    } else {
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+  }
+
+  void flush() throws IOException {
+    if (position > 0) {
+      try {
+        sender.send(buffer, position);
+      } finally {
+        position = 0;
+      }
+    }
+  }
+
+  void reset() {
+    position = 0;
+  }
+
+  interface Sender {
+    void send(byte[] buffer, int length) throws IOException;
+  }
+
+}
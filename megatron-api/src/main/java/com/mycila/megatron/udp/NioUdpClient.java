@@ -0,0 +1,244 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.udp;
+
+import com.mycila.megatron.BufferedClient;
+import com.mycila.megatron.io.EncodedLines;
+import com.mycila.megatron.io.LineEncoder;
+import com.mycila.megatron.reactor.TransportReactor;
+import com.mycila.megatron.stats.TransportStatistics;
+import com.tc.classloader.CommonComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.mycila.megatron.Utils.closeSilently;
+
+/**
+ * UDP client based on a {@link DatagramChannel}.
+ * <p>
+ * Lines are encoded straight into a reused direct {@link ByteBuffer} so that,
+ * once warmed up, the send path does not allocate anything.
+ * When {@code maxPacketSize} is greater than 0, lines are packed into datagrams of at most this size.
+ * <p>
+ * The host name is resolved again every {@code dnsRefreshInterval} so that a moved endpoint is followed.
+ * If it cannot be resolved anymore, the last known address is kept.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class NioUdpClient implements BufferedClient {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(NioUdpClient.class);
+  private static final int MAX_DATAGRAM_SIZE = 65507;
+
+  public static final long DEFAULT_DNS_REFRESH_INTERVAL = 60_000;
+
+  private final DatagramChannel channel;
+  private final Closeable channelOwner;
+  private final String hostname;
+  private final int port;
+  private final boolean packing;
+  private final ByteBuffer buffer;
+  private final LineEncoder encoder = new LineEncoder();
+  private final long dnsRefreshIntervalNanos;
+  private final TransportStatistics statistics = new TransportStatistics();
+
+  private int bufferedLines;
+
+  private volatile InetSocketAddress cachedTarget;
+  private volatile long resolvedAt;
+  private volatile boolean closed;
+
+  public NioUdpClient(String hostname, int port) {
+    this(hostname, port, 0);
+  }
+
+  public NioUdpClient(String hostname, int port, int maxPacketSize) {
+    this(open(), hostname, port, maxPacketSize);
+  }
+
+  /**
+   * Creates a client sending its datagrams through a socket shared with other clients.
+   * The shared socket is released when this client is closed.
+   */
+  public NioUdpClient(TransportReactor.SharedDatagramChannel channel, String hostname, int port, int maxPacketSize) {
+    this(channel, hostname, port, maxPacketSize, DEFAULT_DNS_REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param dnsRefreshInterval interval between two resolutions of the host name, or 0 to resolve it only once
+   */
+  public NioUdpClient(TransportReactor.SharedDatagramChannel channel, String hostname, int port, int maxPacketSize, long dnsRefreshInterval, TimeUnit unit) {
+    this(channel.getChannel(), channel, hostname, port, maxPacketSize, unit.toNanos(dnsRefreshInterval));
+  }
+
+  private NioUdpClient(DatagramChannel channel, String hostname, int port, int maxPacketSize) {
+    this(channel, channel, hostname, port, maxPacketSize, TimeUnit.MILLISECONDS.toNanos(DEFAULT_DNS_REFRESH_INTERVAL));
+  }
+
+  private NioUdpClient(DatagramChannel channel, Closeable channelOwner, String hostname, int port, int maxPacketSize, long dnsRefreshIntervalNanos) {
+    this.channel = channel;
+    this.dnsRefreshIntervalNanos = dnsRefreshIntervalNanos;
+    this.channelOwner = channelOwner;
+    this.hostname = hostname;
+    this.port = port;
+    this.packing = maxPacketSize > 0;
+    this.buffer = ByteBuffer.allocateDirect(packing ? Math.min(maxPacketSize, MAX_DATAGRAM_SIZE) : MAX_DATAGRAM_SIZE);
+  }
+
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      LOGGER.info("Closing...");
+      closeSilently(channelOwner);
+    }
+  }
+
+  @Override
+  public synchronized void send(List<String> messages) {
+    BufferedClient.super.send(messages);
+  }
+
+  @Override
+  public synchronized void send(Stream<String> messages) {
+    BufferedClient.super.send(messages);
+  }
+
+  @Override
+  public void write(CharSequence line) {
+    if (closed) {
+      statistics.dropped(1);
+      return;
+    }
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("[{}:{}] UDP > \n{}", hostname, port, line);
+    }
+    if (!encoder.encode(line, buffer)) {
+      flush();
+      if (!encoder.encode(line, buffer)) {
+        // line bigger than a datagram: sent alone
+        send(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)), 1);
+        return;
+      }
+    }
+    bufferedLines++;
+    if (!packing) {
+      flush();
+    }
+  }
+
+  @Override
+  public void write(ByteBuffer lines) {
+    if (closed) {
+      statistics.dropped(EncodedLines.count(lines));
+      lines.position(lines.limit());
+      return;
+    }
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("[{}:{}] UDP > \n{}", hostname, port, StandardCharsets.UTF_8.decode(lines.duplicate()));
+    }
+    while (lines.hasRemaining()) {
+      int copied = EncodedLines.copy(lines, buffer, packing ? Integer.MAX_VALUE : 1);
+      if (copied > 0) {
+        bufferedLines += copied;
+        if (!packing) {
+          flush();
+        }
+      } else if (buffer.position() > 0) {
+        flush();
+      } else {
+        // line bigger than a datagram: sent alone
+        send(EncodedLines.next(lines), 1);
+      }
+    }
+  }
+
+  @Override
+  public void flush() {
+    if (buffer.position() > 0) {
+      buffer.flip();
+      try {
+        send(buffer, bufferedLines);
+      } finally {
+        buffer.clear();
+        bufferedLines = 0;
+      }
+    }
+  }
+
+  @Override
+  public TransportStatistics getStatistics() {
+    return statistics;
+  }
+
+  private void send(ByteBuffer datagram, int lines) {
+    int bytes = datagram.remaining();
+    long start = System.nanoTime();
+    try {
+      channel.send(datagram, getTarget());
+      statistics.sent(lines, bytes, System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    } catch (IOException e) {
+      statistics.error(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      statistics.dropped(lines);
+      LOGGER.warn("[{}:{}] UDP ERROR: {}", hostname, port, e.getMessage(), e);
+    }
+  }
+
+  private static DatagramChannel open() {
+    try {
+      return DatagramChannel.open();
+    } catch (final IOException e) {
+      throw new UncheckedIOException("Failed to start UDP client", e);
+    }
+  }
+
+  private InetSocketAddress getTarget() throws UnknownHostException {
+    InetSocketAddress target = cachedTarget;
+    long now = System.nanoTime();
+    if (target == null || dnsRefreshIntervalNanos > 0 && now - resolvedAt >= dnsRefreshIntervalNanos) {
+      try {
+        InetSocketAddress resolved = new InetSocketAddress(InetAddress.getByName(hostname), port);
+        if (target != null && !resolved.equals(target)) {
+          LOGGER.info("[{}:{}] UDP target changed: {} => {}", hostname, port, target.getAddress(), resolved.getAddress());
+        }
+        target = resolved;
+      } catch (UnknownHostException e) {
+        if (target == null) {
+          throw e;
+        }
+        LOGGER.warn("[{}:{}] UDP ERROR: {} (keeping {})", hostname, port, e.getMessage(), target.getAddress());
+      }
+      cachedTarget = target;
+      resolvedAt = now;
+    }
+    return target;
+  }
+
+}
@@ -15,122 +15,81 @@
  */
 package com.mycila.megatron.udp;
 
-import com.mycila.megatron.Client;
+import com.mycila.megatron.NonBlockingClient;
+import com.mycila.megatron.queue.DropPolicy;
+import com.mycila.megatron.queue.FlushPolicy;
+import com.mycila.megatron.queue.RingBuffer;
+import com.mycila.megatron.queue.WaitStrategy;
+import com.mycila.megatron.reactor.TransportReactor;
 import com.tc.classloader.CommonComponent;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
-import static com.mycila.megatron.Utils.closeSilently;
 
+/**
+ * Queues the lines and sends them from a lane of a {@link TransportReactor}, through a UDP socket shared with
+ * the other clients sending to the same {@code host:port}.
+ * <p>
+ * The constructors taking a {@link ThreadFactory} create a reactor dedicated to this client.
+ */
 @CommonComponent
-public final class NonBlockingUdpClient implements Client {
-
-  private static final Logger LOGGER = LoggerFactory.getLogger(NonBlockingUdpClient.class);
+public final class NonBlockingUdpClient extends NonBlockingClient {
 
-  private final BlockingQueue<String> batches;
-  private final DatagramSocket channel;
-  private final String hostname;
-  private final int port;
-  private final Thread sender;
+  public static final int DEFAULT_QUEUE_SIZE = 1 << 16;
 
-  private volatile InetSocketAddress cachedTarget;
-  private volatile boolean closed;
+  private final TransportReactor ownedReactor;
 
   public NonBlockingUdpClient(String hostname, int port, int queueSize, ThreadFactory threadFactory) {
-    this.batches = new LinkedBlockingQueue<>(queueSize);
-    this.hostname = hostname;
-    this.port = port;
-    try {
-      this.channel = new DatagramSocket();
-    } catch (final IOException e) {
-      throw new UncheckedIOException("Failed to start UDP client", e);
-    }
-    this.sender = threadFactory.newThread(() -> {
-      while (!closed && !Thread.currentThread().isInterrupted()) {
-        try {
-          Optional<String> message = Optional.ofNullable(batches.poll(1, TimeUnit.SECONDS));
-          drainAndSend(message);
-        } catch (InterruptedException e) {
-          drainAndSend(Optional.empty());
-          closed = true;
-        }
-      }
-    });
-    this.sender.start();
+    this(hostname, port, 0, queueSize, threadFactory);
   }
 
-  @Override
-  public void close() {
-    if (!closed) {
-      closed = true;
-      LOGGER.info("Closing...");
-      try {
-        sender.join();
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-      }
-      drainAndSend(Optional.empty());
-      closeSilently(channel);
-    }
+  public NonBlockingUdpClient(String hostname, int port, int maxPacketSize, int queueSize, ThreadFactory threadFactory) {
+    this(hostname, port, maxPacketSize, new RingBuffer<>(
+        queueSize <= 0 || queueSize == Integer.MAX_VALUE ? DEFAULT_QUEUE_SIZE : queueSize,
+        DropPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, WaitStrategy.Type.PARK.create()), threadFactory);
   }
 
-  @Override
-  public void send(Stream<String> messages) {
-    if (!closed) {
-      messages.forEach(batches::offer);
-    }
+  public NonBlockingUdpClient(String hostname, int port, int maxPacketSize, RingBuffer<String> queue, ThreadFactory threadFactory) {
+    this(new TransportReactor(queue.getWaitStrategy(), threadFactory), hostname, port, maxPacketSize, queue);
   }
 
-  private void drainAndSend(Optional<String> polled) {
-    List<String> drained;
-    int size = batches.size();
-    if (size > 0) {
-      drained = new ArrayList<>(1 + size);
-      polled.ifPresent(drained::add);
-      batches.drainTo(drained);
-    } else {
-      drained = polled.map(Collections::singletonList).orElse(Collections.emptyList());
-    }
-    if (LOGGER.isTraceEnabled()) {
-      String message = drained.stream().collect(Collectors.joining("\n"));
-      LOGGER.trace("[{}:{}] UDP > \n{}", hostname, port, message);
-    }
-    try {
-      InetSocketAddress target = getTarget();
-      for (String message : drained) {
-        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
-        DatagramPacket packet = new DatagramPacket(bytes, bytes.length, target);
-        channel.send(packet);
-      }
-    } catch (IOException e) {
-      LOGGER.warn("[{}:{}] UDP ERROR: {}", hostname, port, e.getMessage(), e);
-    }
+  /**
+   * @param queue queue using the wait strategy of the lane
+   */
+  public NonBlockingUdpClient(String hostname, int port, int maxPacketSize, RingBuffer<String> queue, TransportReactor.Lane lane) {
+    this(hostname, port, maxPacketSize, NioUdpClient.DEFAULT_DNS_REFRESH_INTERVAL, queue, lane);
+  }
+
+  /**
+   * @param dnsRefreshInterval interval in milliseconds between two resolutions of the host name, or 0 to resolve it only once
+   * @param queue              queue using the wait strategy of the lane
+   */
+  public NonBlockingUdpClient(String hostname, int port, int maxPacketSize, long dnsRefreshInterval, RingBuffer<String> queue, TransportReactor.Lane lane) {
+    this(hostname, port, maxPacketSize, dnsRefreshInterval, FlushPolicy.IMMEDIATE, queue, lane);
   }
 
-  private InetSocketAddress getTarget() throws UnknownHostException {
-    if (cachedTarget == null) {
-      cachedTarget = new InetSocketAddress(InetAddress.getByName(hostname), port);
+  /**
+   * @param flushPolicy when to send the last datagram, not yet full, of the dequeued lines
+   */
+  public NonBlockingUdpClient(String hostname, int port, int maxPacketSize, long dnsRefreshInterval, FlushPolicy flushPolicy, RingBuffer<String> queue, TransportReactor.Lane lane) {
+    this(null, lane, hostname, port, maxPacketSize, dnsRefreshInterval, flushPolicy, queue);
+  }
+
+  private NonBlockingUdpClient(TransportReactor ownedReactor, String hostname, int port, int maxPacketSize, RingBuffer<String> queue) {
+    this(ownedReactor, ownedReactor.nextLane(), hostname, port, maxPacketSize, NioUdpClient.DEFAULT_DNS_REFRESH_INTERVAL, FlushPolicy.IMMEDIATE, queue);
+  }
+
+  private NonBlockingUdpClient(TransportReactor ownedReactor, TransportReactor.Lane lane, String hostname, int port, int maxPacketSize, long dnsRefreshInterval, FlushPolicy flushPolicy, RingBuffer<String> queue) {
+    super(new NioUdpClient(lane.getReactor().openDatagramChannel(hostname, port), hostname, port, maxPacketSize, dnsRefreshInterval, TimeUnit.MILLISECONDS), queue, flushPolicy, lane);
+    this.ownedReactor = ownedReactor;
+  }
+
+  @Override
+  public void close() {
+    super.close();
+    if (ownedReactor != null) {
+      ownedReactor.close();
     }
-    return cachedTarget;
   }
 
 }
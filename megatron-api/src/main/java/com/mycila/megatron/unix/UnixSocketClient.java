@@ -0,0 +1,322 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.unix;
+
+import com.mycila.megatron.BufferedClient;
+import com.mycila.megatron.io.EncodedLines;
+import com.mycila.megatron.io.LineEncoder;
+import com.mycila.megatron.stats.TransportStatistics;
+import com.tc.classloader.CommonComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.mycila.megatron.Utils.closeSilently;
+
+/**
+ * Client sending the lines to a local agent through a Unix domain stream socket (i.e. the DogStatsD {@code dogstatsd_stream_socket}).
+ * <p>
+ * Lines are packed like UDP datagrams into frames of at most {@code maxPacketSize} bytes,
+ * and each frame is written prefixed by its length as a 4-bytes little-endian integer.
+ * <p>
+ * Unix domain sockets are opened through the Java 16+ API or, on older JVMs, through
+ * <a href="https://kohlschutter.github.io/junixsocket/">junixsocket</a> when it is on the classpath.
+ * Both are looked up by reflection: see {@link #isSupported()}.
+ * The socket is connected by {@link #isReady()} and re-connected with an exponential backoff when the agent is not available.
+ *
+ * @author Mathieu Carbou
+ */
+@CommonComponent
+public final class UnixSocketClient implements BufferedClient {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(UnixSocketClient.class);
+
+  public static final int DEFAULT_MAX_PACKET_SIZE = 8192;
+
+  private static final int HEADER_SIZE = 4;
+  private static final long MIN_BACKOFF = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(30);
+
+  /**
+   * Message of the {@link UnsupportedOperationException} thrown when neither Java 16 nor junixsocket are available
+   */
+  public static final String UNSUPPORTED = "Unix domain sockets require Java 16 or later, or junixsocket (com.kohlschutter.junixsocket:junixsocket-core) on the classpath";
+
+  private static final Provider PROVIDER = findProvider();
+
+  private final String path;
+  private final ByteBuffer buffer;
+  private final LineEncoder encoder = new LineEncoder();
+  private final TransportStatistics statistics = new TransportStatistics();
+
+  private SocketChannel channel;
+  private long nextAttempt = System.nanoTime();
+  private long backoff = MIN_BACKOFF;
+  private int bufferedLines;
+  private volatile boolean closed;
+
+  public UnixSocketClient(String path) {
+    this(path, DEFAULT_MAX_PACKET_SIZE);
+  }
+
+  /**
+   * @param maxPacketSize maximum size of a frame. 0 or less to use the default size.
+   */
+  public UnixSocketClient(String path, int maxPacketSize) {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException(UNSUPPORTED);
+    }
+    this.path = path;
+    this.buffer = ByteBuffer.allocateDirect(maxPacketSize <= 0 ? DEFAULT_MAX_PACKET_SIZE : maxPacketSize).order(ByteOrder.LITTLE_ENDIAN);
+    this.buffer.position(HEADER_SIZE);
+  }
+
+  /**
+   * @return true if the JVM supports Unix domain sockets (Java 16 or later), or if junixsocket is on the classpath and supports this platform
+   */
+  public static boolean isSupported() {
+    return PROVIDER != null;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      LOGGER.info("Closing...");
+      if (channel != null) {
+        flush();
+      }
+      closed = true;
+      if (channel != null) {
+        closeSilently(channel);
+        channel = null;
+      }
+    }
+  }
+
+  @Override
+  public synchronized void send(List<String> messages) {
+    BufferedClient.super.send(messages);
+  }
+
+  @Override
+  public synchronized void send(Stream<String> messages) {
+    BufferedClient.super.send(messages);
+  }
+
+  /**
+   * Connects if needed
+   *
+   * @return true if connected
+   */
+  @Override
+  public synchronized boolean isReady() {
+    if (closed) {
+      return false;
+    }
+    if (channel != null) {
+      return true;
+    }
+    if (System.nanoTime() - nextAttempt < 0) {
+      return false;
+    }
+    try {
+      channel = PROVIDER.open();
+      // connecting to a local socket does not block
+      channel.connect(PROVIDER.address(path));
+      backoff = MIN_BACKOFF;
+      LOGGER.info("[{}] UNIX connected ({})", path, PROVIDER);
+      return true;
+    } catch (IOException e) {
+      disconnect(e);
+    } catch (InvocationTargetException e) {
+      disconnect(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+    return false;
+  }
+
+  @Override
+  public void write(CharSequence line) {
+    if (!isReady()) {
+      statistics.dropped(1);
+      return;
+    }
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("[{}] UNIX > \n{}", path, line);
+    }
+    if (!encoder.encode(line, buffer)) {
+      flush();
+      if (!encoder.encode(line, buffer)) {
+        // line bigger than a frame: sent alone
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putInt(bytes.length).put(bytes).flip();
+        write(frame, 1);
+        return;
+      }
+    }
+    bufferedLines++;
+  }
+
+  @Override
+  public void write(ByteBuffer lines) {
+    if (!isReady()) {
+      statistics.dropped(EncodedLines.count(lines));
+      lines.position(lines.limit());
+      return;
+    }
+    if (LOGGER.isTraceEnabled()) {
+      LOGGER.trace("[{}] UNIX > \n{}", path, StandardCharsets.UTF_8.decode(lines.duplicate()));
+    }
+    while (lines.hasRemaining()) {
+      int copied = EncodedLines.copy(lines, buffer, Integer.MAX_VALUE);
+      if (copied > 0) {
+        bufferedLines += copied;
+      } else if (buffer.position() > HEADER_SIZE) {
+        flush();
+      } else {
+        // line bigger than a frame: sent alone
+        ByteBuffer line = EncodedLines.next(lines);
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + line.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putInt(line.remaining()).put(line).flip();
+        write(frame, 1);
+      }
+    }
+  }
+
+  @Override
+  public void flush() {
+    if (buffer.position() > HEADER_SIZE) {
+      buffer.putInt(0, buffer.position() - HEADER_SIZE);
+      buffer.flip();
+      try {
+        write(buffer, bufferedLines);
+      } finally {
+        buffer.clear();
+        buffer.position(HEADER_SIZE);
+        bufferedLines = 0;
+      }
+    }
+  }
+
+  @Override
+  public TransportStatistics getStatistics() {
+    return statistics;
+  }
+
+  private void write(ByteBuffer frame, int lines) {
+    SocketChannel channel = this.channel;
+    if (channel == null) {
+      statistics.dropped(lines);
+      return;
+    }
+    int bytes = frame.remaining();
+    long start = System.nanoTime();
+    try {
+      while (frame.hasRemaining()) {
+        channel.write(frame);
+      }
+      statistics.sent(lines, bytes, System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    } catch (IOException e) {
+      statistics.error(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      statistics.dropped(lines);
+      disconnect(e);
+    }
+  }
+
+  private synchronized void disconnect(Exception e) {
+    LOGGER.warn("[{}] UNIX ERROR: {} (reconnecting in {}ms)", path, e.getMessage(), TimeUnit.NANOSECONDS.toMillis(backoff));
+    if (channel != null) {
+      closeSilently(channel);
+      channel = null;
+    }
+    nextAttempt = System.nanoTime() + backoff;
+    backoff = Math.min(backoff << 1, MAX_BACKOFF);
+  }
+
+  private static Provider findProvider() {
+    try {
+      // Java 16+
+      ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+      Method open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+      Method addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+      return new Provider("JDK", open, new Object[]{unix}, addressOf, String.class);
+    } catch (IllegalArgumentException | ReflectiveOperationException e) {
+      // before Java 16
+    }
+    try {
+      ClassLoader classLoader = UnixSocketClient.class.getClassLoader();
+      Class<?> socket = Class.forName("org.newsclub.net.unix.AFUNIXSocket", true, classLoader);
+      if (!(Boolean) socket.getMethod("isSupported").invoke(null)) {
+        LOGGER.warn("junixsocket does not support this platform");
+        return null;
+      }
+      Method open = Class.forName("org.newsclub.net.unix.AFUNIXSocketChannel", true, classLoader).getMethod("open");
+      Method addressOf = Class.forName("org.newsclub.net.unix.AFUNIXSocketAddress", true, classLoader).getMethod("of", File.class);
+      return new Provider("junixsocket", open, new Object[0], addressOf, File.class);
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // not on the classpath
+      return null;
+    }
+  }
+
+  private static final class Provider {
+
+    private final String name;
+    private final Method open;
+    private final Object[] openArgs;
+    private final Method addressOf;
+    private final Class<?> addressType;
+
+    Provider(String name, Method open, Object[] openArgs, Method addressOf, Class<?> addressType) {
+      this.name = name;
+      this.open = open;
+      this.openArgs = openArgs;
+      this.addressOf = addressOf;
+      this.addressType = addressType;
+    }
+
+    SocketChannel open() throws InvocationTargetException, IllegalAccessException {
+      return (SocketChannel) open.invoke(null, openArgs);
+    }
+
+    SocketAddress address(String path) throws InvocationTargetException, IllegalAccessException {
+      return (SocketAddress) addressOf.invoke(null, addressType == File.class ? new File(path) : path);
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+
+  }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import com.mycila.megatron.format.StatisticsSnapshot;
+import org.junit.Test;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.management.model.notification.ContextualNotification;
+import org.terracotta.management.model.stats.ContextualStatistics;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.registry.Statistic;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class AbstractMegatronPluginTest {
+
+  @Test
+  public void test_rollups_and_quantiles_do_not_export_the_same_name_twice() {
+    TestPlugin plugin = new TestPlugin();
+    plugin.init(new DefaultMegatronConfiguration()
+        .setProperty("megatron.test.enable", "true")
+        .setProperty("megatron.test.rollup", "clientId")
+        .setProperty("megatron.test.quantiles", "true"));
+    // one batch per client
+    ContextualStatistics client1 = statistics(Context.create("clientId", "1@127.0.0.1:Ehcache:app:1").with("cacheName", "orders"), 0.5, 0.75);
+    ContextualStatistics client2 = statistics(Context.create("clientId", "2@127.0.0.2:Ehcache:app:2").with("cacheName", "orders"), 1.0, 0.25);
+    plugin.selectEntries(StatisticsSnapshot.of(Collections.singletonList(client1)));
+    plugin.selectEntries(StatisticsSnapshot.of(Collections.singletonList(client2)));
+
+    // the next collection rolls up the previous one
+    List<StatisticsSnapshot.Entry> entries = plugin.selectEntries(StatisticsSnapshot.of(Collections.singletonList(client1)));
+
+    Set<String> exported = new HashSet<>();
+    for (StatisticsSnapshot.Entry entry : entries) {
+      for (String name : entry.getStatistics().keySet()) {
+        assertThat(exported.add(entry.getContext() + "/" + name)).as("%s exported twice for %s", name, entry.getContext()).isTrue();
+      }
+    }
+    Map<String, Object> rollup = new HashMap<>();
+    entries.stream()
+        .filter(StatisticsSnapshot.Entry::isRollup)
+        .forEach(entry -> rollup.putAll(entry.getStatistics()));
+    // the max of the rollup and the max of all the samples of the group
+    assertThat(rollup).containsKeys("Cache:HitRatio:max", "Cache:HitRatio:p100", "Cache:HitRatio:p50", "Cache:HitRatio:p99");
+    assertThat(rollup.get("Cache:HitRatio:p100")).isEqualTo(1.0);
+  }
+
+  @Test
+  public void test_delta_forgets_the_contexts_gone() {
+    TestPlugin plugin = new TestPlugin();
+    plugin.init(new DefaultMegatronConfiguration()
+        .setProperty("megatron.test.enable", "true")
+        .setProperty("megatron.test.delta", "true")
+        .setProperty("megatron.test.deltaHeartbeat", "3"));
+    assertThat(plugin.changes.toString()).isEqualTo("ChangeDetector{epsilon=0.0, heartbeat=3}");
+
+    Context client = Context.create("clientId", "1@127.0.0.1:Ehcache:app:1");
+    StatisticsSnapshot.Entry entry = plugin.selectEntries(StatisticsSnapshot.of(Collections.singletonList(statistics(client.with("cacheName", "orders"), 0.5)))).get(0);
+    plugin.changes.nextBatch();
+    assertThat(plugin.changes.hasChanged(entry.getContext(), entry.getColumns(plugin.filter), 0)).isTrue();
+    assertThat(plugin.changes.getContextCount()).isEqualTo(1);
+
+    plugin.onNotifications(Collections.singletonList(new ContextualNotification(client, "CLIENT_DISCONNECTED")));
+    assertThat(plugin.changes.getContextCount()).isEqualTo(0);
+  }
+
+  private static ContextualStatistics statistics(Context context, double... ratios) {
+    List<Sample<Double>> samples = new ArrayList<>();
+    for (int i = 0; i < ratios.length; i++) {
+      samples.add(new Sample<>(i + 1, ratios[i]));
+    }
+    Map<String, Statistic<? extends Serializable>> stats = new HashMap<>();
+    stats.put("Cache:HitRatio", new Statistic<>(StatisticType.RATIO, samples));
+    return new ContextualStatistics("StatisticsCapability", context, stats);
+  }
+
+  @Namespace("megatron.test")
+  static class TestPlugin extends AbstractMegatronPlugin {
+  }
+
+}
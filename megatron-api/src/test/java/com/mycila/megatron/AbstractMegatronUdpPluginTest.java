@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class AbstractMegatronUdpPluginTest {
+
+  @Test
+  public void test_parse_endpoint() {
+    assertEndpoint("localhost", "localhost", 8125);
+    assertEndpoint("localhost:8126", "localhost", 8126);
+    assertEndpoint("10.0.0.1:8126", "10.0.0.1", 8126);
+    assertEndpoint("::1", "::1", 8125);
+    assertEndpoint("fe80::1", "fe80::1", 8125);
+    assertEndpoint("[fe80::1]:8126", "fe80::1", 8126);
+    assertEndpoint("[::1]", "::1", 8125);
+  }
+
+  @Test
+  public void test_parse_bad_endpoint() {
+    assertThatThrownBy(() -> AbstractMegatronUdpPlugin.parseEndpoint("localhost:abc", 8125)).isInstanceOf(NumberFormatException.class);
+    assertThatThrownBy(() -> AbstractMegatronUdpPlugin.parseEndpoint("localhost:70000", 8125)).isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> AbstractMegatronUdpPlugin.parseEndpoint("[fe80::1:8126", 8125)).isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> AbstractMegatronUdpPlugin.parseEndpoint("[fe80::1]8126", 8125)).isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> AbstractMegatronUdpPlugin.parseEndpoint(":8126", 8125)).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static void assertEndpoint(String endpoint, String host, int port) {
+    InetSocketAddress address = AbstractMegatronUdpPlugin.parseEndpoint(endpoint, 8125);
+    assertThat(address.getHostString()).isEqualTo(host);
+    assertThat(address.getPort()).isEqualTo(port);
+  }
+
+}
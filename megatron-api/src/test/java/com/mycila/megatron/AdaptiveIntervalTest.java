@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class AdaptiveIntervalTest {
+
+  @Test
+  public void test_interval_backs_off_under_pressure_and_recovers() {
+    AdaptiveInterval interval = new AdaptiveInterval(0.75, 0.25, 4);
+    long now = 0;
+
+    assertThat(interval.update(0.9, 1000, now)).isTrue();
+    assertThat(interval.apply(1000)).isEqualTo(2000);
+
+    // not evaluated again before the current interval has elapsed
+    assertThat(interval.update(0.9, 1000, now + 1999)).isFalse();
+    now += 2000;
+    assertThat(interval.update(0.9, 1000, now)).isTrue();
+    assertThat(interval.apply(1000)).isEqualTo(4000);
+
+    // capped
+    now += 4000;
+    assertThat(interval.update(1, 1000, now)).isFalse();
+    assertThat(interval.getFactor()).isEqualTo(4);
+
+    // between the water marks
+    now += 4000;
+    assertThat(interval.update(0.5, 1000, now)).isFalse();
+    assertThat(interval.getFactor()).isEqualTo(4);
+
+    // drained: back to the floor
+    now += 4000;
+    assertThat(interval.update(0.1, 1000, now)).isTrue();
+    now += 2000;
+    assertThat(interval.update(0, 1000, now)).isTrue();
+    assertThat(interval.apply(1000)).isEqualTo(1000);
+    now += 1000;
+    assertThat(interval.update(0, 1000, now)).isFalse();
+  }
+
+  @Test
+  public void test_disabled_by_default() {
+    AdaptiveInterval interval = AdaptiveInterval.create(new DefaultMegatronConfiguration());
+    assertThat(interval).isSameAs(AdaptiveInterval.DISABLED);
+    assertThat(interval.isEnabled()).isFalse();
+    assertThat(interval.update(1, 1000, 0)).isFalse();
+    assertThat(interval.apply(1000)).isEqualTo(1000);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_water_marks_are_ordered() {
+    new AdaptiveInterval(0.25, 0.75, 8);
+  }
+
+}
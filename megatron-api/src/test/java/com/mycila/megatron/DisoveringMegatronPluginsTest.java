@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import com.mycila.megatron.format.StatisticsSnapshot;
+import com.mycila.megatron.stats.TransportStatistics;
+import com.mycila.megatron.test.MegatronTestApi;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class DisoveringMegatronPluginsTest {
+
+  @Test
+  public void test_synchronous_dispatch_delivers_one_event_at_a_time() throws Exception {
+    ConcurrencyPlugin plugin = new ConcurrencyPlugin();
+    try (MegatronTestApi api = new MegatronTestApi()) {
+      DisoveringMegatronPlugins plugins = new DisoveringMegatronPlugins(new ClassLoader(null) {});
+      plugins.add(plugin);
+      plugins.setApi(api);
+      plugins.init(new DefaultMegatronConfiguration().setProperty("megatron.dispatch.async", "false"));
+      assertThat(plugins.getLanes()).isEmpty();
+
+      int threads = 4;
+      CountDownLatch done = new CountDownLatch(threads);
+      for (int i = 0; i < threads; i++) {
+        new Thread(() -> {
+          for (int j = 0; j < 50; j++) {
+            plugins.onStatistics(StatisticsSnapshot.of(Collections.emptyList()));
+          }
+          done.countDown();
+        }).start();
+      }
+      assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+      assertThat(plugin.received.get()).isEqualTo(threads * 50);
+      assertThat(plugin.maxConcurrency.get()).isEqualTo(1);
+      plugins.close();
+    }
+  }
+
+  @Test
+  public void test_transport_statistics_are_published_once_per_interval() throws Exception {
+    ConcurrencyPlugin plugin = new ConcurrencyPlugin();
+    try (MegatronTestApi api = new MegatronTestApi()) {
+      api.getTransportStatistics().register("test", new TransportStatistics());
+      DisoveringMegatronPlugins plugins = new DisoveringMegatronPlugins(new ClassLoader(null) {});
+      plugins.add(plugin);
+      plugins.setApi(api);
+      DefaultMegatronConfiguration configuration = new DefaultMegatronConfiguration()
+          .setStatisticCollectorInterval(100, TimeUnit.MILLISECONDS)
+          .setProperty("megatron.dispatch.async", "false");
+      // initializing again does not add a publisher
+      plugins.init(configuration);
+      plugins.init(configuration);
+      Thread.sleep(1_050);
+      plugins.close();
+
+      // the test api runs the scheduled tasks repeatedly: the publisher must not pile up
+      assertThat(plugin.received.get()).isBetween(5, 11);
+      assertThat(plugin.maxConcurrency.get()).isEqualTo(1);
+    }
+  }
+
+  static class ConcurrencyPlugin implements MegatronPlugin {
+
+    final AtomicInteger received = new AtomicInteger();
+    final AtomicInteger maxConcurrency = new AtomicInteger();
+    final AtomicInteger active = new AtomicInteger();
+
+    @Override
+    public boolean isEnable() {
+      return true;
+    }
+
+    @Override
+    public void onStatistics(StatisticsSnapshot snapshot) {
+      int concurrency = active.incrementAndGet();
+      maxConcurrency.accumulateAndGet(concurrency, Math::max);
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      received.incrementAndGet();
+      active.decrementAndGet();
+    }
+
+  }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import com.mycila.megatron.format.StatisticsSnapshot;
+import com.mycila.megatron.queue.DropPolicy;
+import com.mycila.megatron.queue.RingBuffer;
+import com.mycila.megatron.queue.WaitStrategy;
+import org.junit.Test;
+import org.terracotta.management.model.notification.ContextualNotification;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class DispatchLaneTest {
+
+  @Test
+  public void test_slow_plugin_does_not_block_the_publisher() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingPlugin plugin = new RecordingPlugin(release);
+    RingBuffer<Consumer<MegatronPlugin>> queue = new RingBuffer<>(2, DropPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS, WaitStrategy.Type.PARK.create());
+    try (DispatchLane lane = new DispatchLane(plugin, queue, Thread::new)) {
+      StatisticsSnapshot[] snapshots = new StatisticsSnapshot[5];
+      long start = System.nanoTime();
+      for (int i = 0; i < snapshots.length; i++) {
+        snapshots[i] = StatisticsSnapshot.of(Collections.emptyList());
+        lane.onStatistics(snapshots[i]);
+        Thread.sleep(50);
+      }
+      assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+
+      // the first snapshot is being processed, then the oldest ones are dropped
+      assertThat(lane.getDropCount()).isEqualTo(2);
+      release.countDown();
+      Thread.sleep(200);
+      assertThat(plugin.snapshots).containsExactly(snapshots[0], snapshots[3], snapshots[4]);
+      assertThat(lane.getQueueDepth()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void test_pending_events_are_delivered_in_order_on_close() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingPlugin plugin = new RecordingPlugin(release);
+    RingBuffer<Consumer<MegatronPlugin>> queue = new RingBuffer<>(16, DropPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, WaitStrategy.Type.PARK.create());
+    DispatchLane lane = new DispatchLane(plugin, queue, Thread::new);
+    StatisticsSnapshot snapshot = StatisticsSnapshot.of(Collections.emptyList());
+    lane.onStatistics(snapshot);
+    // the first snapshot is being processed
+    while (lane.getQueueDepth() > 0) {
+      Thread.sleep(10);
+    }
+    lane.onStatistics(snapshot);
+    lane.onNotifications(Collections.emptyList());
+    lane.onStatistics(snapshot);
+    release.countDown();
+    lane.close();
+    // notifications are delivered before the pending statistics
+    assertThat(plugin.events).containsExactly("statistics", "notifications", "statistics", "statistics");
+
+    // closed lanes drop the events
+    lane.onStatistics(snapshot);
+    lane.onNotifications(Collections.emptyList());
+    assertThat(plugin.events).hasSize(4);
+  }
+
+  @Test
+  public void test_notifications_are_never_dropped() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingPlugin plugin = new RecordingPlugin(release);
+    RingBuffer<Consumer<MegatronPlugin>> queue = new RingBuffer<>(2, DropPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS, WaitStrategy.Type.PARK.create());
+    try (DispatchLane lane = new DispatchLane(plugin, queue, Thread::new)) {
+      for (int i = 0; i < 10; i++) {
+        lane.onStatistics(StatisticsSnapshot.of(Collections.emptyList()));
+        lane.onNotifications(Collections.emptyList());
+      }
+      assertThat(lane.getDropCount()).isGreaterThan(0);
+      release.countDown();
+      Thread.sleep(200);
+      assertThat(plugin.events.stream().filter("notifications"::equals).count()).isEqualTo(10);
+      assertThat(lane.getPendingNotifications()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void test_failing_plugin_keeps_receiving_events() throws Exception {
+    RecordingPlugin plugin = new RecordingPlugin(new CountDownLatch(0)) {
+      @Override
+      public void onNotifications(List<ContextualNotification> notifications) {
+        throw new IllegalStateException("boom");
+      }
+    };
+    RingBuffer<Consumer<MegatronPlugin>> queue = new RingBuffer<>(16, DropPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, WaitStrategy.Type.PARK.create());
+    try (DispatchLane lane = new DispatchLane(plugin, queue, Thread::new)) {
+      lane.onNotifications(Collections.emptyList());
+      lane.onStatistics(StatisticsSnapshot.of(Collections.emptyList()));
+      Thread.sleep(200);
+      assertThat(plugin.events).containsExactly("statistics");
+    }
+  }
+
+  @Test
+  public void test_plugin_namespace_overrides_the_configuration() throws Exception {
+    DefaultMegatronConfiguration configuration = new DefaultMegatronConfiguration()
+        .setProperty("megatron.dispatch.queueSize", "100")
+        .setProperty("megatron.lane.dispatch.queueSize", "3")
+        .setProperty("megatron.lane.dispatch.dropPolicy", "drop_newest");
+    CountDownLatch release = new CountDownLatch(1);
+    try (DispatchLane lane = DispatchLane.create(new RecordingPlugin(release), configuration, Thread::new)) {
+      for (int i = 0; i < 10; i++) {
+        lane.onStatistics(StatisticsSnapshot.of(Collections.emptyList()));
+      }
+      Thread.sleep(100);
+      // one snapshot is being processed, the others are queued (up to 4 after rounding) or dropped
+      assertThat(lane.getQueueDepth()).isLessThanOrEqualTo(4);
+      assertThat(lane.getQueueDepth() + lane.getDropCount()).isEqualTo(9);
+      release.countDown();
+    }
+  }
+
+  @Namespace("megatron.lane")
+  static class RecordingPlugin implements MegatronPlugin {
+
+    final List<StatisticsSnapshot> snapshots = new CopyOnWriteArrayList<>();
+    final List<String> events = new CopyOnWriteArrayList<>();
+    final CountDownLatch release;
+
+    RecordingPlugin(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Override
+    public void onNotifications(List<ContextualNotification> notifications) {
+      events.add("notifications");
+    }
+
+    @Override
+    public void onStatistics(StatisticsSnapshot snapshot) {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      snapshots.add(snapshot);
+      events.add("statistics");
+    }
+
+  }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import org.junit.Test;
+import org.terracotta.management.model.cluster.Client;
+import org.terracotta.management.model.cluster.ClientIdentifier;
+import org.terracotta.management.model.cluster.Server;
+import org.terracotta.management.model.cluster.ServerEntity;
+import org.terracotta.management.model.context.Context;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class IntervalPolicyTest {
+
+  private final Context ehcache = Context.create(Client.KEY, ClientIdentifier.create("Ehcache:app", "abc").getClientId());
+  private final Context store = Context.create(Client.KEY, ClientIdentifier.create("Store:app", "def").getClientId());
+  private final Context entity = Context.create(Server.NAME_KEY, "server-1").with(ServerEntity.TYPE_KEY, "com.mycila.megatron.server.entity.MegatronEntity");
+
+  private final DefaultMegatronConfiguration configuration = new DefaultMegatronConfiguration()
+      .setStatisticCollectorInterval(10, TimeUnit.SECONDS)
+      .addIntervalPolicy(new IntervalPolicy("Ehcache:", null, null, 1, TimeUnit.SECONDS))
+      .addIntervalPolicy(new IntervalPolicy(null, null, "OffHeapResourceStatistics", 1, TimeUnit.MINUTES))
+      .addIntervalPolicy(new IntervalPolicy(null, "com.mycila.megatron.server.entity.MegatronEntity", null, 30, TimeUnit.SECONDS));
+
+  @Test
+  public void test_first_matching_policy_applies() {
+    assertThat(configuration.getStatisticCollectorInterval(ehcache, Collections.singletonList("OffHeapResourceStatistics"))).isEqualTo(1_000);
+    assertThat(configuration.getStatisticCollectorInterval(entity, Arrays.asList("ServerEntityStatistics", "OffHeapResourceStatistics"))).isEqualTo(60_000);
+    assertThat(configuration.getStatisticCollectorInterval(entity, Collections.singletonList("ServerEntityStatistics"))).isEqualTo(30_000);
+  }
+
+  @Test
+  public void test_default_interval_when_no_policy_matches() {
+    assertThat(configuration.getStatisticCollectorInterval(store, Collections.singletonList("StatisticsCapability"))).isEqualTo(10_000);
+    assertThat(configuration.getStatisticCollectorInterval()).isEqualTo(10_000);
+  }
+
+  @Test
+  public void test_all_criteria_must_match() {
+    IntervalPolicy policy = new IntervalPolicy("Ehcache:", "com.mycila.megatron.server.entity.MegatronEntity", null, 1, TimeUnit.SECONDS);
+    assertThat(policy.matches(ehcache, Collections.emptyList())).isFalse();
+    assertThat(policy.matches(entity, Collections.emptyList())).isFalse();
+  }
+
+  @Test
+  public void test_policies_are_merged() {
+    DefaultMegatronConfiguration merged = new DefaultMegatronConfiguration().merge(configuration);
+    assertThat(merged.getIntervalPolicies()).hasSize(3);
+    assertThat(merged.getStatisticCollectorInterval(ehcache, Collections.emptyList())).isEqualTo(1_000);
+
+    // merging again does not duplicate the policies
+    merged.merge(configuration).merge(merged);
+    assertThat(merged.getIntervalPolicies()).containsExactlyElementsOf(configuration.getIntervalPolicies());
+
+    // the merged policies replace the current ones
+    merged.merge(new DefaultMegatronConfiguration().addIntervalPolicy(new IntervalPolicy("Ehcache:", null, null, 5, TimeUnit.SECONDS)));
+    assertThat(merged.getIntervalPolicies()).hasSize(1);
+    assertThat(merged.getStatisticCollectorInterval(ehcache, Collections.emptyList())).isEqualTo(5_000);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_interval_must_be_positive() {
+    new IntervalPolicy(null, null, null, 0, TimeUnit.SECONDS);
+  }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import com.mycila.megatron.queue.DropPolicy;
+import com.mycila.megatron.queue.FlushPolicy;
+import com.mycila.megatron.queue.RingBuffer;
+import com.mycila.megatron.queue.WaitStrategy;
+import com.mycila.megatron.reactor.TransportReactor;
+import com.mycila.megatron.sink.MetricFormat;
+import com.mycila.megatron.sink.MetricSink;
+import com.mycila.megatron.sink.MetricType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class NonBlockingClientTest {
+
+  @Test
+  public void test_flush_when_batch_is_full_or_linger_expires() throws Exception {
+    RecordingTransport transport = new RecordingTransport();
+    try (TransportReactor reactor = new TransportReactor(1, WaitStrategy.Type.PARK, Thread::new)) {
+      TransportReactor.Lane lane = reactor.nextLane();
+      RingBuffer<String> queue = new RingBuffer<>(16, DropPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, lane.getWaitStrategy());
+      NonBlockingClient client = new NonBlockingClient(transport, queue, new FlushPolicy(0, 3, 500, TimeUnit.MILLISECONDS), lane);
+
+      client.send(Arrays.asList("a", "b", "c"));
+      Thread.sleep(100);
+      assertThat(transport.flushed).containsExactly(Arrays.asList("a", "b", "c"));
+
+      client.send(Collections.singletonList("d"));
+      Thread.sleep(100);
+      // lingering
+      assertThat(transport.flushed).hasSize(1);
+      Thread.sleep(700);
+      assertThat(transport.flushed).containsExactly(Arrays.asList("a", "b", "c"), Collections.singletonList("d"));
+
+      client.send(Collections.singletonList("e"));
+      client.close();
+      assertThat(transport.flushed).hasSize(3);
+    }
+  }
+
+  @Test
+  public void test_sink_chunks_are_written_by_the_lane() throws Exception {
+    RecordingTransport transport = new RecordingTransport();
+    try (TransportReactor reactor = new TransportReactor(1, WaitStrategy.Type.PARK, Thread::new)) {
+      TransportReactor.Lane lane = reactor.nextLane();
+      RingBuffer<String> queue = new RingBuffer<>(16, DropPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, lane.getWaitStrategy());
+      NonBlockingClient client = new NonBlockingClient(transport, queue, lane);
+
+      try (MetricSink sink = client.openSink(MetricFormat.STATSD)) {
+        sink.write("a", "", 1, MetricType.COUNTER, 0);
+        sink.write("b", "", 2, MetricType.GAUGE, 0);
+      }
+      Thread.sleep(100);
+      assertThat(transport.flushed).containsExactly(Arrays.asList("a:1|c", "b:2|g"));
+      assertThat(client.getStatistics().getLinesEnqueued()).isEqualTo(2);
+      client.close();
+    }
+  }
+
+  private static class RecordingTransport implements BufferedClient {
+    final List<List<String>> flushed = Collections.synchronizedList(new ArrayList<>());
+    private List<String> buffer = new ArrayList<>();
+
+    @Override
+    public void write(CharSequence line) {
+      buffer.add(line.toString());
+    }
+
+    @Override
+    public void flush() {
+      if (!buffer.isEmpty()) {
+        flushed.add(buffer);
+        buffer = new ArrayList<>();
+      }
+    }
+  }
+
+}
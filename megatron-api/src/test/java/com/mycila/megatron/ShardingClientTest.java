@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron;
+
+import com.mycila.megatron.sink.MetricFormat;
+import com.mycila.megatron.sink.MetricSink;
+import com.mycila.megatron.sink.MetricType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class ShardingClientTest {
+
+  @Test
+  public void test_series_always_go_to_same_client() {
+    List<List<String>> received = new ArrayList<>();
+    List<Client> clients = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      List<String> lines = Collections.synchronizedList(new ArrayList<>());
+      received.add(lines);
+      clients.add(messages -> messages.forEach(lines::add));
+    }
+    ShardingClient client = new ShardingClient(clients, Arrays.asList("a:8125", "b:8125", "c:8125"));
+
+    client.send(Arrays.asList("foo.bar:1|c", "foo.baz:2|g", "foo.bar:3|c", "foo.bar 4 1500000000"));
+
+    int shard = client.shardOf("foo.bar:1|c");
+    assertThat(received.get(shard)).contains("foo.bar:1|c", "foo.bar:3|c", "foo.bar 4 1500000000");
+    assertThat(received.get(client.shardOf("foo.baz"))).contains("foo.baz:2|g");
+    assertThat(received.stream().mapToInt(List::size).sum()).isEqualTo(4);
+  }
+
+  @Test
+  public void test_sink_routes_points_to_the_sink_of_their_client() {
+    List<List<List<String>>> received = new ArrayList<>();
+    List<Client> clients = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      List<List<String>> batches = new ArrayList<>();
+      received.add(batches);
+      clients.add(messages -> batches.add(messages.collect(Collectors.toList())));
+    }
+    ShardingClient client = new ShardingClient(clients, Arrays.asList("a:8125", "b:8125", "c:8125"));
+
+    List<String> names = IntStream.range(0, 30).mapToObj(i -> "foo.stat" + i).collect(Collectors.toList());
+    try (MetricSink sink = client.openSink(MetricFormat.STATSD)) {
+      for (String name : names) {
+        sink.write(name, "", 1, MetricType.COUNTER, 0);
+      }
+    }
+
+    for (String name : names) {
+      // same client as a line sent as a string
+      assertThat(received.get(client.shardOf(name + ":1|c")).stream().flatMap(List::stream)).contains(name + ":1|c");
+    }
+    for (List<List<String>> batches : received) {
+      // one batch per client and per sink
+      assertThat(batches.size()).isLessThanOrEqualTo(1);
+    }
+    assertThat(received.stream().flatMap(List::stream).mapToInt(List::size).sum()).isEqualTo(30);
+  }
+
+  @Test
+  public void test_series_are_balanced_and_moved_minimally() {
+    List<String> series = IntStream.range(0, 10_000).mapToObj(i -> "megatron.stat" + i).collect(Collectors.toList());
+    ShardingClient three = new ShardingClient(Arrays.asList(m -> {}, m -> {}, m -> {}), Arrays.asList("a:8125", "b:8125", "c:8125"));
+    ShardingClient four = new ShardingClient(Arrays.asList(m -> {}, m -> {}, m -> {}, m -> {}), Arrays.asList("a:8125", "b:8125", "c:8125", "d:8125"));
+
+    int[] counts = new int[3];
+    int moved = 0;
+    for (String s : series) {
+      int shard = three.shardOf(s);
+      counts[shard]++;
+      int newShard = four.shardOf(s);
+      if (newShard != shard) {
+        // only moves to the new client
+        assertThat(newShard).isEqualTo(3);
+        moved++;
+      }
+    }
+    for (int count : counts) {
+      assertThat(count).isBetween(2_500, 4_200);
+    }
+    assertThat(moved).isBetween(1_500, 3_500);
+  }
+
+}
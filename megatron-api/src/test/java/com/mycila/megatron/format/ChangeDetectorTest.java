@@ -0,0 +1,153 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import org.junit.Test;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.management.model.notification.ContextualNotification;
+import org.terracotta.statistics.StatisticType;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class ChangeDetectorTest {
+
+  private final Context orders = Context.create("cacheManagerName", "cm").with("cacheName", "orders");
+  private final Context users = Context.create("cacheManagerName", "cm").with("cacheName", "users");
+
+  @Test
+  public void test_disabled_detects_everything() {
+    StatisticColumns columns = columns(1L, 0.5);
+    ChangeDetector.DISABLED.nextBatch();
+    assertThat(ChangeDetector.DISABLED.hasChanged(orders, columns, 0)).isTrue();
+    assertThat(ChangeDetector.DISABLED.hasChanged(orders, columns, 0)).isTrue();
+  }
+
+  @Test
+  public void test_unchanged_values_are_suppressed_until_heartbeat() {
+    ChangeDetector changes = new ChangeDetector(0, 3);
+
+    changes.nextBatch();
+    assertThat(sent(changes, orders, columns(1L, 0.5))).isEqualTo(2);
+    assertThat(sent(changes, users, columns(1L, 0.5))).isEqualTo(2);
+
+    changes.nextBatch();
+    assertThat(sent(changes, orders, columns(1L, 0.5))).isEqualTo(0);
+    assertThat(sent(changes, users, columns(2L, 0.5))).isEqualTo(1);
+
+    changes.nextBatch();
+    assertThat(sent(changes, orders, columns(1L, 0.25))).isEqualTo(1);
+    assertThat(changes.getSuppressedCount()).isEqualTo(4);
+
+    // heartbeat: everything is sent again
+    changes.nextBatch();
+    assertThat(sent(changes, orders, columns(1L, 0.25))).isEqualTo(2);
+    assertThat(changes.size()).isEqualTo(4);
+    changes.nextBatch();
+    assertThat(sent(changes, orders, columns(1L, 0.25))).isEqualTo(0);
+  }
+
+  @Test
+  public void test_heartbeat_counts_the_collections_of_each_context() {
+    ChangeDetector changes = new ChangeDetector(0, 3);
+
+    // orders is collected in each batch, users in one batch out of 4
+    int ordersSent = 0;
+    int usersSent = 0;
+    for (int batch = 0; batch < 24; batch++) {
+      changes.nextBatch();
+      ordersSent += sent(changes, orders, columns(1L, 0.5));
+      if (batch % 4 == 0) {
+        usersSent += sent(changes, users, columns(1L, 0.5));
+      }
+    }
+    // first collection and every 3 collections of the context
+    assertThat(ordersSent).isEqualTo(2 * 8);
+    assertThat(usersSent).isEqualTo(2 * 2);
+  }
+
+  @Test
+  public void test_series_of_the_contexts_gone_are_forgotten() {
+    ChangeDetector changes = new ChangeDetector(0, 100);
+    Context client = Context.create("clientId", "1@127.0.0.1:Ehcache:app:1");
+    changes.nextBatch();
+    assertThat(sent(changes, client.with("cacheName", "orders"), columns(1L, 0.5))).isEqualTo(2);
+    assertThat(sent(changes, client.with("cacheName", "users"), columns(1L, 0.5))).isEqualTo(2);
+    assertThat(sent(changes, orders, columns(1L, 0.5))).isEqualTo(2);
+
+    changes.onNotification(new ContextualNotification(client, "CACHE_ADDED"));
+    assertThat(changes.getContextCount()).isEqualTo(3);
+    changes.onNotification(new ContextualNotification(client, "CLIENT_DISCONNECTED"));
+    assertThat(changes.getContextCount()).isEqualTo(1);
+    assertThat(changes.size()).isEqualTo(2);
+
+    // still tracked
+    changes.nextBatch();
+    assertThat(sent(changes, orders, columns(1L, 0.5))).isEqualTo(0);
+    assertThat(sent(changes, client.with("cacheName", "orders"), columns(1L, 0.5))).isEqualTo(2);
+    assertThat(changes.size()).isEqualTo(4);
+  }
+
+  @Test
+  public void test_epsilon_is_compared_to_the_last_value_sent() {
+    ChangeDetector changes = new ChangeDetector(0.1, 10);
+    changes.nextBatch();
+    assertThat(sent(changes, orders, columns(100L, 0.5))).isEqualTo(2);
+    assertThat(sent(changes, orders, columns(100L, 0.55))).isEqualTo(0);
+    // drift accumulated since the last value sent
+    assertThat(sent(changes, orders, columns(100L, 0.65))).isEqualTo(1);
+    assertThat(sent(changes, orders, columns(101L, Double.NaN))).isEqualTo(2);
+    assertThat(sent(changes, orders, columns(101L, Double.NaN))).isEqualTo(0);
+  }
+
+  @Test
+  public void test_many_series() {
+    ChangeDetector changes = new ChangeDetector(0, 10);
+    changes.nextBatch();
+    for (int i = 0; i < 1000; i++) {
+      assertThat(sent(changes, Context.create("cacheName", "c" + i), columns(i, i))).isEqualTo(2);
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertThat(sent(changes, Context.create("cacheName", "c" + i), columns(i, i))).isEqualTo(0);
+    }
+    assertThat(changes.size()).isEqualTo(2000);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_heartbeat_is_required() {
+    new ChangeDetector(0, 0);
+  }
+
+  private static StatisticColumns columns(long count, double ratio) {
+    return StatisticColumns.builder()
+        .add("Cache:HitCount", StatisticType.COUNTER, count)
+        .add("Cache:HitRatio", StatisticType.RATIO, ratio)
+        .build();
+  }
+
+  private static int sent(ChangeDetector changes, Context context, StatisticColumns columns) {
+    int sent = 0;
+    for (int row = 0; row < columns.size(); row++) {
+      if (changes.hasChanged(context, columns, row)) {
+        sent++;
+      }
+    }
+    return sent;
+  }
+
+}
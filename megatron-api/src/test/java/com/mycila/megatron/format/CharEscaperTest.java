@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the table-based escaper gives the same output as the regex it replaced
+ *
+ * @author Mathieu Carbou
+ */
+public class CharEscaperTest {
+
+  private static final String RESERVED = "@$,.:|#;'\"";
+  private static final Pattern REGEX = Pattern.compile("[@$,.:|#;'\"]+");
+
+  private final CharEscaper escaper = new CharEscaper(RESERVED, '_');
+
+  @Test
+  public void test_same_output_as_regex() {
+    String[] inputs = {
+        "",
+        "Cache:HitCount",
+        "no reserved char",
+        "a.b.c",
+        "a..b",
+        "..a..",
+        "@$,.:|#;'\"",
+        "user@host:9410",
+        "it's \"quoted\"",
+        "a|b#c;d",
+        ":",
+        // non-ASCII chars are never escaped, including the ones whose low 7 bits are a reserved char
+        "caf\u00e9.cr\u00e8me",
+        "\u00ae\u00ba\u00a3\u00a4\u00bb",
+        "\u2024\uff0e\uff1a",
+        "\u65e5\u672c.\u8a9e",
+        "emoji\ud83d\ude00:\ud83d\ude00",
+        "\u0000\u007f.\u0080",
+    };
+    for (String input : inputs) {
+      assertThat(escaper.escape(input)).as(input).isEqualTo(regex(input));
+      assertThat(escaper.escape(input, new StringBuilder("x")).toString()).as(input).isEqualTo("x" + regex(input));
+    }
+  }
+
+  @Test
+  public void test_same_output_as_regex_for_all_chars() {
+    for (char c = 0; c < Character.MAX_VALUE; c++) {
+      for (String input : new String[]{String.valueOf(c), "a" + c + "b", "." + c + c + "."}) {
+        assertThat(escaper.escape(input)).as("char %d", (int) c).isEqualTo(regex(input));
+      }
+    }
+  }
+
+  @Test
+  public void test_unchanged_strings_are_not_copied() {
+    String s = "caf\u00e9_Cache-HitCount";
+    assertThat(escaper.escape(s)).isSameAs(s);
+  }
+
+  private static String regex(String s) {
+    return REGEX.matcher(s).replaceAll("_");
+  }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import org.junit.Test;
+import org.terracotta.management.model.cluster.Server;
+import org.terracotta.management.model.cluster.ServerEntity;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.management.model.notification.ContextualNotification;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Cached names are returned as the same instance until their context is evicted
+ *
+ * @author Mathieu Carbou
+ */
+public class DefaultFormatterTest {
+
+  private static final Context SERVER_1 = Context.create(Server.KEY, "server-1");
+  private static final Context SERVER_2 = Context.create(Server.KEY, "server-2");
+
+  @Test
+  public void test_cache_keeps_the_most_recently_used_contexts() {
+    DefaultFormatter formatter = formatter(2);
+    String a = formatter.formatMetricName("statistics", entity(SERVER_1, "a"), "Cache:HitCount");
+    String b = formatter.formatMetricName("statistics", entity(SERVER_1, "b"), "Cache:HitCount");
+    assertThat(a).isEqualTo("megatron.statistics.servers.server-1.entities.ehcache.a.Cache_HitCount");
+
+    // a becomes the most recently used, so c evicts b
+    assertThat(formatter.formatMetricName("statistics", entity(SERVER_1, "a"), "Cache:HitCount")).isSameAs(a);
+    String c = formatter.formatMetricName("statistics", entity(SERVER_1, "c"), "Cache:HitCount");
+
+    assertThat(formatter.formatMetricName("statistics", entity(SERVER_1, "a"), "Cache:HitCount")).isSameAs(a);
+    assertThat(formatter.formatMetricName("statistics", entity(SERVER_1, "c"), "Cache:HitCount")).isSameAs(c);
+    String b2 = formatter.formatMetricName("statistics", entity(SERVER_1, "b"), "Cache:HitCount");
+    assertThat(b2).isEqualTo(b).isNotSameAs(b);
+
+    // b evicted a, the least recently used
+    assertThat(formatter.formatMetricName("statistics", entity(SERVER_1, "c"), "Cache:HitCount")).isSameAs(c);
+    assertThat(formatter.formatMetricName("statistics", entity(SERVER_1, "a"), "Cache:HitCount")).isNotSameAs(a);
+  }
+
+  @Test
+  public void test_no_cache() {
+    DefaultFormatter formatter = formatter(0);
+    String a = formatter.formatMetricName("statistics", entity(SERVER_1, "a"), "Cache:HitCount");
+    assertThat(formatter.formatMetricName("statistics", entity(SERVER_1, "a"), "Cache:HitCount")).isEqualTo(a).isNotSameAs(a);
+    formatter.onNotification(new ContextualNotification(SERVER_1, "SERVER_LEFT"));
+  }
+
+  @Test
+  public void test_notifications_evict_the_contexts_which_are_gone() {
+    DefaultFormatter formatter = formatter(100);
+    String a = formatter.formatMetricName("statistics", entity(SERVER_1, "a"), "Cache:HitCount");
+    String b = formatter.formatMetricName("statistics", entity(SERVER_1, "b"), "Cache:HitCount");
+    String c = formatter.formatMetricName("statistics", entity(SERVER_2, "c"), "Cache:HitCount");
+
+    // other notifications do not evict anything
+    formatter.onNotification(new ContextualNotification(SERVER_1.with(ServerEntity.NAME_KEY, "a"), "SERVER_ENTITY_FETCHED"));
+    assertThat(formatter.formatMetricName("statistics", entity(SERVER_1, "a"), "Cache:HitCount")).isSameAs(a);
+
+    formatter.onNotification(new ContextualNotification(SERVER_1.with(ServerEntity.NAME_KEY, "a"), "SERVER_ENTITY_DESTROYED"));
+    assertThat(formatter.formatMetricName("statistics", entity(SERVER_1, "a"), "Cache:HitCount")).isEqualTo(a).isNotSameAs(a);
+    assertThat(formatter.formatMetricName("statistics", entity(SERVER_1, "b"), "Cache:HitCount")).isSameAs(b);
+
+    formatter.onNotification(new ContextualNotification(SERVER_1, "SERVER_LEFT"));
+    assertThat(formatter.formatMetricName("statistics", entity(SERVER_1, "b"), "Cache:HitCount")).isEqualTo(b).isNotSameAs(b);
+    assertThat(formatter.formatMetricName("statistics", entity(SERVER_2, "c"), "Cache:HitCount")).isSameAs(c);
+  }
+
+  @Test
+  public void test_notifications_evict_the_cached_tags() {
+    DefaultFormatter formatter = new DefaultFormatter().globalPrefix("megatron").tagSupport().globalTags("env=test").cacheSize(100);
+    formatter.init();
+    String tags = formatter.formatTags(entity(SERVER_1, "a"));
+    assertThat(tags).isEqualTo("env=test,entityName=a,entityType=org_ehcache_clustered_server_ClusterTierManagerActiveEntity");
+    assertThat(formatter.formatTags(entity(SERVER_1, "a"))).isSameAs(tags);
+
+    formatter.onNotification(new ContextualNotification(SERVER_1.with(ServerEntity.NAME_KEY, "a"), "SERVER_ENTITY_DESTROYED"));
+    assertThat(formatter.formatTags(entity(SERVER_1, "a"))).isEqualTo(tags).isNotSameAs(tags);
+  }
+
+  private static DefaultFormatter formatter(int cacheSize) {
+    DefaultFormatter formatter = new DefaultFormatter().globalPrefix("megatron").cacheSize(cacheSize);
+    formatter.init();
+    return formatter;
+  }
+
+  private static Context entity(Context server, String name) {
+    return server
+        .with(ServerEntity.TYPE_KEY, "org.ehcache.clustered.server.ClusterTierManagerActiveEntity")
+        .with(ServerEntity.NAME_KEY, name);
+  }
+
+}
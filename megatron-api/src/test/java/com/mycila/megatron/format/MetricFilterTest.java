@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import org.junit.Test;
+import org.terracotta.management.model.context.Context;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class MetricFilterTest {
+
+  private final Context orders = Context.create("cacheManagerName", "cm").with("cacheName", "orders");
+  private final Context users = Context.create("cacheManagerName", "cm").with("cacheName", "users");
+
+  @Test
+  public void test_no_rule_accepts_everything() {
+    MetricFilter filter = MetricFilter.compile(new String[0], new String[0]);
+    assertThat(filter).isSameAs(MetricFilter.ACCEPT_ALL);
+    assertThat(filter.accepts(orders)).isTrue();
+    assertThat(filter.accepts(orders, "Cache:HitCount")).isTrue();
+  }
+
+  @Test
+  public void test_statistic_patterns() {
+    MetricFilter filter = MetricFilter.compile(new String[]{"Cache:HitRatio", "OffHeapResource:*", "*:MissCount", "Cache:*Put*"}, new String[]{"OffHeapResource:Allocated*"});
+    assertThat(filter.accepts(orders)).isTrue();
+    assertThat(filter.accepts(orders, "Cache:HitRatio")).isTrue();
+    assertThat(filter.accepts(orders, "Cache:HitRatio2")).isFalse();
+    assertThat(filter.accepts(orders, "Cache:Hit")).isFalse();
+    assertThat(filter.accepts(orders, "OffHeapResource:")).isTrue();
+    assertThat(filter.accepts(orders, "OffHeapResource:Size")).isTrue();
+    assertThat(filter.accepts(orders, "OffHeapResource:AllocatedMemory")).isFalse();
+    assertThat(filter.accepts(orders, "Clustered:MissCount")).isTrue();
+    assertThat(filter.accepts(orders, "Cache:PutCount")).isTrue();
+    assertThat(filter.accepts(orders, "Cache:EvictionCount")).isFalse();
+  }
+
+  @Test
+  public void test_context_rules() {
+    MetricFilter filter = MetricFilter.compile(new String[]{"cacheName=ord*"}, new String[]{"Cache:GetLatency*"});
+    assertThat(filter.accepts(orders)).isTrue();
+    assertThat(filter.accepts(users)).isFalse();
+    assertThat(filter.accepts(orders, "Cache:HitCount")).isTrue();
+    assertThat(filter.accepts(orders, "Cache:GetLatencyMaximum")).isFalse();
+    assertThat(filter.accepts(users, "Cache:HitCount")).isFalse();
+
+    filter = MetricFilter.compile(new String[0], new String[]{"cacheName=users"});
+    assertThat(filter.accepts(orders, "Cache:HitCount")).isTrue();
+    assertThat(filter.accepts(users)).isFalse();
+  }
+
+}
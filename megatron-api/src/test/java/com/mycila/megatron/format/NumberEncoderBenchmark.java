@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import java.nio.ByteBuffer;
+import java.text.NumberFormat;
+import java.util.Random;
+
+/**
+ * Compares {@link NumberEncoder} with the {@link java.text.DecimalFormat} it replaces.
+ * Not a unit test: run its main method.
+ *
+ * @author Mathieu Carbou
+ */
+public class NumberEncoderBenchmark {
+
+  private static final int VALUES = 1 << 16;
+  private static final int ROUNDS = 10;
+  private static final int ITERATIONS = 2_000_000;
+
+  public static void main(String[] args) {
+    double[] values = new double[VALUES];
+    Random random = new Random(0);
+    for (int i = 0; i < VALUES; i++) {
+      // typical statistics: rates, ratios, latencies, sizes
+      values[i] = random.nextDouble() * Math.pow(10, random.nextInt(12) - 3);
+    }
+    NumberFormat decimalFormat = NumberEncoderTest.newDecimalFormat();
+    StringBuilder sb = new StringBuilder(64);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+    long blackhole = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        blackhole += decimalFormat.format(values[i & (VALUES - 1)]).length();
+      }
+      long decimalFormatTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        sb.setLength(0);
+        blackhole += NumberEncoder.append(sb, values[i & (VALUES - 1)]).length();
+      }
+      long appendTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        buffer.clear();
+        NumberEncoder.put(buffer, values[i & (VALUES - 1)]);
+        blackhole += buffer.position();
+      }
+      long putTime = System.nanoTime() - start;
+
+      System.out.printf("round %d: DecimalFormat.format %.1f ns/op, NumberEncoder.append %.1f ns/op, NumberEncoder.put %.1f ns/op%n",
+          round, (double) decimalFormatTime / ITERATIONS, (double) appendTime / ITERATIONS, (double) putTime / ITERATIONS);
+    }
+    System.out.println(blackhole);
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class NumberEncoderTest {
+
+  private final NumberFormat decimalFormat = newDecimalFormat();
+  private final ByteBuffer buffer = ByteBuffer.allocate(512);
+
+  @Test
+  public void test_edge_cases() {
+    assertEncoded(0.0, "0");
+    assertEncoded(-0.0, "-0");
+    assertEncoded(-5e-7, "-0");
+    assertEncoded(Double.NaN, "NaN");
+    assertEncoded(Double.MIN_VALUE, "0");
+    assertEncoded(1.0 / 3, "0.333333");
+    // ties are rounded half-even on the exact binary value
+    assertEncoded(0.0078125, "0.007812");
+    assertEncoded(0.0234375, "0.023438");
+    assertEncoded(1.0000005, "1.000001");
+    assertEncoded(0.9999995, "1");
+    assertEncoded(0x1p33 - 0x1p-20, "8589934591.999999");
+    assertEncoded(1e20, "100000000000000000000");
+    assertEncoded(Double.POSITIVE_INFINITY, decimalFormat.format(Double.POSITIVE_INFINITY));
+  }
+
+  @Test
+  public void test_same_output_as_decimal_format() {
+    Random random = new Random(0);
+    for (int i = 0; i < 200_000; i++) {
+      double value;
+      switch (i % 4) {
+        case 0:
+          value = random.nextDouble() * Math.pow(10, random.nextInt(20) - 10);
+          break;
+        case 1:
+          value = Double.longBitsToDouble(random.nextLong());
+          break;
+        case 2:
+          value = random.nextInt(1 << 20) / (double) (1 << random.nextInt(30));
+          break;
+        default:
+          value = (random.nextInt(2_000_000) + 0.5) / 1e6;
+      }
+      if (random.nextBoolean()) {
+        value = -value;
+      }
+      assertEncoded(value, decimalFormat.format(value));
+    }
+  }
+
+  @Test
+  public void test_long() {
+    for (long value : new long[]{0, 1, -1, 10, 1234567890, Long.MAX_VALUE, Long.MIN_VALUE}) {
+      buffer.clear();
+      NumberEncoder.put(buffer, value);
+      buffer.flip();
+      assertThat(StandardCharsets.UTF_8.decode(buffer).toString()).isEqualTo(String.valueOf(value));
+    }
+  }
+
+  private void assertEncoded(double value, String expected) {
+    // the reference
+    assertThat(decimalFormat.format(value)).isEqualTo(expected);
+    assertThat(NumberEncoder.format(value)).isEqualTo(expected);
+    assertThat(NumberEncoder.append(new StringBuilder("x"), value).toString()).isEqualTo("x" + expected);
+    buffer.clear();
+    NumberEncoder.put(buffer, value);
+    buffer.flip();
+    assertThat(StandardCharsets.UTF_8.decode(buffer).toString()).isEqualTo(expected);
+  }
+
+  static NumberFormat newDecimalFormat() {
+    NumberFormat numberFormat = NumberFormat.getInstance(Locale.US);
+    numberFormat.setGroupingUsed(false);
+    numberFormat.setMaximumFractionDigits(6);
+    DecimalFormat decimalFormat = (DecimalFormat) numberFormat;
+    DecimalFormatSymbols symbols = decimalFormat.getDecimalFormatSymbols();
+    symbols.setNaN("NaN");
+    decimalFormat.setDecimalFormatSymbols(symbols);
+    return numberFormat;
+  }
+
+}
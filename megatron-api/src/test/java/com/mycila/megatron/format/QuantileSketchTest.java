@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class QuantileSketchTest {
+
+  private static final double[] QUANTILES = {0, 0.1, 0.5, 0.9, 0.99, 1};
+
+  @Test
+  public void test_quantiles_are_within_relative_accuracy() {
+    Random random = new Random(0);
+    for (int round = 0; round < 20; round++) {
+      double[] values = new double[1 + random.nextInt(2000)];
+      QuantileSketch sketch = new QuantileSketch();
+      for (int i = 0; i < values.length; i++) {
+        // log-normal, with some negative values and zeros
+        values[i] = random.nextInt(20) == 0 ? 0 : Math.exp(random.nextGaussian() * 3) * (random.nextInt(10) == 0 ? -1 : 1);
+        sketch.add(values[i]);
+      }
+      assertAccurate(sketch, values);
+    }
+  }
+
+  @Test
+  public void test_merge_is_exact() {
+    Random random = new Random(1);
+    QuantileSketch all = new QuantileSketch();
+    QuantileSketch merged = new QuantileSketch();
+    double[] values = new double[3000];
+    for (int part = 0; part < 3; part++) {
+      QuantileSketch sketch = new QuantileSketch();
+      for (int i = 0; i < 1000; i++) {
+        double value = random.nextDouble() * 100 * (part + 1);
+        values[part * 1000 + i] = value;
+        sketch.add(value);
+        all.add(value);
+      }
+      merged.merge(sketch);
+    }
+    for (double q : QUANTILES) {
+      assertThat(merged.getQuantile(q)).isEqualTo(all.getQuantile(q));
+    }
+    assertThat(merged.getCount()).isEqualTo(3000);
+    assertThat(merged.getSum()).isCloseTo(all.getSum(), within(1e-6));
+    assertAccurate(merged, values);
+  }
+
+  @Test
+  public void test_spikes_are_kept() {
+    QuantileSketch sketch = new QuantileSketch();
+    for (int i = 0; i < 99; i++) {
+      sketch.add(10);
+    }
+    sketch.add(5000);
+    assertThat(sketch.getQuantile(0.5)).isCloseTo(10, within(0.1));
+    assertThat(sketch.getMax()).isEqualTo(5000);
+    assertThat(sketch.getQuantile(1)).isEqualTo(5000);
+  }
+
+  @Test
+  public void test_lowest_buckets_are_collapsed() {
+    QuantileSketch sketch = new QuantileSketch(0.001);
+    for (int i = -300; i <= 300; i++) {
+      sketch.add(Math.pow(10, i / 10.0));
+    }
+    // the range needs more buckets than kept: only the highest quantiles stay accurate
+    assertThat(sketch.getQuantile(0.99)).isCloseTo(Math.pow(10, 29.4), within(Math.pow(10, 29.4) * 0.001));
+    assertThat(sketch.getMin()).isEqualTo(Math.pow(10, -30.0));
+    assertThat(sketch.getMax()).isEqualTo(Math.pow(10, 30.0));
+  }
+
+  @Test
+  public void test_empty_sketch() {
+    QuantileSketch sketch = new QuantileSketch().add(Double.NaN);
+    assertThat(sketch.isEmpty()).isTrue();
+    assertThat(sketch.getQuantile(0.5)).isNaN();
+    assertThat(sketch.getMax()).isNaN();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_only_same_accuracy_merges() {
+    new QuantileSketch(0.01).merge(new QuantileSketch(0.02));
+  }
+
+  private static void assertAccurate(QuantileSketch sketch, double[] values) {
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    for (double q : QUANTILES) {
+      double expected = sorted[(int) (q * (sorted.length - 1))];
+      assertThat(sketch.getQuantile(q)).isCloseTo(expected, within(Math.abs(expected) * sketch.getRelativeAccuracy() + 1e-12));
+    }
+  }
+
+}
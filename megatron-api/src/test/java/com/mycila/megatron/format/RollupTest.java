@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import org.junit.Test;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.management.model.notification.ContextualNotification;
+import org.terracotta.management.model.stats.ContextualStatistics;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.registry.Statistic;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class RollupTest {
+
+  private final Context client1 = Context.create("clientId", "1@127.0.0.1:Ehcache:app:1").with("cacheManagerName", "cm").with("cacheName", "orders");
+  private final Context client2 = Context.create("clientId", "2@127.0.0.2:Ehcache:app:2").with("cacheManagerName", "cm").with("cacheName", "orders");
+  private final Context client3 = Context.create("clientId", "3@127.0.0.3:Ehcache:app:3").with("cacheManagerName", "cm").with("cacheName", "users");
+
+  private final RollupAggregator rollups = new RollupAggregator(Rollup.of("clientId", " "));
+
+  @Test
+  public void test_clients_reported_in_different_batches_are_grouped() {
+    // first collection: one batch per client
+    assertThat(rollups.update(batch(statistics(client1, 10L, 0.5)))).isEmpty();
+    assertThat(rollups.update(batch(statistics(client2, 30L, 1.0)))).isEmpty();
+    assertThat(rollups.update(batch(statistics(client3, 5L, 0.25)))).isEmpty();
+    assertThat(rollups.update(batch(statistics(Context.create("serverName", "server-1"), 1L, 0.0)))).isEmpty();
+    assertThat(rollups.size()).isEqualTo(2);
+    assertThat(rollups.getMemberCount()).isEqualTo(3);
+
+    // second collection: the first collection of the group is complete
+    List<StatisticsSnapshot.Entry> rolledUp = rollups.update(batch(statistics(client1, 20L, 0.5)));
+    assertThat(rolledUp).hasSize(1);
+    StatisticsSnapshot.Entry orders = rolledUp.get(0);
+    assertThat(orders.isRollup()).isTrue();
+    assertThat(orders.getContext()).isEqualTo(Context.create("cacheManagerName", "cm").with("cacheName", "orders").with(Rollup.KEY, "clientId"));
+    assertThat(orders.getStatistics()).containsExactly(
+        entry("Cache:HitCount:avg", 25.0),
+        entry("Cache:HitCount:max", 30L),
+        entry("Cache:HitCount:min", 20L),
+        entry("Cache:HitCount:sum", 50L),
+        entry("Cache:HitRatio:avg", 0.75),
+        entry("Cache:HitRatio:max", 1.0),
+        entry("Cache:HitRatio:min", 0.5),
+        entry("Cache:HitRatio:sum", 1.5));
+
+    // once per collection
+    assertThat(rollups.update(batch(statistics(client2, 40L, 1.0)))).isEmpty();
+    assertThat(rollups.update(batch(statistics(client1, 20L, 0.5))).get(0).getStatistics()).containsEntry("Cache:HitCount:sum", 60L);
+    assertThat(rollups.update(batch(statistics(client3, 5L, 0.25))).get(0).getStatistics()).containsEntry("Cache:HitCount:sum", 5L);
+  }
+
+  @Test
+  public void test_batch_with_several_members_is_rolled_up_once() {
+    StatisticsSnapshot batch = batch(statistics(client1, 10L, 0.5), statistics(client2, 30L, 1.0));
+    assertThat(rollups.update(batch)).isEmpty();
+    List<StatisticsSnapshot.Entry> rolledUp = rollups.update(batch(statistics(client1, 20L, 0.5), statistics(client2, 40L, 1.0)));
+    assertThat(rolledUp).hasSize(1);
+    assertThat(rolledUp.get(0).getStatistics()).containsEntry("Cache:HitCount:sum", 60L);
+  }
+
+  @Test
+  public void test_members_are_evicted_when_they_are_gone() {
+    rollups.update(batch(statistics(client1, 10L, 0.5)));
+    rollups.update(batch(statistics(client2, 30L, 1.0)));
+    rollups.update(batch(statistics(client3, 5L, 0.25)));
+
+    rollups.onNotification(new ContextualNotification(Context.create("clientId", "2@127.0.0.2:Ehcache:app:2"), "CLIENT_DISCONNECTED"));
+    assertThat(rollups.getMemberCount()).isEqualTo(2);
+    assertThat(rollups.update(batch(statistics(client1, 10L, 0.5))).get(0).getStatistics()).containsEntry("Cache:HitCount:sum", 10L);
+
+    // the group is dropped with its last member
+    rollups.onNotification(new ContextualNotification(Context.create("clientId", "3@127.0.0.3:Ehcache:app:3"), "CLIENT_DISCONNECTED"));
+    assertThat(rollups.size()).isEqualTo(1);
+
+    // other notifications are ignored
+    rollups.onNotification(new ContextualNotification(Context.create("clientId", "1@127.0.0.1:Ehcache:app:1"), "CLIENT_CONNECTED"));
+    assertThat(rollups.getMemberCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void test_rolled_up_statistics_are_filtered_by_their_base_name() {
+    MetricFilter filter = MetricFilter.compile(new String[]{"Cache:HitRatio"}, new String[]{"cacheName=users"});
+    rollups.update(batch(statistics(client1, 10L, 0.5)));
+    StatisticsSnapshot.Entry orders = rollups.update(batch(statistics(client1, 10L, 0.5))).get(0);
+    assertThat(orders.getColumns(filter).toMap())
+        .containsOnlyKeys("Cache:HitRatio:avg", "Cache:HitRatio:max", "Cache:HitRatio:min", "Cache:HitRatio:sum");
+    rollups.update(batch(statistics(client3, 5L, 0.25)));
+    assertThat(rollups.update(batch(statistics(client3, 5L, 0.25))).get(0).getColumns(filter).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void test_sketches_of_the_group_are_merged() {
+    StatisticsSnapshot first = batch(statistics(client1, 10L, 0.5));
+    rollups.update(first);
+    rollups.update(batch(statistics(client2, 30L, 1.0)));
+    StatisticsSnapshot.Entry orders = rollups.update(batch(statistics(client1, 10L, 0.5))).get(0);
+    assertThat(orders.getSketches()).containsOnlyKeys("Cache:HitRatio");
+    assertThat(orders.getSketches().get("Cache:HitRatio").getCount()).isEqualTo(2);
+    assertThat(orders.getQuantiles().getContext()).isEqualTo(orders.getContext());
+    assertThat(orders.getQuantiles().getStatistics()).containsEntry("Cache:HitRatio:p100", 1.0);
+    // members are left untouched
+    assertThat(first.getEntries().get(0).getSketches().get("Cache:HitRatio").getCount()).isEqualTo(1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_keys_are_required() {
+    Rollup.of(" ", "");
+  }
+
+  private static StatisticsSnapshot batch(ContextualStatistics... statistics) {
+    return StatisticsSnapshot.of(Arrays.asList(statistics));
+  }
+
+  private static ContextualStatistics statistics(Context context, long count, double ratio) {
+    Map<String, Statistic<? extends Serializable>> stats = new HashMap<>();
+    stats.put("Cache:HitCount", new Statistic<>(StatisticType.COUNTER, Collections.singletonList(new Sample<>(1, count))));
+    stats.put("Cache:HitRatio", new Statistic<>(StatisticType.RATIO, Collections.singletonList(new Sample<>(1, ratio))));
+    return new ContextualStatistics("StatisticsCapability", context, stats);
+  }
+
+}
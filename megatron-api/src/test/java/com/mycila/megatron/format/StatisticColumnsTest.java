@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import org.junit.Test;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.statistics.StatisticType;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class StatisticColumnsTest {
+
+  private final StatisticColumns columns = StatisticColumns.builder(2)
+      .add("Cache:MissCount", StatisticType.COUNTER, 3L)
+      .add("Cache:HitRatio", StatisticType.RATIO, 0.75)
+      .add("Cache:HitCount", StatisticType.COUNTER, 5L)
+      .add("OffHeapResource:AllocatedMemory", StatisticType.GAUGE, 1024L)
+      .add("Cache:GetHitLatencyAverage", StatisticType.RATE, 12.5)
+      .add("Cache:HitCount", StatisticType.COUNTER, 7L)
+      .build();
+
+  @Test
+  public void test_rows_are_sorted_by_name() {
+    assertThat(columns.size()).isEqualTo(5);
+    assertThat(columns.getName(0)).isEqualTo("Cache:GetHitLatencyAverage");
+    assertThat(columns.getName(1)).isEqualTo("Cache:HitCount");
+    assertThat(columns.getName(4)).isEqualTo("OffHeapResource:AllocatedMemory");
+    assertThat(columns.indexOf("Cache:HitRatio")).isEqualTo(2);
+    assertThat(columns.indexOf("Cache:Unknown")).isNegative();
+    assertThat(columns.toMap()).containsExactly(
+        entry("Cache:GetHitLatencyAverage", 12.5),
+        entry("Cache:HitCount", 7L),
+        entry("Cache:HitRatio", 0.75),
+        entry("Cache:MissCount", 3L),
+        entry("OffHeapResource:AllocatedMemory", 1024L));
+  }
+
+  @Test
+  public void test_types_and_primitive_values() {
+    int row = columns.indexOf("Cache:HitCount");
+    assertThat(columns.getType(row)).isEqualTo(StatisticType.COUNTER);
+    assertThat(columns.isIntegral(row)).isTrue();
+    assertThat(columns.getLong(row)).isEqualTo(7L);
+    row = columns.indexOf("Cache:HitRatio");
+    assertThat(columns.getType(row)).isEqualTo(StatisticType.RATIO);
+    assertThat(columns.isIntegral(row)).isFalse();
+    assertThat(columns.getDouble(row)).isEqualTo(0.75);
+    assertThat(columns.getType(columns.indexOf("Cache:GetHitLatencyAverage"))).isEqualTo(StatisticType.RATE);
+    assertThat(columns.getType(columns.indexOf("OffHeapResource:AllocatedMemory"))).isEqualTo(StatisticType.GAUGE);
+  }
+
+  @Test
+  public void test_names_are_interned() {
+    int index = StatisticColumns.nameIndex(new String("Cache:HitCount"));
+    assertThat(columns.getNameIndex(1)).isEqualTo(index);
+    assertThat(StatisticColumns.name(index)).isSameAs(columns.getName(1));
+  }
+
+  @Test
+  public void test_select() {
+    Context context = Context.create("cacheName", "orders");
+    assertThat(columns.select(MetricFilter.ACCEPT_ALL, context)).isSameAs(columns);
+    assertThat(columns.select(MetricFilter.compile(new String[]{"Cache:*"}, new String[0]), context).toMap())
+        .containsOnlyKeys("Cache:GetHitLatencyAverage", "Cache:HitCount", "Cache:HitRatio", "Cache:MissCount");
+    assertThat(columns.select(MetricFilter.compile(new String[0], new String[]{"cacheName=orders"}), context).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void test_bitmap_spans_several_words() {
+    StatisticColumns.Builder builder = StatisticColumns.builder();
+    for (int i = 0; i < 100; i++) {
+      if (i % 3 == 0) {
+        builder.add(String.format("stat%03d", i), StatisticType.RATIO, i / 2.0);
+      } else {
+        builder.add(String.format("stat%03d", i), StatisticType.GAUGE, (long) i);
+      }
+    }
+    StatisticColumns many = builder.build();
+    for (int i = 0; i < 100; i++) {
+      assertThat(many.getType(i)).isEqualTo(i % 3 == 0 ? StatisticType.RATIO : StatisticType.GAUGE);
+      assertThat(many.getDouble(i)).isEqualTo(i % 3 == 0 ? i / 2.0 : i);
+    }
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.format;
+
+import org.junit.Test;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.management.model.stats.ContextualStatistics;
+import org.terracotta.statistics.Sample;
+import org.terracotta.statistics.StatisticType;
+import org.terracotta.statistics.registry.Statistic;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class StatisticsSnapshotTest {
+
+  private final Context orders = Context.create("cacheManagerName", "cm").with("cacheName", "orders");
+  private final Context users = Context.create("cacheManagerName", "cm").with("cacheName", "users");
+
+  private final StatisticsSnapshot snapshot = StatisticsSnapshot.of(Arrays.asList(
+      new ContextualStatistics("StatisticsCapability", orders, stats()),
+      new ContextualStatistics("StatisticsCapability", users, stats())));
+
+  @Test
+  public void test_samples_are_reduced_once() {
+    assertThat(snapshot.size()).isEqualTo(2);
+    StatisticsSnapshot.Entry entry = snapshot.getEntries().get(0);
+    assertThat(entry.getContext()).isEqualTo(orders);
+    assertThat(entry.getStatistics()).containsExactly(
+        entry("Cache:HitCount", 7L),
+        entry("Cache:HitRatio", 0.5));
+    assertThat(entry.getColumns(MetricFilter.ACCEPT_ALL)).isSameAs(entry.getColumns());
+  }
+
+  @Test
+  public void test_plugins_filter_the_shared_values() {
+    MetricFilter filter = MetricFilter.compile(new String[]{"cacheName=ord*"}, new String[]{"*:HitRatio"});
+    assertThat(snapshot.getEntries().get(0).getStatistics(filter)).containsOnlyKeys("Cache:HitCount");
+    assertThat(snapshot.getEntries().get(1).getStatistics(filter)).isEmpty();
+    assertThat(snapshot.getEntries().get(0).getStatistics()).hasSize(2);
+  }
+
+  @Test
+  public void test_quantiles_keep_the_spikes() {
+    StatisticsSnapshot.Entry quantiles = snapshot.getEntries().get(0).getQuantiles();
+    assertThat(quantiles.isDerived()).isTrue();
+    assertThat(quantiles.getContext()).isEqualTo(orders);
+    // counters are not sketched
+    assertThat(quantiles.getStatistics()).containsOnlyKeys("Cache:HitRatio:p100", "Cache:HitRatio:p50", "Cache:HitRatio:p99");
+    assertThat(quantiles.getColumns().getDouble(quantiles.getColumns().indexOf("Cache:HitRatio:p100"))).isEqualTo(0.75);
+    assertThat(quantiles.getColumns(MetricFilter.compile(new String[]{"Cache:HitCount"}, new String[0])).isEmpty()).isTrue();
+    assertThat(snapshot.getEntries().get(0).getQuantiles()).isSameAs(quantiles);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void test_snapshot_is_immutable() {
+    snapshot.getEntries().get(0).getStatistics().clear();
+  }
+
+  private static Map<String, Statistic<? extends Serializable>> stats() {
+    Map<String, Statistic<? extends Serializable>> stats = new HashMap<>();
+    stats.put("Cache:HitCount", new Statistic<>(StatisticType.COUNTER, Arrays.asList(new Sample<>(1, 5L), new Sample<>(2, 7L))));
+    stats.put("Cache:HitRatio", new Statistic<>(StatisticType.RATIO, Arrays.asList(new Sample<>(1, 0.25), new Sample<>(2, 0.75))));
+    return stats;
+  }
+
+}
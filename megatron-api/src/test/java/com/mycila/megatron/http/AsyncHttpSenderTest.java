@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.http;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class AsyncHttpSenderTest {
+
+  private final List<String> shedBodies = new CopyOnWriteArrayList<>();
+
+  @Test
+  public void test_server_errors_are_retried_with_backoff_then_shed() throws Exception {
+    try (HttpTestServer server = new HttpTestServer()) {
+      for (int i = 0; i < 4; i++) {
+        server.statusCodes.add(500);
+      }
+      AsyncHttpSender sender = sender(server, 3);
+
+      sender.send(body("a 1"));
+      drain(sender);
+
+      // 1 attempt + 3 retries
+      assertThat(server.requests).hasSize(4);
+      assertThat(sender.getRetryCount()).isEqualTo(3);
+      assertThat(sender.getSentCount()).isEqualTo(0);
+      assertThat(sender.getShedCount()).isEqualTo(1);
+      assertThat(shedBodies).containsExactly("a 1");
+      assertThat(sender.getInFlight()).isEqualTo(0);
+
+      // equal jitter: each delay is at least half of the exponential backoff (50, 100, 200 capped to 150)
+      assertThat(gap(server, 1)).isGreaterThanOrEqualTo(25);
+      assertThat(gap(server, 2)).isGreaterThanOrEqualTo(50);
+      assertThat(gap(server, 3)).isGreaterThanOrEqualTo(75);
+    }
+  }
+
+  @Test
+  public void test_too_many_requests_is_retried() throws Exception {
+    try (HttpTestServer server = new HttpTestServer()) {
+      server.statusCodes.add(429);
+      server.statusCodes.add(200);
+      AsyncHttpSender sender = sender(server, 3);
+
+      sender.send(body("a 1"));
+      assertThat(sender.isRetrying()).isTrue();
+      assertThat(sender.nextRetryDelay(MILLISECONDS)).isBetween(0L, 50L);
+      drain(sender);
+
+      assertThat(server.requests).hasSize(2);
+      assertThat(sender.getRetryCount()).isEqualTo(1);
+      assertThat(sender.getSentCount()).isEqualTo(1);
+      assertThat(sender.getShedCount()).isEqualTo(0);
+      assertThat(shedBodies).isEmpty();
+      assertThat(gap(server, 1)).isGreaterThanOrEqualTo(25);
+    }
+  }
+
+  @Test
+  public void test_client_errors_are_not_retried() throws Exception {
+    try (HttpTestServer server = new HttpTestServer()) {
+      server.statusCodes.add(400);
+      AsyncHttpSender sender = sender(server, 3);
+
+      sender.send(body("bad"));
+      assertThat(sender.isRetrying()).isFalse();
+      drain(sender);
+
+      assertThat(server.requests).hasSize(1);
+      assertThat(sender.getRetryCount()).isEqualTo(0);
+      assertThat(sender.getSentCount()).isEqualTo(0);
+      // rejected requests are dropped, not shed
+      assertThat(sender.getShedCount()).isEqualTo(0);
+      assertThat(sender.getRejectedCount()).isEqualTo(1);
+      assertThat(shedBodies).isEmpty();
+      assertThat(sender.getInFlight()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void test_pending_retries_are_attempted_once_when_closing() throws Exception {
+    try (HttpTestServer server = new HttpTestServer()) {
+      server.statusCodes.add(500);
+      server.statusCodes.add(200);
+      AsyncHttpSender sender = new AsyncHttpSender(new Http(server.getUrl()), Runnable::run, 2, 10, 1, 1, TimeUnit.MINUTES);
+
+      sender.send(body("a 1"));
+      assertThat(sender.isRetrying()).isTrue();
+      sender.close();
+
+      assertThat(server.requests).hasSize(2);
+      assertThat(sender.getSentCount()).isEqualTo(1);
+      assertThat(sender.isRetrying()).isFalse();
+    }
+  }
+
+  private AsyncHttpSender sender(HttpTestServer server, int maxRetries) {
+    // same-thread executor: each send or resubmit completes before returning
+    AsyncHttpSender sender = new AsyncHttpSender(new Http(server.getUrl()), Runnable::run, 2, maxRetries, 50, 150, MILLISECONDS);
+    sender.onShed(body -> shedBodies.add(new String(body, StandardCharsets.UTF_8)));
+    return sender;
+  }
+
+  private static void drain(AsyncHttpSender sender) throws InterruptedException {
+    long delay;
+    while ((delay = sender.nextRetryDelay(MILLISECONDS)) >= 0) {
+      Thread.sleep(delay);
+      sender.resubmitRetries();
+    }
+  }
+
+  private static long gap(HttpTestServer server, int request) {
+    return MILLISECONDS.convert(server.requests.get(request).time - server.requests.get(request - 1).time, NANOSECONDS);
+  }
+
+  private static byte[] body(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.http;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class HttpTest {
+
+  @Test
+  public void test_big_bodies_are_gzipped() throws Exception {
+    try (HttpTestServer server = new HttpTestServer()) {
+      Http http = new Http(server.getUrl(), Http.DEFAULT_TIMEOUT, Http.DEFAULT_TIMEOUT, 64);
+      StringBuilder big = new StringBuilder();
+      for (int i = 0; i < 100; i++) {
+        big.append("megatron.statistics.caf\u00e9.Cache_HitCount ").append(i).append(" 1500000000\n");
+      }
+      assertThat(http.post("small 1 1500000000\n")).isTrue();
+      assertThat(http.post(big.toString())).isTrue();
+
+      assertThat(server.requests).hasSize(2);
+      assertThat(server.requests.get(0).contentEncoding).isNull();
+      assertThat(server.requests.get(0).body).isEqualTo("small 1 1500000000\n");
+      assertThat(server.requests.get(1).contentEncoding).isEqualTo("gzip");
+      assertThat(server.requests.get(1).body).isEqualTo(big.toString());
+      assertThat(server.requests.get(1).contentLength).isLessThan(big.toString().getBytes(StandardCharsets.UTF_8).length);
+      assertThat(http.getStatistics().getLinesSent()).isEqualTo(101);
+    }
+  }
+
+  @Test
+  public void test_connection_is_reused_after_success_and_error_responses() throws Exception {
+    try (HttpTestServer server = new HttpTestServer()) {
+      Http http = new Http(server.getUrl());
+      server.statusCodes.add(200);
+      server.statusCodes.add(500);
+      server.statusCodes.add(400);
+      server.statusCodes.add(200);
+      assertThat(http.execute("a 1\n".getBytes(StandardCharsets.UTF_8))).isEqualTo(200);
+      assertThat(http.execute("b 1\n".getBytes(StandardCharsets.UTF_8))).isEqualTo(500);
+      assertThat(http.execute("c 1\n".getBytes(StandardCharsets.UTF_8))).isEqualTo(400);
+      assertThat(http.execute("d 1\n".getBytes(StandardCharsets.UTF_8))).isEqualTo(200);
+
+      assertThat(server.requests).hasSize(4);
+      // all the requests come from the same client socket
+      assertThat(server.requests.stream().mapToInt(request -> request.clientPort).distinct().count()).isEqualTo(1);
+      assertThat(http.getStatistics().getPacketsSent()).isEqualTo(2);
+      assertThat(http.getStatistics().getSendErrors()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void test_io_error() throws Exception {
+    HttpTestServer server = new HttpTestServer();
+    server.close();
+    Http http = new Http(server.getUrl(), 500, 500, 0);
+    assertThat(http.execute("a 1\n".getBytes(StandardCharsets.UTF_8))).isEqualTo(-1);
+    assertThat(http.getStatistics().getSendErrors()).isEqualTo(1);
+  }
+
+}
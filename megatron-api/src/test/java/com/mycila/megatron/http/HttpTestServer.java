@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.http;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local HTTP server recording the requests and answering with the queued status codes (200 when none is queued)
+ *
+ * @author Mathieu Carbou
+ */
+class HttpTestServer implements Closeable {
+
+  final List<Request> requests = new CopyOnWriteArrayList<>();
+  final Queue<Integer> statusCodes = new ConcurrentLinkedQueue<>();
+
+  private final HttpServer server;
+
+  HttpTestServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", exchange -> {
+      byte[] raw = read(exchange.getRequestBody());
+      String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+      byte[] body = "gzip".equals(encoding) ? read(new GZIPInputStream(new ByteArrayInputStream(raw))) : raw;
+      requests.add(new Request(new String(body, StandardCharsets.UTF_8), encoding, raw.length, exchange.getRemoteAddress().getPort(), System.nanoTime()));
+      Integer code = statusCodes.poll();
+      byte[] response = "ok".getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(code == null ? 200 : code, response.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(response);
+      }
+    });
+    server.start();
+  }
+
+  URL getUrl() {
+    try {
+      return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/metrics");
+    } catch (MalformedURLException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+
+  private static byte[] read(InputStream in) throws IOException {
+    try (InputStream is = in) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      int n;
+      while ((n = is.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  static final class Request {
+    final String body;
+    final String contentEncoding;
+    final int contentLength;
+    final int clientPort;
+    final long time;
+
+    Request(String body, String contentEncoding, int contentLength, int clientPort, long time) {
+      this.body = body;
+      this.contentEncoding = contentEncoding;
+      this.contentLength = contentLength;
+      this.clientPort = clientPort;
+      this.time = time;
+    }
+  }
+
+}
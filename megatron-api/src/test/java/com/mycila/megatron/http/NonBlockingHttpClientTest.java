@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.http;
+
+import com.mycila.megatron.queue.DropPolicy;
+import com.mycila.megatron.queue.FlushPolicy;
+import com.mycila.megatron.queue.RingBuffer;
+import com.mycila.megatron.queue.WaitStrategy;
+import com.mycila.megatron.reactor.TransportReactor;
+import com.mycila.megatron.sink.MetricFormat;
+import com.mycila.megatron.sink.MetricSink;
+import com.mycila.megatron.sink.MetricType;
+import com.mycila.megatron.spool.DiskSpool;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class NonBlockingHttpClientTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final TransportReactor reactor = new TransportReactor(1, WaitStrategy.Type.PARK, Thread::new);
+
+  @After
+  public void tearDown() {
+    reactor.close();
+  }
+
+  @Test
+  public void test_rejected_requests_are_not_spooled() throws Exception {
+    try (HttpTestServer server = new HttpTestServer()) {
+      server.statusCodes.add(400);
+      server.statusCodes.add(400);
+      DiskSpool spool = new DiskSpool(tmp.newFolder(), 1024 * 1024, 0, MILLISECONDS);
+      try (NonBlockingHttpClient client = client(server, spool)) {
+        client.send(Stream.of("bad 1"));
+        await(() -> server.requests.size() == 1 && client.getRejectedCount() == 1);
+        client.send(Stream.of("bad 2"));
+        await(() -> server.requests.size() == 2 && client.getRejectedCount() == 2);
+
+        assertThat(spool.isEmpty()).isTrue();
+        assertThat(client.getShedCount()).isEqualTo(0);
+        assertThat(client.getStatistics().getLinesDropped()).isEqualTo(2);
+      }
+    }
+  }
+
+  @Test
+  public void test_rejected_replay_unblocks_the_spool() throws Exception {
+    try (HttpTestServer server = new HttpTestServer()) {
+      // the first post is spooled, then its replay is rejected
+      server.statusCodes.add(500);
+      server.statusCodes.add(400);
+      DiskSpool spool = new DiskSpool(tmp.newFolder(), 1024 * 1024, 0, MILLISECONDS);
+      try (NonBlockingHttpClient client = client(server, spool)) {
+        client.send(Stream.of("a 1"));
+        await(() -> client.getRejectedCount() == 1 && spool.isEmpty());
+        client.send(Stream.of("b 1"));
+        await(() -> server.requests.size() == 3);
+
+        assertThat(server.requests.stream().map(request -> request.body).collect(Collectors.toList())).containsExactly("a 1\n", "a 1\n", "b 1\n");
+        assertThat(client.getShedCount()).isEqualTo(1);
+        assertThat(spool.isEmpty()).isTrue();
+        assertThat(client.getStatistics().getLinesDropped()).isEqualTo(1);
+      }
+    }
+  }
+
+  @Test
+  public void test_failed_replay_stays_in_the_spool() throws Exception {
+    try (HttpTestServer server = new HttpTestServer()) {
+      server.statusCodes.add(500);
+      server.statusCodes.add(500);
+      server.statusCodes.add(200);
+      DiskSpool spool = new DiskSpool(tmp.newFolder(), 1024 * 1024, 0, MILLISECONDS);
+      try (NonBlockingHttpClient client = client(server, spool)) {
+        client.send(Stream.of("a 1"));
+        await(() -> server.requests.size() == 3 && spool.isEmpty());
+        Thread.sleep(50);
+
+        // replayed in place, not appended again
+        assertThat(server.requests.stream().map(request -> request.body).collect(Collectors.toList())).containsExactly("a 1\n", "a 1\n", "a 1\n");
+        assertThat(client.getShedCount()).isEqualTo(2);
+        assertThat(client.getStatistics().getLinesDropped()).isEqualTo(0);
+      }
+    }
+  }
+
+  @Test
+  public void test_sink_points_are_encoded_into_the_body() throws Exception {
+    try (HttpTestServer server = new HttpTestServer()) {
+      try (NonBlockingHttpClient client = client(server, null)) {
+        try (MetricSink sink = client.openSink(MetricFormat.STATSD)) {
+          sink.write("a", "", 1, MetricType.COUNTER, 0);
+          sink.write("b", "", 2.5, MetricType.GAUGE, 0);
+        }
+        client.send(Stream.of("c:3|c"));
+        await(() -> client.getStatistics().getLinesEnqueued() == 3 && !server.requests.isEmpty());
+        await(() -> server.requests.stream().map(request -> request.body).collect(Collectors.joining()).equals("a:1|c\nb:2.5|g\nc:3|c\n"));
+
+        assertThat(client.getStatistics().getLinesDropped()).isEqualTo(0);
+      }
+    }
+  }
+
+  private NonBlockingHttpClient client(HttpTestServer server, DiskSpool spool) {
+    TransportReactor.Lane lane = reactor.nextLane();
+    RingBuffer<byte[]> batches = new RingBuffer<>(16, DropPolicy.DROP_NEWEST, 0, MILLISECONDS, lane.getWaitStrategy());
+    Http http = new Http(server.getUrl());
+    // no retry: a failed post is shed to the spool right away
+    AsyncHttpSender asyncSender = new AsyncHttpSender(http, Runnable::run, 2, 0, 10, 10, MILLISECONDS);
+    return new NonBlockingHttpClient(http, asyncSender, 0, spool, 1000, FlushPolicy.IMMEDIATE, batches, lane);
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertThat(System.nanoTime() - deadline).isLessThan(0);
+      Thread.sleep(10);
+    }
+  }
+
+}
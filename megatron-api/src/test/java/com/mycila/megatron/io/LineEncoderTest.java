@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.io;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class LineEncoderTest {
+
+  private final LineEncoder encoder = new LineEncoder();
+
+  @Test
+  public void test_lines_round_trip() {
+    String[] lines = {"a.b:1|c", "", "caf\u00e9:2|g", "\u20ac\ud83d\ude00:3|ms", "a.b:4|c"};
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    for (String line : lines) {
+      assertThat(encoder.encode(line, buffer)).isTrue();
+    }
+    buffer.flip();
+    StringBuilder expected = new StringBuilder();
+    for (String line : lines) {
+      expected.append(line).append('\n');
+    }
+    assertThat(buffer.remaining()).isEqualTo(expected.toString().getBytes(StandardCharsets.UTF_8).length);
+    assertThat(EncodedLines.count(buffer)).isEqualTo(lines.length);
+    List<String> decoded = new ArrayList<>();
+    EncodedLines.decode(buffer, decoded::add);
+    assertThat(decoded).containsExactly(lines);
+  }
+
+  @Test
+  public void test_line_filling_the_buffer_exactly() {
+    ByteBuffer buffer = ByteBuffer.allocate(6);
+    assertThat(encoder.encode("a:1|c", buffer)).isTrue();
+    assertThat(buffer.hasRemaining()).isFalse();
+
+    buffer = ByteBuffer.allocate(7);
+    assertThat(encoder.encode("\u00e9:1|c", buffer)).isTrue();
+    assertThat(buffer.hasRemaining()).isFalse();
+  }
+
+  @Test
+  public void test_buffer_is_untouched_when_the_line_does_not_fit() {
+    ByteBuffer buffer = ByteBuffer.allocate(8);
+    assertThat(encoder.encode("a", buffer)).isTrue();
+
+    // ascii: the new line does not fit
+    assertThat(encoder.encode("b:10|c", buffer)).isFalse();
+    assertThat(buffer.position()).isEqualTo(2);
+
+    // as many chars as the remaining bytes, but more bytes once encoded
+    assertThat(encoder.encode("\u00e9\u00e9\u00e9", buffer)).isFalse();
+    assertThat(buffer.position()).isEqualTo(2);
+
+    assertThat(encoder.encode("b:1|c", ByteBuffer.allocate(0))).isFalse();
+
+    // the encoder is still usable
+    assertThat(encoder.encode("\u00e9\u00e9", buffer)).isTrue();
+    buffer.flip();
+    assertThat(StandardCharsets.UTF_8.decode(buffer).toString()).isEqualTo("a\n\u00e9\u00e9\n");
+  }
+
+  @Test
+  public void test_long_non_ascii_lines() {
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      line.append('\u00e9');
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(4096);
+    assertThat(encoder.encode(line, buffer)).isTrue();
+    assertThat(buffer.position()).isEqualTo(2001);
+    buffer.flip();
+    List<String> decoded = new ArrayList<>();
+    EncodedLines.decode(buffer, decoded::add);
+    assertThat(decoded).containsExactly(line.toString());
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.queue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class RingBufferTest {
+
+  @Test
+  public void test_capacity_rounded_to_power_of_2() {
+    assertThat(new RingBuffer<String>(1, DropPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, WaitStrategy.Type.PARK.create()).capacity()).isEqualTo(2);
+    assertThat(new RingBuffer<String>(5, DropPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, WaitStrategy.Type.PARK.create()).capacity()).isEqualTo(8);
+    assertThat(new RingBuffer<String>(8, DropPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, WaitStrategy.Type.PARK.create()).capacity()).isEqualTo(8);
+  }
+
+  @Test
+  public void test_drop_newest() {
+    RingBuffer<Integer> buffer = new RingBuffer<>(4, DropPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, WaitStrategy.Type.PARK.create());
+    for (int i = 0; i < 6; i++) {
+      buffer.offer(i);
+    }
+    List<Integer> drained = new ArrayList<>();
+    assertThat(buffer.drain(drained::add)).isEqualTo(4);
+    assertThat(drained).containsExactly(0, 1, 2, 3);
+    assertThat(buffer.getDropCount()).isEqualTo(2);
+    assertThat(buffer.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void test_drop_oldest() {
+    RingBuffer<Integer> buffer = new RingBuffer<>(4, DropPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS, WaitStrategy.Type.PARK.create());
+    for (int i = 0; i < 6; i++) {
+      assertThat(buffer.offer(i)).isTrue();
+    }
+    List<Integer> drained = new ArrayList<>();
+    buffer.drain(drained::add);
+    assertThat(drained).containsExactly(2, 3, 4, 5);
+    assertThat(buffer.getDropCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void test_block_times_out() {
+    RingBuffer<Integer> buffer = new RingBuffer<>(2, DropPolicy.BLOCK, 10, TimeUnit.MILLISECONDS, WaitStrategy.Type.PARK.create());
+    assertThat(buffer.offer(1)).isTrue();
+    assertThat(buffer.offer(2)).isTrue();
+    assertThat(buffer.offer(3)).isFalse();
+    assertThat(buffer.getDropCount()).isEqualTo(1);
+    assertThat(buffer.poll()).isEqualTo(1);
+    assertThat(buffer.poll()).isEqualTo(2);
+    assertThat(buffer.poll()).isNull();
+  }
+
+  @Test(timeout = 10_000)
+  public void test_many_producers() throws InterruptedException {
+    int producers = 4;
+    int count = 100_000;
+    RingBuffer<Integer> buffer = new RingBuffer<>(1024, DropPolicy.BLOCK, 1, TimeUnit.MINUTES, WaitStrategy.Type.SPIN_THEN_PARK.create());
+    CountDownLatch start = new CountDownLatch(1);
+    for (int p = 0; p < producers; p++) {
+      new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        for (int i = 0; i < count; i++) {
+          buffer.offer(i);
+        }
+      }).start();
+    }
+    start.countDown();
+    long[] sum = new long[1];
+    int received = 0;
+    while (received < producers * count) {
+      buffer.await(1, TimeUnit.SECONDS);
+      received += buffer.drain(e -> sum[0] += e);
+    }
+    assertThat(buffer.getDropCount()).isEqualTo(0);
+    assertThat(sum[0]).isEqualTo(producers * ((long) count * (count - 1) / 2));
+  }
+
+}
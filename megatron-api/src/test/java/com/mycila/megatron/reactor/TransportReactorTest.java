@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.reactor;
+
+import com.mycila.megatron.queue.DropPolicy;
+import com.mycila.megatron.queue.RingBuffer;
+import com.mycila.megatron.queue.WaitStrategy;
+import com.mycila.megatron.test.UdpServer;
+import com.mycila.megatron.udp.NonBlockingUdpClient;
+import org.junit.Test;
+
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class TransportReactorTest {
+
+  @Test
+  public void test_clients_share_lane_and_socket() throws Exception {
+    int port = freePort();
+    try (UdpServer server = new UdpServer(port); TransportReactor reactor = new TransportReactor(1, WaitStrategy.Type.PARK, Thread::new)) {
+      TransportReactor.Lane lane = reactor.nextLane();
+      assertThat(reactor.nextLane()).isSameAs(lane);
+
+      TransportReactor.SharedDatagramChannel channel = reactor.openDatagramChannel("localhost", port);
+      NonBlockingUdpClient client1 = new NonBlockingUdpClient("localhost", port, 0, queue(lane), lane);
+      NonBlockingUdpClient client2 = new NonBlockingUdpClient("localhost", port, 0, queue(lane), lane);
+
+      client1.send(Arrays.asList("a:1|c", "b:2|c"));
+      client2.send(Arrays.asList("c:3|c"));
+      client1.close();
+      client2.close();
+
+      // still used by this test
+      assertThat(channel.getChannel().isOpen()).isTrue();
+      channel.close();
+      assertThat(channel.getChannel().isOpen()).isFalse();
+
+      Thread.sleep(500);
+      assertThat(server.getReceivedTest().split("\n")).containsExactlyInAnyOrder("a:1|c", "b:2|c", "c:3|c");
+    }
+  }
+
+  private static RingBuffer<String> queue(TransportReactor.Lane lane) {
+    return new RingBuffer<>(16, DropPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, lane.getWaitStrategy());
+  }
+
+  private static int freePort() throws SocketException {
+    try (DatagramSocket socket = new DatagramSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+}
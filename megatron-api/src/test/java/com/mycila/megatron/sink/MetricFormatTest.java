@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.sink;
+
+import com.mycila.megatron.Client;
+import com.mycila.megatron.udp.NioUdpClient;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class MetricFormatTest {
+
+  @Test
+  public void test_encodes_lines_of_each_protocol() {
+    assertThat(encode(MetricFormat.STATSD, "a.b", "", 1, MetricType.COUNTER)).isEqualTo("a.b:1|c\n");
+    assertThat(encode(MetricFormat.DOGSTATSD, "a.b", "", 2L, MetricType.GAUGE)).isEqualTo("a.b:2|g\n");
+    assertThat(encode(MetricFormat.DOGSTATSD, "a.b", "k:v,x:y", -2L, MetricType.GAUGE)).isEqualTo("a.b:-2|g|#k:v,x:y\n");
+    assertThat(encode(MetricFormat.LIBRATO, "a.b", "k=v", 0, MetricType.GAUGE)).isEqualTo("a.b#k=v:0|g\n");
+    assertThat(encode(MetricFormat.GRAPHITE, "a.b", "k=v;x=y", 3, MetricType.GAUGE)).isEqualTo("a.b;k=v;x=y 3 1500000000\n");
+    assertThat(encode(MetricFormat.PROMETHEUS, "a_b", "k=\"v\"", 4, MetricType.GAUGE)).isEqualTo("a_b{k=\"v\"} 4\n");
+    assertThat(encode(MetricFormat.PROMETHEUS, "a_b", "", Long.MIN_VALUE, MetricType.GAUGE)).isEqualTo("a_b -9223372036854775808\n");
+  }
+
+  @Test
+  public void test_values_are_written_like_the_default_formatter() {
+    assertThat(encode(MetricFormat.STATSD, "a", "", 1234567.1234567, MetricType.GAUGE)).isEqualTo("a:1234567.123457|g\n");
+    assertThat(encode(MetricFormat.STATSD, "a", "", Double.NaN, MetricType.GAUGE)).isEqualTo("a:NaN|g\n");
+    assertThat(encode(MetricFormat.STATSD, "a", "", 0.5f, MetricType.GAUGE)).isEqualTo("a:0.5|g\n");
+  }
+
+  @Test
+  public void test_primitive_values_are_encoded_like_boxed_ones() {
+    for (MetricFormat format : MetricFormat.values()) {
+      for (long value : new long[]{0, -1, 42, Long.MAX_VALUE}) {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        assertThat(format.encode(buffer, "a.b", "k:v", value, MetricType.GAUGE, 1_500_000_000_123L)).isTrue();
+        buffer.flip();
+        assertThat(StandardCharsets.UTF_8.decode(buffer).toString()).isEqualTo(encode(format, "a.b", "k:v", value, MetricType.GAUGE));
+      }
+      for (double value : new double[]{0, -0.5, 1234567.1234567, 1e300, Double.NaN}) {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        assertThat(format.encode(buffer, "a.b", "k:v", value, MetricType.GAUGE, 1_500_000_000_123L)).isTrue();
+        buffer.flip();
+        assertThat(StandardCharsets.UTF_8.decode(buffer).toString()).isEqualTo(encode(format, "a.b", "k:v", value, MetricType.GAUGE));
+      }
+    }
+  }
+
+  @Test
+  public void test_names_are_encoded_in_utf8() {
+    assertThat(encode(MetricFormat.STATSD, "caf\u00e9.\u20ac.\uD83D\uDE00", "", 1, MetricType.COUNTER)).isEqualTo("caf\u00e9.\u20ac.\uD83D\uDE00:1|c\n");
+  }
+
+  @Test
+  public void test_target_untouched_on_overflow() {
+    ByteBuffer buffer = ByteBuffer.allocate(10);
+    assertThat(MetricFormat.STATSD.encode(buffer, "abc", "", 1, MetricType.COUNTER, 0)).isTrue();
+    assertThat(buffer.position()).isEqualTo(8);
+    assertThat(MetricFormat.STATSD.encode(buffer, "abc", "", 1, MetricType.COUNTER, 0)).isFalse();
+    assertThat(buffer.position()).isEqualTo(8);
+  }
+
+  @Test
+  public void test_sink_adapts_to_string_clients() {
+    List<String> received = new ArrayList<>();
+    Client client = messages -> messages.forEach(received::add);
+    try (MetricSink sink = client.openSink(MetricFormat.DOGSTATSD)) {
+      for (int i = 0; i < 1000; i++) {
+        sink.write("metric" + i, "k:v", i, MetricType.GAUGE, 0);
+      }
+      // nothing is sent before the sink is closed
+      assertThat(received).isEmpty();
+    }
+    assertThat(received).hasSize(1000);
+    assertThat(received.get(999)).isEqualTo("metric999:999|g|#k:v");
+  }
+
+  @Test
+  public void test_sink_writes_to_transport_buffer() throws Exception {
+    try (DatagramChannel server = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+         NioUdpClient client = new NioUdpClient("127.0.0.1", ((InetSocketAddress) server.getLocalAddress()).getPort(), 100)) {
+      try (MetricSink sink = client.openSink(MetricFormat.STATSD)) {
+        for (int i = 0; i < 20; i++) {
+          sink.write("metric." + i, "", i, MetricType.GAUGE, 0);
+        }
+      }
+      StringBuilder expected = new StringBuilder();
+      for (int i = 0; i < 20; i++) {
+        expected.append("metric.").append(i).append(':').append(i).append("|g\n");
+      }
+      StringBuilder received = new StringBuilder();
+      ByteBuffer datagram = ByteBuffer.allocate(1024);
+      int datagrams = 0;
+      while (received.length() < expected.length()) {
+        datagram.clear();
+        server.receive(datagram);
+        datagram.flip();
+        assertThat(datagram.remaining()).isLessThanOrEqualTo(100);
+        received.append(StandardCharsets.UTF_8.decode(datagram));
+        datagrams++;
+      }
+      assertThat(received.toString()).isEqualTo(expected.toString());
+      assertThat(datagrams).isGreaterThan(1);
+      assertThat(client.getStatistics().getLinesSent()).isEqualTo(20);
+    }
+  }
+
+  private static String encode(MetricEncoder encoder, String name, String tags, Number value, MetricType type) {
+    ByteBuffer buffer = ByteBuffer.allocate(512);
+    assertThat(encoder.encode(buffer, name, tags, value, type, 1_500_000_000_123L)).isTrue();
+    buffer.flip();
+    return StandardCharsets.UTF_8.decode(buffer).toString();
+  }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.spool;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class DiskSpoolTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void test_order_across_segments() throws IOException {
+    File dir = tmp.newFolder();
+    try (DiskSpool spool = new DiskSpool(dir, 1024 * 1024, 0, TimeUnit.MILLISECONDS, 64)) {
+      for (int i = 0; i < 20; i++) {
+        assertThat(spool.append(bytes("record-" + i))).isTrue();
+      }
+      assertThat(dir.list()).hasSize(7);
+      assertThat(spool.size()).isEqualTo(20);
+      for (int i = 0; i < 20; i++) {
+        assertThat(string(spool.poll())).isEqualTo("record-" + i);
+      }
+      assertThat(spool.poll()).isNull();
+      assertThat(spool.isEmpty()).isTrue();
+      // only the tail segment remains
+      assertThat(dir.list()).hasSize(1);
+    }
+  }
+
+  @Test
+  public void test_recovery() throws IOException {
+    File dir = tmp.newFolder();
+    try (DiskSpool spool = new DiskSpool(dir, 1024 * 1024, 0, TimeUnit.MILLISECONDS, 64)) {
+      for (int i = 0; i < 10; i++) {
+        spool.append(bytes("record-" + i));
+      }
+      assertThat(string(spool.poll())).isEqualTo("record-0");
+      assertThat(string(spool.poll())).isEqualTo("record-1");
+    }
+    try (DiskSpool spool = new DiskSpool(dir, 1024 * 1024, 0, TimeUnit.MILLISECONDS, 64)) {
+      assertThat(spool.size()).isEqualTo(8);
+      spool.append(bytes("record-10"));
+      for (int i = 2; i <= 10; i++) {
+        assertThat(string(spool.poll())).isEqualTo("record-" + i);
+      }
+      assertThat(spool.poll()).isNull();
+    }
+  }
+
+  @Test
+  public void test_max_size_drops_oldest_segment() throws IOException {
+    File dir = tmp.newFolder();
+    try (DiskSpool spool = new DiskSpool(dir, 128, 0, TimeUnit.MILLISECONDS, 64)) {
+      // 3 records of 20 bytes per segment, 2 segments max
+      for (int i = 0; i < 7; i++) {
+        spool.append(bytes("record-" + i));
+      }
+      assertThat(spool.getDropCount()).isEqualTo(3);
+      assertThat(spool.size()).isEqualTo(4);
+      assertThat(string(spool.poll())).isEqualTo("record-3");
+      assertThat(spool.append(new byte[200])).isFalse();
+    }
+  }
+
+  @Test
+  public void test_retention() throws IOException, InterruptedException {
+    File dir = tmp.newFolder();
+    try (DiskSpool spool = new DiskSpool(dir, 1024 * 1024, 50, TimeUnit.MILLISECONDS, 64)) {
+      spool.append(bytes("old"));
+      Thread.sleep(100);
+      spool.append(bytes("new"));
+      assertThat(string(spool.poll())).isEqualTo("new");
+      assertThat(spool.getExpiredCount()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void test_peeked_record_is_kept_until_removed() throws IOException {
+    File dir = tmp.newFolder();
+    try (DiskSpool spool = new DiskSpool(dir, 1024 * 1024, 0, TimeUnit.MILLISECONDS, 64)) {
+      spool.append(bytes("record-0"));
+      spool.append(bytes("record-1"));
+      assertThat(string(spool.peek())).isEqualTo("record-0");
+      assertThat(string(spool.peek())).isEqualTo("record-0");
+      assertThat(spool.size()).isEqualTo(2);
+    }
+    // not removed: read again after a restart
+    try (DiskSpool spool = new DiskSpool(dir, 1024 * 1024, 0, TimeUnit.MILLISECONDS, 64)) {
+      assertThat(string(spool.peek())).isEqualTo("record-0");
+      spool.remove();
+      assertThat(string(spool.peek())).isEqualTo("record-1");
+    }
+    try (DiskSpool spool = new DiskSpool(dir, 1024 * 1024, 0, TimeUnit.MILLISECONDS, 64)) {
+      assertThat(spool.size()).isEqualTo(1);
+      assertThat(string(spool.poll())).isEqualTo("record-1");
+    }
+  }
+
+  @Test
+  public void test_remove_after_the_peeked_record_was_dropped() throws IOException {
+    File dir = tmp.newFolder();
+    try (DiskSpool spool = new DiskSpool(dir, 128, 0, TimeUnit.MILLISECONDS, 64)) {
+      // 3 records of 20 bytes per segment, 2 segments max
+      for (int i = 0; i < 3; i++) {
+        spool.append(bytes("record-" + i));
+      }
+      assertThat(string(spool.peek())).isEqualTo("record-0");
+      // drops the segment of the peeked record
+      for (int i = 3; i < 7; i++) {
+        spool.append(bytes("record-" + i));
+      }
+      spool.remove();
+      assertThat(spool.size()).isEqualTo(4);
+      assertThat(string(spool.poll())).isEqualTo("record-3");
+    }
+  }
+
+  @Test
+  public void test_deleted_segments_are_unmapped() throws IOException {
+    File maps = new File("/proc/self/maps");
+    Assume.assumeTrue(maps.canRead() && MappedBuffers.isSupported());
+    File dir = tmp.newFolder();
+    try (DiskSpool spool = new DiskSpool(dir, 1024 * 1024, 0, TimeUnit.MILLISECONDS, 64)) {
+      for (int i = 0; i < 6; i++) {
+        spool.append(bytes("record-" + i));
+      }
+      assertThat(mappings(maps, dir)).isEqualTo(2);
+      for (int i = 0; i < 6; i++) {
+        spool.poll();
+      }
+      spool.poll();
+      // only the tail segment is still mapped
+      assertThat(dir.list()).hasSize(1);
+      assertThat(mappings(maps, dir)).isEqualTo(1);
+    }
+    assertThat(mappings(maps, dir)).isEqualTo(0);
+  }
+
+  private static long mappings(File maps, File dir) throws IOException {
+    return Files.readAllLines(maps.toPath()).stream().filter(line -> line.contains(dir.getAbsolutePath())).count();
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String string(byte[] b) {
+    return b == null ? null : new String(b, StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.stats;
+
+import com.mycila.megatron.queue.DropPolicy;
+import com.mycila.megatron.queue.RingBuffer;
+import com.mycila.megatron.queue.WaitStrategy;
+import com.mycila.megatron.reactor.TransportReactor;
+import com.mycila.megatron.udp.NonBlockingUdpClient;
+import org.junit.Test;
+import org.terracotta.management.model.context.Context;
+import org.terracotta.management.model.stats.ContextualStatistics;
+import org.terracotta.statistics.StatisticType;
+
+import java.net.DatagramSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class TransportStatisticsTest {
+
+  @Test
+  public void test_client_statistics() throws Exception {
+    int port;
+    try (DatagramSocket socket = new DatagramSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    try (TransportReactor reactor = new TransportReactor(1, WaitStrategy.Type.PARK, Thread::new)) {
+      TransportReactor.Lane lane = reactor.nextLane();
+      RingBuffer<String> queue = new RingBuffer<>(2, DropPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, lane.getWaitStrategy());
+      NonBlockingUdpClient client = new NonBlockingUdpClient("localhost", port, 1432, queue, lane);
+      TransportStatistics statistics = client.getStatistics();
+
+      // the lane is woken up after the first offer: some lines might be dropped
+      client.send(Arrays.asList("a:1|c", "b:2|c", "c:3|c", "d:4|c"));
+      client.close();
+
+      assertThat(statistics.getLinesEnqueued() + statistics.getLinesDropped()).isEqualTo(4);
+      assertThat(statistics.getLinesSent()).isEqualTo(statistics.getLinesEnqueued());
+      assertThat(statistics.getBytesSent()).isEqualTo(6 * statistics.getLinesSent());
+      assertThat(statistics.getPacketsSent()).isBetween(1L, 2L);
+      assertThat(statistics.getSendErrors()).isEqualTo(0);
+      assertThat(statistics.getQueueDepth()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void test_sum_and_collect() {
+    TransportStatistics s1 = new TransportStatistics();
+    TransportStatistics s2 = new TransportStatistics();
+    s1.sent(2, 10, 3, TimeUnit.MILLISECONDS);
+    s2.sent(1, 5, 1, TimeUnit.MILLISECONDS);
+    s2.error(100, TimeUnit.MILLISECONDS);
+    s2.dropped(1);
+
+    TransportStatistics sum = TransportStatistics.sum(Arrays.asList(s1, s2));
+    Map<String, Number> values = sum.toMap();
+    assertThat(values.get("LinesSent")).isEqualTo(3L);
+    assertThat(values.get("LinesDropped")).isEqualTo(1L);
+    assertThat(values.get("BytesSent")).isEqualTo(15L);
+    assertThat(values.get("PacketsSent")).isEqualTo(2L);
+    assertThat(values.get("SendErrors")).isEqualTo(1L);
+    assertThat(values.get("SendLatencyMax")).isEqualTo(100.0);
+    // 3ms falls in the [2048, 4096) us bucket
+    assertThat(values.get("SendLatencyP50")).isEqualTo(4.096);
+
+    TransportStatisticsRegistry registry = new TransportStatisticsRegistry();
+    registry.register("megatron.statsd", sum);
+    List<ContextualStatistics> collected = registry.collect(Context.create("serverId", "node-1"));
+    assertThat(collected).hasSize(1);
+    assertThat(collected.get(0).getContext().get("alias")).isEqualTo("megatron.statsd");
+    assertThat(collected.get(0).getStatistics().get("LinesSent").getType()).isEqualTo(StatisticType.COUNTER);
+    assertThat(collected.get(0).getStatistics().get("QueueDepth").getType()).isEqualTo(StatisticType.GAUGE);
+  }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.tcp;
+
+import com.mycila.megatron.NonBlockingClient;
+import com.mycila.megatron.queue.DropPolicy;
+import com.mycila.megatron.queue.FlushPolicy;
+import com.mycila.megatron.queue.RingBuffer;
+import com.mycila.megatron.queue.WaitStrategy;
+import com.mycila.megatron.reactor.TransportReactor;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class TcpClientTest {
+
+  @Test
+  public void test_lines_are_kept_in_queue_until_connected() throws Exception {
+    int port = freePort();
+    try (TransportReactor reactor = new TransportReactor(1, WaitStrategy.Type.PARK, Thread::new)) {
+      TransportReactor.Lane lane = reactor.nextLane();
+      RingBuffer<String> queue = new RingBuffer<>(16, DropPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, lane.getWaitStrategy());
+      TcpClient tcp = new TcpClient("localhost", port);
+      NonBlockingClient client = new NonBlockingClient(tcp, queue, lane);
+
+      // nobody listening yet
+      client.send(Arrays.asList("a.b 1 1500000000", "c.d 2 1500000000"));
+      Thread.sleep(200);
+      assertThat(queue.size()).isEqualTo(2);
+
+      try (ServerSocket server = new ServerSocket(port)) {
+        server.setSoTimeout(5_000);
+        try (Socket socket = server.accept()) {
+          socket.setSoTimeout(5_000);
+          BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+          assertThat(reader.readLine()).isEqualTo("a.b 1 1500000000");
+          assertThat(reader.readLine()).isEqualTo("c.d 2 1500000000");
+
+          client.send(Arrays.asList("e.f 3 1500000000"));
+          assertThat(reader.readLine()).isEqualTo("e.f 3 1500000000");
+
+          client.close();
+          assertThat(reader.readLine()).isNull();
+        }
+      }
+      assertThat(tcp.getDropCount()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void test_dedicated_thread() throws Exception {
+    try (ServerSocket server = new ServerSocket(0)) {
+      server.setSoTimeout(5_000);
+      RingBuffer<String> queue = new RingBuffer<>(16, DropPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS, WaitStrategy.Type.PARK.create());
+      NonBlockingTcpClient client = new NonBlockingTcpClient(new TcpClient("localhost", server.getLocalPort()), queue, FlushPolicy.IMMEDIATE, Thread::new);
+      client.send(Arrays.asList("a.b 1 1500000000"));
+      try (Socket socket = server.accept()) {
+        socket.setSoTimeout(5_000);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        assertThat(reader.readLine()).isEqualTo("a.b 1 1500000000");
+        client.close();
+        assertThat(reader.readLine()).isNull();
+      }
+    }
+  }
+
+  @Test
+  public void test_write_times_out_when_the_endpoint_does_not_read() throws Exception {
+    try (ServerSocket server = new ServerSocket()) {
+      server.setReceiveBufferSize(4096);
+      server.bind(new InetSocketAddress("localhost", 0));
+      server.setSoTimeout(5_000);
+      TcpClient tcp = new TcpClient("localhost", server.getLocalPort(), TcpClient.DEFAULT_BUFFER_SIZE, 1_000, 200, TimeUnit.MILLISECONDS);
+      while (!tcp.isReady()) {
+        Thread.sleep(10);
+      }
+      // connected but never read
+      try (Socket ignored = server.accept()) {
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        String line = new String(chars);
+        long start = System.nanoTime();
+        for (int i = 0; i < 64 * 1024; i++) {
+          tcp.write(line);
+        }
+        tcp.flush();
+        assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)).isLessThan(5);
+        assertThat(tcp.getDropCount()).isGreaterThan(0);
+        // reconnecting after a backoff
+        assertThat(tcp.isReady()).isFalse();
+      } finally {
+        tcp.close();
+      }
+    }
+  }
+
+  @Test
+  public void test_connect_to_unknown_host() {
+    TcpClient tcp = new TcpClient("unknown.invalid", 2003);
+    assertThat(tcp.isReady()).isFalse();
+    tcp.write("a.b 1 1500000000");
+    tcp.flush();
+    assertThat(tcp.getDropCount()).isEqualTo(1);
+    tcp.close();
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+}
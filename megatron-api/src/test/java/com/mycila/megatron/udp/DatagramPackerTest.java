@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.udp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class DatagramPackerTest {
+
+  private final List<String> datagrams = new ArrayList<>();
+  private final List<Integer> sizes = new ArrayList<>();
+
+  @Test
+  public void test_lines_are_packed_up_to_the_max_size() throws IOException {
+    DatagramPacker packer = packer(10);
+    packer.add("aaa");
+    packer.add("bbb");
+    packer.add("ccc");
+    // "aaa\nbbb\n" + "ccc\n" > 10
+    assertThat(datagrams).containsExactly("aaa\nbbb\n");
+    packer.flush();
+    assertThat(datagrams).containsExactly("aaa\nbbb\n", "ccc\n");
+  }
+
+  @Test
+  public void test_line_exactly_at_max_size_fills_a_datagram() throws IOException {
+    DatagramPacker packer = packer(10);
+    packer.add("a");
+    packer.add("123456789");
+    packer.add("b");
+    packer.flush();
+    assertThat(datagrams).containsExactly("a\n", "123456789\n", "b\n");
+    assertThat(sizes).containsExactly(2, 10, 2);
+  }
+
+  @Test
+  public void test_line_over_max_size_is_sent_alone_after_the_pending_lines() throws IOException {
+    DatagramPacker packer = packer(10);
+    packer.add("a");
+    packer.add("1234567890");
+    packer.add("b");
+    packer.flush();
+    assertThat(datagrams).containsExactly("a\n", "1234567890\n", "b\n");
+    assertThat(sizes).containsExactly(2, 11, 2);
+  }
+
+  @Test
+  public void test_multi_byte_chars_are_never_split() throws IOException {
+    DatagramPacker packer = packer(11);
+    packer.add("aaaa");
+    // 3 chars but 7 bytes with the new line: does not fit in the 6 remaining bytes
+    packer.add("\u00e9\u00e9\u00e9");
+    // 4 bytes: fills the datagram exactly
+    packer.add("\u20ac");
+    packer.flush();
+    assertThat(datagrams).containsExactly("aaaa\n", "\u00e9\u00e9\u00e9\n\u20ac\n");
+    assertThat(sizes).containsExactly(5, 11);
+  }
+
+  @Test
+  public void test_flush_sends_the_last_partial_datagram_once() throws IOException {
+    DatagramPacker packer = packer(1432);
+    packer.add("a:1|c");
+    assertThat(datagrams).isEmpty();
+    packer.flush();
+    packer.flush();
+    assertThat(datagrams).containsExactly("a:1|c\n");
+  }
+
+  @Test
+  public void test_each_line_is_sent_alone_when_packing_is_disabled() throws IOException {
+    DatagramPacker packer = packer(0);
+    packer.add("a");
+    packer.add("b");
+    packer.flush();
+    assertThat(datagrams).isEqualTo(Arrays.asList("a\n", "b\n"));
+  }
+
+  @Test
+  public void test_pending_lines_are_dropped_when_sending_fails() throws IOException {
+    boolean[] failing = {true};
+    DatagramPacker packer = new DatagramPacker(10, (buffer, length) -> {
+      if (failing[0]) {
+        throw new IOException("unreachable");
+      }
+      datagrams.add(new String(buffer, 0, length, StandardCharsets.UTF_8));
+    });
+    packer.add("a");
+    try {
+      packer.flush();
+    } catch (IOException ignored) {
+    }
+    failing[0] = false;
+    packer.add("b");
+    packer.flush();
+    assertThat(datagrams).containsExactly("b\n");
+  }
+
+  private DatagramPacker packer(int maxPacketSize) {
+    return new DatagramPacker(maxPacketSize, (buffer, length) -> {
+      datagrams.add(new String(buffer, 0, length, StandardCharsets.UTF_8));
+      sizes.add(length);
+    });
+  }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.udp;
+
+import com.mycila.megatron.test.UdpServer;
+import org.junit.Test;
+
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class NioUdpClientTest {
+
+  @Test
+  public void test_one_line_per_datagram_without_packing() throws Exception {
+    int port = freePort();
+    try (UdpServer server = new UdpServer(port); NioUdpClient client = new NioUdpClient("localhost", port)) {
+      client.send(Arrays.asList("a:1|c", "b:2|c", "\u00e9t\u00e9:3|g"));
+      Thread.sleep(300);
+      assertThat(server.getReceivedTest()).isEqualTo("a:1|c\nb:2|c\n\u00e9t\u00e9:3|g\n");
+      assertThat(client.getStatistics().getPacketsSent()).isEqualTo(3);
+      assertThat(client.getStatistics().getLinesSent()).isEqualTo(3);
+      assertThat(client.getStatistics().getBytesSent()).isEqualTo(server.getReceivedBytes().length);
+    }
+  }
+
+  @Test
+  public void test_lines_are_packed_into_datagrams() throws Exception {
+    int port = freePort();
+    try (UdpServer server = new UdpServer(port); NioUdpClient client = new NioUdpClient("localhost", port, 12)) {
+      // 6 bytes each: 2 lines per datagram
+      client.send(Arrays.asList("a:1|c", "b:2|c", "c:3|c", "d:4|c", "e:5|c"));
+      Thread.sleep(300);
+      assertThat(server.getReceivedTest()).isEqualTo("a:1|c\nb:2|c\nc:3|c\nd:4|c\ne:5|c\n");
+      assertThat(client.getStatistics().getPacketsSent()).isEqualTo(3);
+      assertThat(client.getStatistics().getLinesSent()).isEqualTo(5);
+    }
+  }
+
+  @Test
+  public void test_line_bigger_than_a_datagram_is_sent_alone() throws Exception {
+    int port = freePort();
+    try (UdpServer server = new UdpServer(port); NioUdpClient client = new NioUdpClient("localhost", port, 8)) {
+      client.send(Arrays.asList("a:1|c", "a.very.long.name:1|c", "b:2|c"));
+      Thread.sleep(300);
+      assertThat(server.getReceivedTest()).isEqualTo("a:1|c\na.very.long.name:1|c\nb:2|c\n");
+      assertThat(client.getStatistics().getPacketsSent()).isEqualTo(3);
+    }
+  }
+
+  @Test
+  public void test_encoded_lines_are_sent_as_is() throws Exception {
+    int port = freePort();
+    try (UdpServer server = new UdpServer(port); NioUdpClient client = new NioUdpClient("localhost", port, 1432)) {
+      client.write(ByteBuffer.wrap("a:1|c\n\u00e9:2|c\n".getBytes(StandardCharsets.UTF_8)));
+      client.write("b:3|c");
+      client.flush();
+      Thread.sleep(300);
+      assertThat(server.getReceivedTest()).isEqualTo("a:1|c\n\u00e9:2|c\nb:3|c\n");
+      assertThat(client.getStatistics().getPacketsSent()).isEqualTo(1);
+      assertThat(client.getStatistics().getLinesSent()).isEqualTo(3);
+    }
+  }
+
+  @Test
+  public void test_lines_written_after_close_are_dropped() throws Exception {
+    int port = freePort();
+    try (UdpServer server = new UdpServer(port)) {
+      NioUdpClient client = new NioUdpClient("localhost", port);
+      client.close();
+      client.write("a:1|c");
+      client.write(ByteBuffer.wrap("b:1|c\nc:1|c\n".getBytes(StandardCharsets.UTF_8)));
+      Thread.sleep(200);
+      assertThat(server.getReceivedBytes()).isEmpty();
+      assertThat(client.getStatistics().getLinesDropped()).isEqualTo(3);
+    }
+  }
+
+  private static int freePort() throws SocketException {
+    try (DatagramSocket socket = new DatagramSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2017 Mathieu Carbou (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.megatron.unix;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Mathieu Carbou
+ */
+public class UnixSocketClientTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void test_frames_are_length_prefixed() throws Exception {
+    // the test agent is opened with the Java 16+ API
+    Class<?> addressType;
+    try {
+      addressType = Class.forName("java.net.UnixDomainSocketAddress");
+    } catch (ClassNotFoundException e) {
+      addressType = null;
+    }
+    assumeTrue(addressType != null);
+    assertThat(UnixSocketClient.isSupported()).isTrue();
+    File socket = new File(tmp.getRoot(), "dsd.socket");
+    SocketAddress address = (SocketAddress) addressType.getMethod("of", String.class).invoke(null, socket.getAbsolutePath());
+    try (ServerSocketChannel server = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, StandardProtocolFamily.valueOf("UNIX"))) {
+      server.bind(address);
+
+      UnixSocketClient client = new UnixSocketClient(socket.getAbsolutePath(), 20);
+      assertThat(client.isReady()).isTrue();
+      client.send(Arrays.asList("a.b:1|c", "c.d:2|c", "e.f:3|c"));
+
+      try (SocketChannel channel = server.accept()) {
+        assertThat(readFrame(channel)).isEqualTo("a.b:1|c\nc.d:2|c\n");
+        assertThat(readFrame(channel)).isEqualTo("e.f:3|c\n");
+      }
+      client.close();
+      assertThat(client.getStatistics().getPacketsSent()).isEqualTo(2);
+      assertThat(client.getStatistics().getLinesSent()).isEqualTo(3);
+    }
+  }
+
+  private static String readFrame(SocketChannel channel) throws Exception {
+    ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    while (header.hasRemaining()) {
+      channel.read(header);
+    }
+    ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+    while (payload.hasRemaining()) {
+      channel.read(payload);
+    }
+    return new String(payload.array(), StandardCharsets.UTF_8);
+  }
+
+}
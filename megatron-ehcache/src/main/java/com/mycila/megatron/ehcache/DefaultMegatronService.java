@@ -20,6 +20,7 @@ import com.mycila.megatron.DisoveringMegatronPlugins;
 import com.mycila.megatron.MegatronApi;
 import com.mycila.megatron.MegatronConfiguration;
 import com.mycila.megatron.Utils;
+import com.mycila.megatron.reactor.TransportReactor;
 import org.ehcache.Cache;
 import org.ehcache.Status;
 import org.ehcache.core.events.CacheManagerListener;
@@ -67,6 +68,7 @@ public class DefaultMegatronService implements MegatronService, CacheManagerList
   private volatile CollectorService collectorService;
   private volatile InternalCacheManager cacheManager;
   private volatile MegatronApi megatronApi;
+  private volatile TransportReactor transportReactor;
   private volatile String cacheManagerAlias;
   private volatile Context context;
 
@@ -93,7 +95,8 @@ public class DefaultMegatronService implements MegatronService, CacheManagerList
     ExecutorService executorService = serviceProvider.getService(ExecutionService.class).getUnorderedExecutor("megatron-scheduler", new SynchronousQueue<>());
     ScheduledExecutorService scheduledExecutorService = serviceProvider.getService(ExecutionService.class).getScheduledExecutor("megatron-task");
     ThreadFactory threadFactory = ThreadFactoryUtil.threadFactory("megatron");
-    megatronApi = new EhcacheMegatronApi(cacheManagerAlias, executorService, scheduledExecutorService, threadFactory, configuration);
+    transportReactor = TransportReactor.create(configuration, threadFactory);
+    megatronApi = new EhcacheMegatronApi(cacheManagerAlias, executorService, scheduledExecutorService, threadFactory, configuration, transportReactor);
 
     this.cacheManager.registerListener(this);
   }
@@ -109,6 +112,11 @@ public class DefaultMegatronService implements MegatronService, CacheManagerList
       plugins = null;
       managementRegistryService = null;
     }
+
+    if (transportReactor != null) {
+      transportReactor.close();
+      transportReactor = null;
+    }
   }
 
   @Override
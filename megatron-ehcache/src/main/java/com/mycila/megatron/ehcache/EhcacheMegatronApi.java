@@ -17,6 +17,7 @@ package com.mycila.megatron.ehcache;
 
 import com.mycila.megatron.MegatronApi;
 import com.mycila.megatron.MegatronConfiguration;
+import com.mycila.megatron.reactor.TransportReactor;
 import org.terracotta.management.model.cluster.Cluster;
 
 import java.util.Objects;
@@ -37,13 +38,15 @@ class EhcacheMegatronApi implements MegatronApi {
   private final ScheduledExecutorService scheduledExecutorService;
   private final ThreadFactory threadFactory;
   private final MegatronConfiguration configuration;
+  private final TransportReactor transportReactor;
 
-  EhcacheMegatronApi(String cmName, ExecutorService executorService, ScheduledExecutorService scheduledExecutorService, ThreadFactory threadFactory, MegatronConfiguration configuration) {
+  EhcacheMegatronApi(String cmName, ExecutorService executorService, ScheduledExecutorService scheduledExecutorService, ThreadFactory threadFactory, MegatronConfiguration configuration, TransportReactor transportReactor) {
     this.cmName = Objects.requireNonNull(cmName);
     this.executorService = Objects.requireNonNull(executorService);
     this.scheduledExecutorService = Objects.requireNonNull(scheduledExecutorService);
     this.threadFactory = Objects.requireNonNull(threadFactory);
     this.configuration = Objects.requireNonNull(configuration);
+    this.transportReactor = Objects.requireNonNull(transportReactor);
   }
 
   @Override
@@ -75,6 +78,11 @@ class EhcacheMegatronApi implements MegatronApi {
     return executorService;
   }
 
+  @Override
+  public TransportReactor getTransportReactor() {
+    return transportReactor;
+  }
+
   @Override
   public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
     return scheduledExecutorService.schedule(command, delay, unit);
@@ -16,7 +16,9 @@
 package com.mycila.megatron.server.config;
 
 import com.mycila.megatron.DefaultMegatronConfiguration;
+import com.mycila.megatron.IntervalPolicy;
 import com.mycila.megatron.MegatronConfiguration;
+import com.mycila.megatron.server.config.model.IntervalPolicyType;
 import com.mycila.megatron.server.config.model.MegatronConfigType;
 import com.mycila.megatron.server.config.model.SetType;
 import com.mycila.megatron.server.config.model.TimeType;
@@ -77,6 +79,16 @@ public class MegatronConfigurationParser implements ExtendedConfigParser {
         configuration.setStatisticCollectorInterval(statisticCollectorInterval.getValue().longValue(), unit);
       }
 
+      List<IntervalPolicyType> policies = configType.getIntervalPolicy();
+      if (policies != null) {
+        policies.forEach(policy -> configuration.addIntervalPolicy(new IntervalPolicy(
+            policy.getClientName(),
+            policy.getEntityType(),
+            policy.getCapability(),
+            policy.getValue().longValue(),
+            convertToJavaTimeUnit(policy.getUnit()))));
+      }
+
       List<SetType> props = configType.getSet();
       if (props != null) {
         props.forEach(prop -> configuration.setProperty(prop.getName(), prop.getValue()));
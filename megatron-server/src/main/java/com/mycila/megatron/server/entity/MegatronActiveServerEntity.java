@@ -15,8 +15,10 @@
  */
 package com.mycila.megatron.server.entity;
 
+import com.mycila.megatron.AdaptiveInterval;
 import com.mycila.megatron.MegatronConfiguration;
 import com.mycila.megatron.MegatronEventListener;
+import com.mycila.megatron.format.StatisticsSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terracotta.entity.ClientDescriptor;
@@ -24,9 +26,11 @@ import org.terracotta.entity.StateDumpCollector;
 import org.terracotta.management.model.call.ContextualCall;
 import org.terracotta.management.model.call.ContextualReturn;
 import org.terracotta.management.model.call.Parameter;
+import org.terracotta.management.model.capabilities.Capability;
 import org.terracotta.management.model.cluster.AbstractManageableNode;
 import org.terracotta.management.model.cluster.Client;
 import org.terracotta.management.model.cluster.Cluster;
+import org.terracotta.management.model.cluster.ManagementRegistry;
 import org.terracotta.management.model.cluster.Server;
 import org.terracotta.management.model.cluster.ServerEntity;
 import org.terracotta.management.model.context.Context;
@@ -45,11 +49,13 @@ import org.terracotta.voltron.proxy.server.ActiveProxiedServerEntity;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * @author Mathieu Carbou
@@ -66,6 +72,10 @@ class MegatronActiveServerEntity extends ActiveProxiedServerEntity<Void, Void, M
   private final Collection<MegatronEventListener> listeners;
   private final MegatronClientDescriptor megatronClientDescriptor = new MegatronClientDescriptor();
   private final Set<Context> pendingStarts = ConcurrentHashMap.newKeySet();
+  private final Set<Context> pendingRestarts = ConcurrentHashMap.newKeySet();
+  // the configured interval of each known collector
+  private final Map<Context, Long> collectors = new ConcurrentHashMap<>();
+  private final AdaptiveInterval collectorInterval;
 
   MegatronActiveServerEntity(ManagementService managementService, EntityManagementRegistry entityManagementRegistry, SharedEntityManagementRegistry sharedEntityManagementRegistry, MegatronConfiguration megatronConfiguration, Collection<MegatronEventListener> listeners) {
     this.entityManagementRegistry = Objects.requireNonNull(entityManagementRegistry);
@@ -74,6 +84,7 @@ class MegatronActiveServerEntity extends ActiveProxiedServerEntity<Void, Void, M
     this.consumerId = entityManagementRegistry.getMonitoringService().getConsumerId();
     this.megatronConfiguration = Objects.requireNonNull(megatronConfiguration);
     this.listeners = Objects.requireNonNull(listeners);
+    this.collectorInterval = AdaptiveInterval.create(megatronConfiguration);
   }
 
   // ActiveProxiedServerEntity
@@ -103,6 +114,7 @@ class MegatronActiveServerEntity extends ActiveProxiedServerEntity<Void, Void, M
   protected void dumpState(StateDumpCollector dump) {
     dump.addState("consumerId", String.valueOf(consumerId));
     dump.addState("listeners", listeners);
+    dump.addState("collectorInterval", String.valueOf(collectorInterval));
   }
 
   // ManagementExecutor
@@ -167,6 +179,7 @@ class MegatronActiveServerEntity extends ActiveProxiedServerEntity<Void, Void, M
             LOGGER.trace("[{}] onStatistics({}): {}", consumerId, statistic.size(), statistic.getContext());
           }
           sendStatisticsToPlugins(statistics);
+          adaptStatisticCollectorInterval();
           break;
         }
       }
@@ -195,9 +208,21 @@ class MegatronActiveServerEntity extends ActiveProxiedServerEntity<Void, Void, M
   // called by IEntityMessenger
   @Override
   public void restartStatisticCollectors() {
+    if (pendingRestarts.isEmpty() && pendingStarts.isEmpty()) {
+      return;
+    }
+    Cluster cluster = managementService.readTopology();
+    // collectors rescheduled because the adaptive interval changed
+    pendingRestarts.removeIf(context -> {
+      // the pending starts already use the current interval
+      if (!pendingStarts.contains(context) && !restartStatisticCollector(cluster, context, true)) {
+        // forget the collectors of the nodes which are gone
+        collectors.remove(context);
+      }
+      return true;
+    });
     if (!pendingStarts.isEmpty()) {
-      Cluster cluster = managementService.readTopology();
-      pendingStarts.removeIf(context -> !restartStatisticCollector(cluster, context));
+      pendingStarts.removeIf(context -> !restartStatisticCollector(cluster, context, false));
       if (!pendingStarts.isEmpty()) {
         // try again for pending contexts
         try {
@@ -210,7 +235,11 @@ class MegatronActiveServerEntity extends ActiveProxiedServerEntity<Void, Void, M
     }
   }
 
-  private boolean restartStatisticCollector(Cluster cluster, Context context) {
+  /**
+   * @param reschedule true to stop the collector first, so that it is started again with the current interval
+   * @return false if the node cannot be found in the topology or is not manageable
+   */
+  private boolean restartStatisticCollector(Cluster cluster, Context context, boolean reschedule) {
     Optional<? extends AbstractManageableNode<?>> o;
     if (context.contains(Client.KEY)) {
       o = cluster.getClient(context);
@@ -219,16 +248,29 @@ class MegatronActiveServerEntity extends ActiveProxiedServerEntity<Void, Void, M
           .filter(serverEntity -> serverEntity.getType().equals(MegatronEntity.TYPE));
     }
     return o.filter(AbstractManageableNode::isManageable).map(node -> {
-      ContextContainer contextContainer = node.getManagementRegistry().get().getContextContainer();
+      ManagementRegistry registry = node.getManagementRegistry().get();
+      ContextContainer contextContainer = registry.getContextContainer();
       Context ctx = node.getContext().with(contextContainer.getName(), contextContainer.getValue());
-      LOGGER.trace("[{}] restartStatisticCollector({})", consumerId, ctx);
+      List<String> capabilities = registry.getCapabilities().stream().map(Capability::getName).collect(Collectors.toList());
+      long configured = megatronConfiguration.getStatisticCollectorInterval(ctx, capabilities);
+      long interval = collectorInterval.apply(configured);
+      collectors.replace(context, configured);
+      LOGGER.trace("[{}] restartStatisticCollector({}, {}ms)", consumerId, ctx, interval);
+      if (reschedule) {
+        managementService.sendManagementCallRequest(
+            megatronClientDescriptor,
+            ctx,
+            "StatisticCollectorCapability",
+            "stopStatisticCollector",
+            Void.TYPE);
+      }
       return managementService.sendManagementCallRequest(
           megatronClientDescriptor,
           ctx,
           "StatisticCollectorCapability",
           "startStatisticCollector",
           Void.TYPE,
-          new Parameter(megatronConfiguration.getStatisticCollectorInterval(), long.class.getName()),
+          new Parameter(interval, long.class.getName()),
           new Parameter(TimeUnit.MILLISECONDS, TimeUnit.class.getName()));
     }).isPresent();
   }
@@ -237,6 +279,33 @@ class MegatronActiveServerEntity extends ActiveProxiedServerEntity<Void, Void, M
     if (context.contains(Client.KEY) || MegatronEntity.TYPE.equals(context.get(ServerEntity.TYPE_KEY))) {
       LOGGER.trace("[{}] needToStartStatisticCollector({})", consumerId, context);
       pendingStarts.add(context);
+      collectors.putIfAbsent(context, megatronConfiguration.getStatisticCollectorInterval());
+    }
+  }
+
+  /**
+   * Restarts all the known collectors with a longer interval when the plugins do not keep up, or a shorter one when they have drained.
+   * <p>
+   * Called for each batch of statistics: the collectors are restarted later, through the messenger.
+   */
+  private void adaptStatisticCollectorInterval() {
+    if (!collectorInterval.isEnabled()) {
+      return;
+    }
+    double pressure = 0;
+    for (MegatronEventListener listener : listeners) {
+      pressure = Math.max(pressure, listener.getBackpressure());
+    }
+    // evaluated at most once per interval of the slowest collector
+    long interval = megatronConfiguration.getStatisticCollectorInterval();
+    for (long configured : collectors.values()) {
+      interval = Math.max(interval, configured);
+    }
+    if (collectorInterval.update(pressure, interval, System.currentTimeMillis())) {
+      int factor = collectorInterval.getFactor();
+      LOGGER.info("[{}] Backpressure at {}%: statistic collection intervals multiplied by {}", consumerId, Math.round(pressure * 100), factor);
+      pendingRestarts.addAll(collectors.keySet());
+      getMessenger().restartStatisticCollectors();
     }
   }
 
@@ -254,9 +323,11 @@ class MegatronActiveServerEntity extends ActiveProxiedServerEntity<Void, Void, M
 
   private void sendStatisticsToPlugins(List<ContextualStatistics> statistics) {
     if (!statistics.isEmpty()) {
+      // reduced once for all the plugins
+      StatisticsSnapshot snapshot = StatisticsSnapshot.of(statistics);
       listeners.forEach(plugin -> {
         try {
-          plugin.onStatistics(statistics);
+          plugin.onStatistics(snapshot);
         } catch (Exception e) {
           LOGGER.error("[{}] sendStatisticsToPlugins({}): ", consumerId, plugin.getClass(), e.getMessage(), e);
         }
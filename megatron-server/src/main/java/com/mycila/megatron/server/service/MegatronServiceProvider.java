@@ -21,6 +21,7 @@ import com.mycila.megatron.DisoveringMegatronPlugins;
 import com.mycila.megatron.MegatronConfiguration;
 import com.mycila.megatron.MegatronEventListener;
 import com.mycila.megatron.MegatronPlugin;
+import com.mycila.megatron.reactor.TransportReactor;
 import com.tc.classloader.BuiltinService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -90,6 +91,7 @@ public class MegatronServiceProvider implements ServiceProvider, Closeable {
   private final DefaultMegatronConfiguration megatronConfiguration = new DefaultMegatronConfiguration();
 
   private PlatformConfiguration platformConfiguration;
+  private volatile TransportReactor transportReactor;
 
   public MegatronServiceProvider() {
     Runtime.getRuntime().addShutdownHook(new Thread(this::close));
@@ -127,6 +129,9 @@ public class MegatronServiceProvider implements ServiceProvider, Closeable {
     } catch (Exception e) {
       LOGGER.warn(e.getMessage(), e);
     }
+    if (transportReactor != null) {
+      transportReactor.close();
+    }
     scheduledExecutorService.shutdown();
     executorService.shutdown();
     try {
@@ -161,7 +166,8 @@ public class MegatronServiceProvider implements ServiceProvider, Closeable {
       PlatformService platformService = ((MegatronServiceConfiguration) configuration).getPlatformService();
       if (!plugins.isInitialized()) {
         LOGGER.info("Initializing Megatron with config: {}", megatronConfiguration);
-        ServerMegatronApi api = new ServerMegatronApi(managementService, platformService, platformConfiguration.getServerName(), executorService, scheduledExecutorService, threadFactory);
+        transportReactor = TransportReactor.create(megatronConfiguration, threadFactory);
+        ServerMegatronApi api = new ServerMegatronApi(managementService, platformService, platformConfiguration.getServerName(), executorService, scheduledExecutorService, threadFactory, transportReactor);
         plugins.setApi(api);
         try {
           plugins.init(megatronConfiguration);
@@ -16,6 +16,7 @@
 package com.mycila.megatron.server.service;
 
 import com.mycila.megatron.MegatronApi;
+import com.mycila.megatron.reactor.TransportReactor;
 import org.terracotta.management.model.cluster.Cluster;
 import org.terracotta.management.service.monitoring.ManagementService;
 import org.terracotta.monitoring.PlatformService;
@@ -43,14 +44,16 @@ class ServerMegatronApi implements MegatronApi {
   private final ExecutorService executorService;
   private final ScheduledExecutorService scheduledExecutorService;
   private final ThreadFactory threadFactory;
+  private final TransportReactor transportReactor;
 
-  ServerMegatronApi(ManagementService managementService, PlatformService platformService, String serverName, ExecutorService executorService, ScheduledExecutorService scheduledExecutorService, ThreadFactory threadFactory) {
+  ServerMegatronApi(ManagementService managementService, PlatformService platformService, String serverName, ExecutorService executorService, ScheduledExecutorService scheduledExecutorService, ThreadFactory threadFactory, TransportReactor transportReactor) {
     this.managementService = Objects.requireNonNull(managementService);
     this.platformService = Objects.requireNonNull(platformService);
     this.serverName = Objects.requireNonNull(serverName);
     this.executorService = Objects.requireNonNull(executorService);
     this.scheduledExecutorService = Objects.requireNonNull(scheduledExecutorService);
     this.threadFactory = Objects.requireNonNull(threadFactory);
+    this.transportReactor = Objects.requireNonNull(transportReactor);
   }
 
   @Override
@@ -91,6 +94,11 @@ class ServerMegatronApi implements MegatronApi {
     return executorService;
   }
 
+  @Override
+  public TransportReactor getTransportReactor() {
+    return transportReactor;
+  }
+
   @Override
   public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
     return scheduledExecutorService.schedule(command, delay, unit);
@@ -22,9 +22,8 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.mycila.megatron.AbstractMegatronPlugin;
 import com.mycila.megatron.MegatronConfiguration;
 import com.mycila.megatron.Namespace;
-import com.mycila.megatron.format.Statistics;
+import com.mycila.megatron.format.StatisticsSnapshot;
 import org.terracotta.management.model.notification.ContextualNotification;
-import org.terracotta.management.model.stats.ContextualStatistics;
 
 import java.io.PrintWriter;
 import java.util.List;
@@ -62,15 +61,16 @@ public class MegatronConsolePlugin extends AbstractMegatronPlugin {
       out.println(notifications.stream()
           .map(notification -> "NOTIFICATION: " + notification.getType() + "\n" + json(notification.getContext()))
           .collect(joining("\n")));
+      notifications.forEach(this::onNotification);
     }
   }
 
   @Override
-  public void onStatistics(List<ContextualStatistics> contextualStatistics) {
+  public void onStatistics(StatisticsSnapshot snapshot) {
     if (enable) {
-      out.println(contextualStatistics.stream()
+      out.println(selectEntries(snapshot).stream()
           .map(contextualStatistic -> {
-            Map<String, Number> statistics = Statistics.extractStatistics(contextualStatistic);
+            Map<String, Number> statistics = contextualStatistic.getStatistics(filter);
             return "STATISTICS:\n - " +
                 statistics
                     .entrySet()
@@ -20,12 +20,14 @@ import com.mycila.megatron.MegatronConfiguration;
 import com.mycila.megatron.Namespace;
 import com.mycila.megatron.format.DefaultFormatter;
 import com.mycila.megatron.format.Formatter;
-import com.mycila.megatron.format.Statistics;
+import com.mycila.megatron.format.StatisticColumns;
+import com.mycila.megatron.format.StatisticsSnapshot;
+import com.mycila.megatron.sink.MetricFormat;
+import com.mycila.megatron.sink.MetricSink;
+import com.mycila.megatron.sink.MetricType;
 import org.terracotta.management.model.notification.ContextualNotification;
-import org.terracotta.management.model.stats.ContextualStatistics;
 
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author Mathieu Carbou
@@ -52,42 +54,43 @@ public class MegatronPrometheusStatsDPlugin extends AbstractMegatronUdpPlugin {
   @Override
   public void onNotifications(List<ContextualNotification> notifications) {
     if (enable) {
-      client.send(notifications.stream()
-          .map(notification -> {
-            logger.trace("onNotifications({})", notification.getType());
-            String metric = formatter.formatMetricName("events", notification.getContext(), notification.getType());
-            String value = formatter.formatValue(1);
-            String tags = formatter.formatTags(notification.getContext());
-            return formatLine(metric, value, "c", tags);
-          }));
+      try (MetricSink sink = client.openSink(MetricFormat.DOGSTATSD)) {
+        long now = System.currentTimeMillis();
+        StringBuilder metric = new StringBuilder(128);
+        for (ContextualNotification notification : notifications) {
+          logger.trace("onNotifications({})", notification.getType());
+          metric.setLength(0);
+          formatter.appendMetricName(metric, "events", notification.getContext(), notification.getType());
+          sink.write(metric, formatter.formatTags(notification.getContext()), 1, MetricType.COUNTER, now);
+          formatter.onNotification(notification);
+          onNotification(notification);
+        }
+      }
     }
   }
 
   @Override
-  public void onStatistics(List<ContextualStatistics> contextualStatistics) {
+  public void onStatistics(StatisticsSnapshot snapshot) {
     if (enable) {
-      client.send(contextualStatistics.stream()
-          .flatMap(contextualStatistic -> {
-            Map<String, Number> statistics = Statistics.extractStatistics(contextualStatistic);
-            logger.trace("onStatistics({})", statistics.size());
-            String tags = formatter.formatTags(contextualStatistic.getContext());
-            return statistics.entrySet()
-                .stream()
-                .map(entry -> {
-                  String metric = formatter.formatMetricName("statistics", contextualStatistic.getContext(), entry.getKey());
-                  String value = formatter.formatValue(entry.getValue());
-                  return formatLine(metric, value, "g", tags);
-                });
-          }));
+      try (MetricSink sink = client.openSink(MetricFormat.DOGSTATSD)) {
+        long now = System.currentTimeMillis();
+        changes.nextBatch();
+        StringBuilder metric = new StringBuilder(128);
+        for (StatisticsSnapshot.Entry contextualStatistic : selectEntries(snapshot)) {
+          StatisticColumns statistics = contextualStatistic.getColumns(filter);
+          logger.trace("onStatistics({})", statistics.size());
+          String tags = formatter.formatTags(contextualStatistic.getContext());
+          for (int row = 0; row < statistics.size(); row++) {
+            if (!changes.hasChanged(contextualStatistic.getContext(), statistics, row)) {
+              continue;
+            }
+            metric.setLength(0);
+            formatter.appendMetricName(metric, "statistics", contextualStatistic.getContext(), statistics.getName(row));
+            sink.write(metric, tags, statistics, row, MetricType.GAUGE, now);
+          }
+        }
+      }
     }
   }
 
-  private static String formatLine(String metric, String value, String type, String tags) {
-    String message = metric + ":" + value + "|" + type;
-    if (!tags.isEmpty()) {
-      message = message + "|#" + tags;
-    }
-    return message;
-  }
-
 }
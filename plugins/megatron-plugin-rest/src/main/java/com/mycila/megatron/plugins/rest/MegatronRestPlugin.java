@@ -22,7 +22,8 @@ import com.mycila.megatron.AbstractMegatronPlugin;
 import com.mycila.megatron.Config;
 import com.mycila.megatron.MegatronConfiguration;
 import com.mycila.megatron.Namespace;
-import com.mycila.megatron.format.Statistics;
+import com.mycila.megatron.format.StatisticColumns;
+import com.mycila.megatron.format.StatisticsSnapshot;
 import io.undertow.Undertow;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
@@ -32,16 +33,13 @@ import org.terracotta.management.model.cluster.Node;
 import org.terracotta.management.model.cluster.Server;
 import org.terracotta.management.model.context.Context;
 import org.terracotta.management.model.notification.ContextualNotification;
-import org.terracotta.management.model.stats.ContextualStatistics;
 
 import java.util.AbstractMap;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -55,12 +53,16 @@ import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 
 /**
+ * Serves the topology and the last statistics of each context.
+ * <p>
+ * The last {@link StatisticColumns} of each context are kept as they are: values are only boxed when a request is served.
+ *
  * @author Mathieu Carbou
  */
 @Namespace("megatron.rest")
 public class MegatronRestPlugin extends AbstractMegatronPlugin {
 
-  private final Map<Context, Map<String, Number>> statsPerContexts = new ConcurrentHashMap<>();
+  private final Map<Context, StatisticColumns> statsPerContexts = new ConcurrentHashMap<>();
   private final ObjectMapper mapper = new ObjectMapper();
 
   @Config private int port = 9470;
@@ -143,7 +145,7 @@ public class MegatronRestPlugin extends AbstractMegatronPlugin {
               String clientId = params.get("clientId");
               String cacheManagerName = params.get("cacheManagerName");
               String statNames = params.getOrDefault("statNames", "");
-              Map<Context, Map<String, Number>> allStatistics = findAllStatistics(context ->
+              Map<Context, StatisticColumns> allStatistics = findAllStatistics(context ->
                   clientId.equals(context.get(Client.KEY))
                       && cacheManagerName.equals(context.get("cacheManagerName"))
                       && context.contains("cacheName"));
@@ -155,7 +157,7 @@ public class MegatronRestPlugin extends AbstractMegatronPlugin {
             .add("/api/v1/statistics/clients/{clientId}", json((exchange, params) -> {
               String clientId = params.get("clientId");
               String statNames = params.getOrDefault("statNames", "");
-              Map<Context, Map<String, Number>> allStatistics = findAllStatistics(context ->
+              Map<Context, StatisticColumns> allStatistics = findAllStatistics(context ->
                   clientId.equals(context.get(Client.KEY))
                       && context.contains("cacheManagerName")
                       && context.contains("cacheName"));
@@ -185,6 +187,7 @@ public class MegatronRestPlugin extends AbstractMegatronPlugin {
   public void onNotifications(List<ContextualNotification> notifications) {
     if (enable) {
       for (ContextualNotification notification : notifications) {
+        onNotification(notification);
         switch (notification.getType()) {
           // cleanup the stats "buffer"
           case "SERVER_ENTITY_DESTROYED":
@@ -200,13 +203,13 @@ public class MegatronRestPlugin extends AbstractMegatronPlugin {
   }
 
   @Override
-  public void onStatistics(List<ContextualStatistics> contextualStatistics) {
+  public void onStatistics(StatisticsSnapshot snapshot) {
     if (enable) {
-      for (ContextualStatistics contextualStatistic : contextualStatistics) {
-        Map<String, Number> statistics = Statistics.extractStatistics(contextualStatistic);
+      for (StatisticsSnapshot.Entry contextualStatistic : selectEntries(snapshot)) {
+        StatisticColumns statistics = contextualStatistic.getColumns(filter);
         logger.trace("onStatistics({})", statistics.size());
-        Map<String, Number> stats = statsPerContexts.computeIfAbsent(contextualStatistic.getContext(), context -> new ConcurrentHashMap<>());
-        stats.putAll(statistics);
+        // immutable: replaces the statistics of the previous collection
+        statsPerContexts.put(contextualStatistic.getContext(), statistics);
       }
     }
   }
@@ -243,31 +246,34 @@ public class MegatronRestPlugin extends AbstractMegatronPlugin {
     };
   }
 
-  private Map<String, Number> findStatistics(Predicate<Context> p) {
+  private StatisticColumns findStatistics(Predicate<Context> p) {
     return statsPerContexts.entrySet()
         .stream()
         .filter(e -> p.test(e.getKey()))
         .map(Map.Entry::getValue)
         .findFirst()
-        .orElse(Collections.emptyMap());
+        .orElse(StatisticColumns.EMPTY);
   }
 
-  private Map<Context, Map<String, Number>> findAllStatistics(Predicate<Context> p) {
+  private Map<Context, StatisticColumns> findAllStatistics(Predicate<Context> p) {
     return statsPerContexts.entrySet()
         .stream()
         .filter(e -> p.test(e.getKey()))
         .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
   }
 
-  private Map<String, Number> filter(Map<String, Number> statistics, String statNames) {
+  private Map<String, Number> filter(StatisticColumns statistics, String statNames) {
     if (statNames != null) {
-      Set<String> statSet = new HashSet<String>(asList(statNames.split(",")));
-      return statistics.entrySet()
-          .stream()
-          .filter(e -> statSet.contains(e.getKey()))
-          .collect(toMap(Map.Entry::getKey, Map.Entry::getValue));
+      Map<String, Number> filtered = new HashMap<>();
+      for (String statName : statNames.split(",")) {
+        int row = statistics.indexOf(statName);
+        if (row >= 0) {
+          filtered.put(statName, statistics.getValue(row));
+        }
+      }
+      return filtered;
     }
-    return statistics;
+    return statistics.toMap();
   }
 
   private interface ParamHandler {